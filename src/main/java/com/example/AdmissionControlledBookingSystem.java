@@ -0,0 +1,160 @@
+package com.example;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.BookingRejectedException.Reason;
+
+public class AdmissionControlledBookingSystem {
+    private final BookingSystem bookingSystem;
+    private final AdmissionPolicy policy;
+    private final TokenBucket rateLimiter;
+    private final Semaphore globalPermits;
+    private final Map<String, Semaphore> roomPermits = new ConcurrentHashMap<>();
+    private final AdmissionMetrics metrics = new AdmissionMetrics();
+
+    public AdmissionControlledBookingSystem(BookingSystem bookingSystem, AdmissionPolicy policy) {
+        this.bookingSystem = Objects.requireNonNull(bookingSystem, "bookingSystem kan inte vara null");
+        this.policy = Objects.requireNonNull(policy, "policy kan inte vara null");
+        this.rateLimiter = new TokenBucket(policy.permitsPerSecond(), policy.burst());
+        this.globalPermits = new Semaphore(policy.maxConcurrent());
+    }
+
+    public boolean bookRoom(String roomId, LocalDateTime startTime, LocalDateTime endTime) {
+        Semaphore roomSemaphore = admitRoom(roomId);
+        try {
+            return bookingSystem.bookRoom(roomId, startTime, endTime);
+        } finally {
+            release(roomSemaphore);
+        }
+    }
+
+    public BookingResult tryBookRoom(String roomId, LocalDateTime startTime, LocalDateTime endTime) {
+        Semaphore roomSemaphore = admitRoom(roomId);
+        try {
+            return bookingSystem.tryBookRoom(roomId, startTime, endTime);
+        } finally {
+            release(roomSemaphore);
+        }
+    }
+
+    public List<Room> getAvailableRooms(LocalDateTime startTime, LocalDateTime endTime) {
+        admit(null);
+        try {
+            return bookingSystem.getAvailableRooms(startTime, endTime);
+        } finally {
+            release(null);
+        }
+    }
+
+    public boolean cancelBooking(String bookingId) {
+        admit(null);
+        try {
+            return bookingSystem.cancelBooking(bookingId);
+        } finally {
+            release(null);
+        }
+    }
+
+    public AdmissionMetrics getMetrics() {
+        return metrics;
+    }
+
+    private Semaphore admitRoom(String roomId) {
+        acquireToken();
+        long deadline = System.nanoTime() + policy.maxQueueWait().toNanos();
+        Semaphore roomSemaphore = roomId != null ? roomPermits.get(roomId) : null;
+        if (roomSemaphore == null) {
+            // Rummet slås upp först när förfrågan är insläppt, så strypta förfrågningar och påhittade
+            // id når aldrig förrådet. Okända id får ingen semafor, annars växer kartan med varje id
+            acquireGlobal(deadline);
+            boolean known;
+            try {
+                known = bookingSystem.hasRoom(roomId);
+            } catch (RuntimeException e) {
+                globalPermits.release();
+                throw e;
+            }
+            if (!known) {
+                // Låt BookingSystem ge sitt vanliga valideringsfel
+                metrics.recordAdmitted();
+                return null;
+            }
+            globalPermits.release();
+            roomSemaphore = roomPermits.computeIfAbsent(roomId, id -> new Semaphore(policy.maxConcurrentPerRoom()));
+        }
+        enter(roomSemaphore, deadline);
+        return roomSemaphore;
+    }
+
+    private void admit(Semaphore roomSemaphore) {
+        acquireToken();
+        enter(roomSemaphore, System.nanoTime() + policy.maxQueueWait().toNanos());
+    }
+
+    private void acquireToken() {
+        if (!rateLimiter.tryAcquire()) {
+            throw reject(Reason.RATE_LIMITED, "För många förfrågningar");
+        }
+    }
+
+    // Rum före global gräns så att väntan på ett hett rum inte håller ett globalt tillstånd
+    private void enter(Semaphore roomSemaphore, long deadline) {
+        if (roomSemaphore != null && !acquire(roomSemaphore, deadline)) {
+            throw reject(Reason.ROOM_BUSY, "Rummet är överbelastat");
+        }
+        boolean admitted = false;
+        try {
+            acquireGlobal(deadline);
+            admitted = true;
+        } finally {
+            if (!admitted && roomSemaphore != null) {
+                roomSemaphore.release();
+            }
+        }
+        metrics.recordAdmitted();
+    }
+
+    private void acquireGlobal(long deadline) {
+        if (!acquire(globalPermits, deadline)) {
+            throw reject(Reason.SYSTEM_BUSY, "Bokningssystemet är överbelastat");
+        }
+    }
+
+    private void release(Semaphore roomSemaphore) {
+        globalPermits.release();
+        if (roomSemaphore != null) {
+            roomSemaphore.release();
+        }
+    }
+
+    private boolean acquire(Semaphore semaphore, long deadline) {
+        if (semaphore.tryAcquire()) {
+            return true;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            return false;
+        }
+        metrics.recordQueueEnter();
+        long queuedAt = System.nanoTime();
+        try {
+            return semaphore.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject(Reason.INTERRUPTED, "Avbruten i kön");
+        } finally {
+            metrics.recordQueueExit(System.nanoTime() - queuedAt);
+        }
+    }
+
+    private BookingRejectedException reject(Reason reason, String message) {
+        metrics.recordRejected(reason);
+        return new BookingRejectedException(reason, message);
+    }
+}
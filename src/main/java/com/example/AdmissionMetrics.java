@@ -0,0 +1,74 @@
+package com.example;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AdmissionMetrics {
+    private final LongAdder admitted = new LongAdder();
+    private final Map<BookingRejectedException.Reason, LongAdder> rejected =
+            new EnumMap<>(BookingRejectedException.Reason.class);
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder queuedTotal = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    public AdmissionMetrics() {
+        for (BookingRejectedException.Reason reason : BookingRejectedException.Reason.values()) {
+            rejected.put(reason, new LongAdder());
+        }
+    }
+
+    void recordAdmitted() {
+        admitted.increment();
+    }
+
+    void recordRejected(BookingRejectedException.Reason reason) {
+        rejected.get(reason).increment();
+    }
+
+    void recordQueueEnter() {
+        queued.incrementAndGet();
+        queuedTotal.increment();
+    }
+
+    void recordQueueExit(long waitNanos) {
+        queued.decrementAndGet();
+        queueWaitNanos.add(waitNanos);
+        maxQueueWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejected(BookingRejectedException.Reason reason) {
+        return rejected.get(reason).sum();
+    }
+
+    public long getRejected() {
+        long total = 0;
+        for (LongAdder adder : rejected.values()) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    public int getCurrentlyQueued() {
+        return queued.get();
+    }
+
+    public long getQueuedTotal() {
+        return queuedTotal.sum();
+    }
+
+    public long getTotalQueueWaitNanos() {
+        return queueWaitNanos.sum();
+    }
+
+    public long getMaxQueueWaitNanos() {
+        return maxQueueWaitNanos.get();
+    }
+}
@@ -0,0 +1,20 @@
+package com.example;
+
+import java.time.Duration;
+import java.util.Objects;
+
+public record AdmissionPolicy(int maxConcurrent,
+                              int maxConcurrentPerRoom,
+                              double permitsPerSecond,
+                              int burst,
+                              Duration maxQueueWait) {
+
+    public AdmissionPolicy {
+        if (maxConcurrent <= 0) throw new IllegalArgumentException("maxConcurrent måste vara positiv");
+        if (maxConcurrentPerRoom <= 0) throw new IllegalArgumentException("maxConcurrentPerRoom måste vara positiv");
+        if (permitsPerSecond <= 0) throw new IllegalArgumentException("permitsPerSecond måste vara positiv");
+        if (burst <= 0) throw new IllegalArgumentException("burst måste vara positiv");
+        Objects.requireNonNull(maxQueueWait, "maxQueueWait kan inte vara null");
+        if (maxQueueWait.isNegative()) throw new IllegalArgumentException("maxQueueWait kan inte vara negativ");
+    }
+}
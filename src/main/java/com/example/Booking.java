@@ -1,20 +1,33 @@
 package com.example;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 
 public class Booking {
     private final String id;
     private final String roomId;
     private final LocalDateTime startTime;
     private final LocalDateTime endTime;
+    private final ZoneId zone;
+    private final long startEpochMilli;
+    private final long endEpochMilli;
 
     public Booking(String id, String roomId, LocalDateTime startTime, LocalDateTime endTime) {
+        this(id, roomId, startTime, endTime, ZoneOffset.UTC);
+    }
+
+    public Booking(String id, String roomId, LocalDateTime startTime, LocalDateTime endTime, ZoneId zone) {
 
-        if (id == null || roomId == null || startTime == null || endTime == null) {
+        if (id == null || roomId == null || startTime == null || endTime == null || zone == null) {
             throw new IllegalArgumentException("Inga parametrar får vara null");
         }
 
-        if (endTime.isBefore(startTime) || endTime.isEqual(startTime)) {
+        long start = startTime.atZone(zone).toInstant().toEpochMilli();
+        long end = endTime.atZone(zone).toInstant().toEpochMilli();
+
+        if (end <= start) {
             throw new IllegalArgumentException("Sluttid måste vara efter starttid");
         }
 
@@ -22,10 +35,17 @@ public class Booking {
         this.roomId = roomId;
         this.startTime = startTime;
         this.endTime = endTime;
+        this.zone = zone;
+        this.startEpochMilli = start;
+        this.endEpochMilli = end;
     }
 
     public boolean overlaps(LocalDateTime start, LocalDateTime end) {
-        return start.isBefore(endTime) && end.isAfter(startTime);
+        return overlaps(start.atZone(zone).toInstant().toEpochMilli(), end.atZone(zone).toInstant().toEpochMilli());
+    }
+
+    public boolean overlaps(long startEpochMilli, long endEpochMilli) {
+        return startEpochMilli < this.endEpochMilli && endEpochMilli > this.startEpochMilli;
     }
 
     public String getId() {
@@ -43,4 +63,24 @@ public class Booking {
     public LocalDateTime getEndTime() {
         return endTime;
     }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    public Instant getStartInstant() {
+        return Instant.ofEpochMilli(startEpochMilli);
+    }
+
+    public Instant getEndInstant() {
+        return Instant.ofEpochMilli(endEpochMilli);
+    }
+
+    public long getStartEpochMilli() {
+        return startEpochMilli;
+    }
+
+    public long getEndEpochMilli() {
+        return endEpochMilli;
+    }
 }
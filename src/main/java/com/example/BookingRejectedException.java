@@ -0,0 +1,22 @@
+package com.example;
+
+public class BookingRejectedException extends RuntimeException {
+    public enum Reason {
+        RATE_LIMITED,
+        SYSTEM_BUSY,
+        ROOM_BUSY,
+        INTERRUPTED
+    }
+
+    private final Reason reason;
+
+    public BookingRejectedException(Reason reason, String message) {
+        // Ingen stacktrace, avvisningar ska vara billiga under överlast
+        super(message, null, false, false);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
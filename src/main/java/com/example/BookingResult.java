@@ -0,0 +1,22 @@
+package com.example;
+
+import java.util.List;
+
+public record BookingResult(boolean isSuccess, Booking booking, List<Booking> conflicts, List<TimeSlot> alternatives) {
+
+    public BookingResult {
+        if (isSuccess && booking == null) {
+            throw new IllegalArgumentException("Lyckad bokning kräver en bokning");
+        }
+        conflicts = List.copyOf(conflicts);
+        alternatives = List.copyOf(alternatives);
+    }
+
+    public static BookingResult booked(Booking booking) {
+        return new BookingResult(true, booking, List.of(), List.of());
+    }
+
+    public static BookingResult conflict(List<Booking> conflicts, List<TimeSlot> alternatives) {
+        return new BookingResult(false, null, conflicts, alternatives);
+    }
+}
@@ -5,6 +5,8 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class BookingSystem {
+    private static final int MAX_ALTERNATIVES = 5;
+
     private final TimeProvider timeProvider;
     private final RoomRepository roomRepository;
     private final NotificationService notificationService;
@@ -18,14 +20,18 @@ public class BookingSystem {
     }
 
     public boolean bookRoom(String roomId, LocalDateTime startTime, LocalDateTime endTime) {
+        return book(roomId, startTime, endTime, false).isSuccess();
+    }
+
+    public BookingResult tryBookRoom(String roomId, LocalDateTime startTime, LocalDateTime endTime) {
+        return book(roomId, startTime, endTime, true);
+    }
+
+    private BookingResult book(String roomId, LocalDateTime startTime, LocalDateTime endTime, boolean withAlternatives) {
         if (startTime == null || endTime == null || roomId == null) {
             throw new IllegalArgumentException("Bokning kräver giltiga start- och sluttider samt rum-id");
         }
 
-        if (startTime.isBefore(timeProvider.getCurrentTime())) {
-            throw new IllegalArgumentException("Kan inte boka tid i dåtid");
-        }
-
         if (endTime.isBefore(startTime)) {
             throw new IllegalArgumentException("Sluttid måste vara efter starttid");
         }
@@ -33,11 +39,23 @@ public class BookingSystem {
         Room room = roomRepository.findById(roomId)
                 .orElseThrow(() -> new IllegalArgumentException("Rummet existerar inte"));
 
-        if (!room.isAvailable(startTime, endTime)) {
-            return false;
+        // Konvertera till rummets tidszon en gång, resten jämförs som epoch-millis
+        long start = room.toEpochMilli(startTime);
+        long end = room.toEpochMilli(endTime);
+
+        if (start < timeProvider.getCurrentEpochMilli()) {
+            throw new IllegalArgumentException("Kan inte boka tid i dåtid");
+        }
+
+        Room.Availability availability = room.checkAvailability(start, end);
+        if (!availability.isAvailable()) {
+            List<TimeSlot> alternatives = withAlternatives
+                    ? findAlternatives(room, availability, start, end)
+                    : List.of();
+            return BookingResult.conflict(availability.conflicts(), alternatives);
         }
 
-        Booking booking = new Booking(UUID.randomUUID().toString(), roomId, startTime, endTime);
+        Booking booking = new Booking(nextBookingId(), roomId, startTime, endTime, room.getZone());
         room.addBooking(booking);
         roomRepository.save(room);
 
@@ -47,7 +65,37 @@ public class BookingSystem {
             // Fortsätt även om notifieringen misslyckas
         }
 
-        return true;
+        return BookingResult.booked(booking);
+    }
+
+    protected String nextBookingId() {
+        return UUID.randomUUID().toString();
+    }
+
+    // Närmaste lediga fönster i samma rum och i rum i samma tidszon, sorterat på avstånd från önskad start
+    private List<TimeSlot> findAlternatives(Room room, Room.Availability availability, long start, long end) {
+        long duration = end - start;
+        List<TimeSlot> alternatives = new ArrayList<>();
+        alternatives.add(toTimeSlot(room, availability.nextFreeStartEpochMilli(), duration));
+
+        for (Room other : roomRepository.findAll()) {
+            if (other.getId().equals(room.getId()) || !other.getZone().equals(room.getZone())) {
+                continue;
+            }
+            long nextFree = other.checkAvailability(start, end).nextFreeStartEpochMilli();
+            alternatives.add(toTimeSlot(other, nextFree, duration));
+        }
+
+        alternatives.sort(Comparator.comparing(TimeSlot::startTime));
+        return alternatives.size() > MAX_ALTERNATIVES ? alternatives.subList(0, MAX_ALTERNATIVES) : alternatives;
+    }
+
+    private static TimeSlot toTimeSlot(Room room, long start, long duration) {
+        return new TimeSlot(room.getId(), room.toLocalDateTime(start), room.toLocalDateTime(start + duration));
+    }
+
+    public boolean hasRoom(String roomId) {
+        return roomId != null && roomRepository.findById(roomId).isPresent();
     }
 
     public List<Room> getAvailableRooms(LocalDateTime startTime, LocalDateTime endTime) {
@@ -80,7 +128,7 @@ public class BookingSystem {
         Room room = roomWithBooking.get();
         Booking booking = room.getBooking(bookingId);
 
-        if (booking.getStartTime().isBefore(timeProvider.getCurrentTime())) {
+        if (booking.getStartEpochMilli() < timeProvider.getCurrentEpochMilli()) {
             throw new IllegalStateException("Kan inte avboka påbörjad eller avslutad bokning");
         }
 
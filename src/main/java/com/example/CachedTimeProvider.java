@@ -0,0 +1,65 @@
+package com.example;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public final class CachedTimeProvider implements TimeProvider, AutoCloseable {
+    private final Clock clock;
+    private final ScheduledExecutorService ticker;
+    // Båda värdena byts i en skrivning, en läsare ser aldrig ny tid ihop med gamla millisekunder
+    private volatile Tick current;
+
+    private record Tick(long epochMilli, LocalDateTime time) {
+
+        // LocalDateTime skapas en gång per tick i stället för en gång per anrop
+        static Tick at(long epochMilli) {
+            return new Tick(epochMilli, LocalDateTime.ofEpochSecond(Math.floorDiv(epochMilli, 1000L),
+                    (int) Math.floorMod(epochMilli, 1000L) * 1_000_000, ZoneOffset.UTC));
+        }
+    }
+
+    public CachedTimeProvider(Duration resolution) {
+        this(Clock.systemUTC(), resolution);
+    }
+
+    public CachedTimeProvider(Clock clock, Duration resolution) {
+        this.clock = Objects.requireNonNull(clock, "Klocka kan inte vara null");
+        Objects.requireNonNull(resolution, "Upplösning kan inte vara null");
+        if (resolution.isNegative() || resolution.isZero()) {
+            throw new IllegalArgumentException("Upplösning måste vara positiv");
+        }
+        this.current = Tick.at(clock.millis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cached-time-provider");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long nanos = resolution.toNanos();
+        ticker.scheduleAtFixedRate(this::refresh, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void refresh() {
+        current = Tick.at(clock.millis());
+    }
+
+    @Override
+    public LocalDateTime getCurrentTime() {
+        return current.time();
+    }
+
+    @Override
+    public long getCurrentEpochMilli() {
+        return current.epochMilli();
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
@@ -1,43 +1,131 @@
 package com.example;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.HashSet;
-import java.util.Set;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 public class Room {
     private final String id;
     private final String name;
-    private final Set<Booking> bookings = new HashSet<>();
+    private final ZoneId zone;
+    // Sorterad på starttid så att överlappskontrollen bara behöver titta på ett fönster
+    private final List<Booking> timeline = new ArrayList<>();
+    private final Map<String, Booking> bookingsById = new HashMap<>();
+    private long longestBookingMillis;
 
     public Room(String id, String name) {
+        this(id, name, ZoneOffset.UTC);
+    }
+
+    public Room(String id, String name, ZoneId zone) {
         this.id = id;
         this.name = name;
+        this.zone = Objects.requireNonNull(zone, "Tidszon kan inte vara null");
+    }
+
+    public record Availability(List<Booking> conflicts, long nextFreeStartEpochMilli) {
+        public boolean isAvailable() {
+            return conflicts.isEmpty();
+        }
     }
 
     public boolean isAvailable(LocalDateTime startTime, LocalDateTime endTime) {
-        return bookings.stream()
-                .noneMatch(booking ->
-                        booking.overlaps(startTime, endTime));
+        return isAvailable(toEpochMilli(startTime), toEpochMilli(endTime));
+    }
+
+    public boolean isAvailable(long startEpochMilli, long endEpochMilli) {
+        for (int i = firstCandidate(startEpochMilli); i < timeline.size(); i++) {
+            Booking booking = timeline.get(i);
+            if (booking.getStartEpochMilli() >= endEpochMilli) {
+                break;
+            }
+            if (booking.overlaps(startEpochMilli, endEpochMilli)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Availability checkAvailability(long startEpochMilli, long endEpochMilli) {
+        List<Booking> conflicts = new ArrayList<>();
+        long duration = endEpochMilli - startEpochMilli;
+        long nextFree = startEpochMilli;
+        for (int i = firstCandidate(startEpochMilli); i < timeline.size(); i++) {
+            Booking booking = timeline.get(i);
+            // nextFree >= start, så när luckan är hittad finns inga fler konflikter heller
+            if (booking.getStartEpochMilli() >= nextFree + duration) {
+                break;
+            }
+            if (booking.overlaps(startEpochMilli, endEpochMilli)) {
+                conflicts.add(booking);
+            }
+            if (booking.getEndEpochMilli() > nextFree) {
+                nextFree = booking.getEndEpochMilli();
+            }
+        }
+        return new Availability(conflicts, nextFree);
+    }
+
+    public long toEpochMilli(LocalDateTime time) {
+        return time.atZone(zone).toInstant().toEpochMilli();
+    }
+
+    public LocalDateTime toLocalDateTime(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), zone);
     }
 
     public void addBooking(Booking booking) {
-        bookings.add(booking);
+        Booking previous = bookingsById.put(booking.getId(), booking);
+        if (previous != null) {
+            timeline.remove(previous);
+        }
+        timeline.add(indexAfter(booking.getStartEpochMilli()), booking);
+        longestBookingMillis = Math.max(longestBookingMillis,
+                booking.getEndEpochMilli() - booking.getStartEpochMilli());
     }
 
     public void removeBooking(String bookingId) {
-        bookings.removeIf(booking -> booking.getId().equals(bookingId));
+        Booking booking = bookingsById.remove(bookingId);
+        if (booking != null) {
+            timeline.remove(booking);
+        }
     }
 
     public boolean hasBooking(String bookingId) {
-        return bookings.stream()
-                .anyMatch(booking -> booking.getId().equals(bookingId));
+        return bookingsById.containsKey(bookingId);
     }
 
     public Booking getBooking(String bookingId) {
-        return bookings.stream()
-                .filter(booking -> booking.getId().equals(bookingId))
-                .findFirst()
-                .orElseThrow(() -> new IllegalArgumentException("Bokning finns inte"));
+        Booking booking = bookingsById.get(bookingId);
+        if (booking == null) {
+            throw new IllegalArgumentException("Bokning finns inte");
+        }
+        return booking;
+    }
+
+    // Första bokningen som kan sluta efter startEpochMilli, givet den längsta bokningen i rummet
+    private int firstCandidate(long startEpochMilli) {
+        return indexAfter(startEpochMilli - longestBookingMillis);
+    }
+
+    private int indexAfter(long epochMilli) {
+        int low = 0;
+        int high = timeline.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timeline.get(mid).getStartEpochMilli() <= epochMilli) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     public String getId() {
@@ -47,4 +135,8 @@ public class Room {
     public String getName() {
         return name;
     }
+
+    public ZoneId getZone() {
+        return zone;
+    }
 }
@@ -0,0 +1,131 @@
+package com.example;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ShardedBookingSystem implements AutoCloseable {
+    private static final char SHARD_SEPARATOR = ':';
+
+    private final List<BookingSystem> shards = new ArrayList<>();
+    // En tråd per shard: rummen i en shard ändras bara av dess egen tråd
+    private final List<ExecutorService> executors = new ArrayList<>();
+
+    public ShardedBookingSystem(TimeProvider timeProvider,
+                                List<RoomRepository> shardRepositories,
+                                NotificationService notificationService) {
+        Objects.requireNonNull(shardRepositories, "shardRepositories kan inte vara null");
+        if (shardRepositories.isEmpty()) {
+            throw new IllegalArgumentException("Minst en shard krävs");
+        }
+        for (int i = 0; i < shardRepositories.size(); i++) {
+            String prefix = Integer.toString(i) + SHARD_SEPARATOR;
+            shards.add(new BookingSystem(timeProvider, shardRepositories.get(i), notificationService) {
+                @Override
+                protected String nextBookingId() {
+                    return prefix + UUID.randomUUID();
+                }
+            });
+            String threadName = "booking-shard-" + i;
+            executors.add(Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, threadName)));
+        }
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public int shardOf(String roomId) {
+        return Math.floorMod(roomId.hashCode(), shards.size());
+    }
+
+    public boolean bookRoom(String roomId, LocalDateTime startTime, LocalDateTime endTime) {
+        return tryBookRoom(roomId, startTime, endTime).isSuccess();
+    }
+
+    public BookingResult tryBookRoom(String roomId, LocalDateTime startTime, LocalDateTime endTime) {
+        if (roomId == null) {
+            throw new IllegalArgumentException("Bokning kräver giltiga start- och sluttider samt rum-id");
+        }
+        int shard = shardOf(roomId);
+        return await(submit(shard, () -> shards.get(shard).tryBookRoom(roomId, startTime, endTime)));
+    }
+
+    public List<Room> getAvailableRooms(LocalDateTime startTime, LocalDateTime endTime) {
+        List<Future<List<Room>>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            BookingSystem shard = shards.get(i);
+            futures.add(submit(i, () -> shard.getAvailableRooms(startTime, endTime)));
+        }
+        List<Room> available = new ArrayList<>();
+        for (Future<List<Room>> future : futures) {
+            available.addAll(await(future));
+        }
+        return available;
+    }
+
+    public boolean cancelBooking(String bookingId) {
+        if (bookingId == null) {
+            throw new IllegalArgumentException("Boknings-id kan inte vara null");
+        }
+        int shard = shardOfBooking(bookingId);
+        if (shard >= 0) {
+            return await(submit(shard, () -> shards.get(shard).cancelBooking(bookingId)));
+        }
+
+        // Okänt format, fråga alla shards
+        List<Future<Boolean>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            BookingSystem system = shards.get(i);
+            futures.add(submit(i, () -> system.cancelBooking(bookingId)));
+        }
+        boolean cancelled = false;
+        for (Future<Boolean> future : futures) {
+            cancelled |= await(future);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public void close() {
+        executors.forEach(ExecutorService::shutdown);
+    }
+
+    private int shardOfBooking(String bookingId) {
+        int separator = bookingId.indexOf(SHARD_SEPARATOR);
+        if (separator <= 0) {
+            return -1;
+        }
+        try {
+            int shard = Integer.parseInt(bookingId, 0, separator, 10);
+            return shard >= 0 && shard < shards.size() ? shard : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private <T> Future<T> submit(int shard, Callable<T> task) {
+        return executors.get(shard).submit(task);
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Avbruten i väntan på shard", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package com.example;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 public interface TimeProvider {
     LocalDateTime getCurrentTime();
+
+    // getCurrentTime() tolkas som UTC
+    default long getCurrentEpochMilli() {
+        return getCurrentTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
 }
@@ -0,0 +1,6 @@
+package com.example;
+
+import java.time.LocalDateTime;
+
+public record TimeSlot(String roomId, LocalDateTime startTime, LocalDateTime endTime) {
+}
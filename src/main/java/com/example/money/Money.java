@@ -0,0 +1,110 @@
+package com.example.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+import java.util.Objects;
+
+public record Money(long minorUnits, Currency currency) implements Comparable<Money> {
+
+    public static final Currency DEFAULT_CURRENCY = Currency.getInstance("SEK");
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000};
+
+    public Money {
+        Objects.requireNonNull(currency, "currency cannot be null");
+        int digits = currency.getDefaultFractionDigits();
+        if (digits < 0 || digits >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("Unsupported currency: " + currency);
+        }
+    }
+
+    public static Money ofMinor(long minorUnits, Currency currency) {
+        return new Money(minorUnits, currency);
+    }
+
+    public static Money ofMinor(long minorUnits) {
+        return new Money(minorUnits, DEFAULT_CURRENCY);
+    }
+
+    public static Money of(double amount) {
+        return of(amount, DEFAULT_CURRENCY);
+    }
+
+    // Bara vid gränsen mot double, räkningen därefter sker på heltal
+    public static Money of(double amount, Currency currency) {
+        if (!Double.isFinite(amount)) {
+            throw new IllegalArgumentException("Amount must be finite: " + amount);
+        }
+        return of(BigDecimal.valueOf(amount), currency);
+    }
+
+    public static Money of(BigDecimal amount, Currency currency) {
+        Objects.requireNonNull(amount, "amount cannot be null");
+        Objects.requireNonNull(currency, "currency cannot be null");
+        BigDecimal scaled = amount.setScale(currency.getDefaultFractionDigits(), RoundingMode.HALF_EVEN);
+        return new Money(scaled.unscaledValue().longValueExact(), currency);
+    }
+
+    public static Money zero(Currency currency) {
+        return new Money(0, currency);
+    }
+
+    public Money plus(Money other) {
+        return new Money(Math.addExact(minorUnits, checkCurrency(other).minorUnits), currency);
+    }
+
+    public Money minus(Money other) {
+        return new Money(Math.subtractExact(minorUnits, checkCurrency(other).minorUnits), currency);
+    }
+
+    public Money times(long factor) {
+        return new Money(Math.multiplyExact(minorUnits, factor), currency);
+    }
+
+    public boolean isPositive() {
+        return minorUnits > 0;
+    }
+
+    public boolean isNegative() {
+        return minorUnits < 0;
+    }
+
+    public boolean isZero() {
+        return minorUnits == 0;
+    }
+
+    // Currency-instanser är delade, så identitet avgör nästan alltid utan att gå via Object.equals
+    public boolean hasCurrency(Currency other) {
+        return currency == other || currency.equals(other);
+    }
+
+    public static long minorPerMajor(Currency currency) {
+        return POWERS_OF_TEN[currency.getDefaultFractionDigits()];
+    }
+
+    public double toDouble() {
+        return (double) minorUnits / minorPerMajor(currency);
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, currency.getDefaultFractionDigits());
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, checkCurrency(other).minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString() + " " + currency.getCurrencyCode();
+    }
+
+    private Money checkCurrency(Money other) {
+        if (!currency.equals(other.currency)) {
+            throw new IllegalArgumentException("Currency mismatch: " + currency + " and " + other.currency);
+        }
+        return other;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Currency;
+
+// Fältkodning som delas av loggfilerna och gateway-protokollet.
+// Strängar är [längd][UTF-8] där längden -1 betyder null, belopp är [minor units][valutakod]
+final class BinaryCodec {
+
+    static final int CURRENCY_CODE_BYTES = 3;
+    static final int MONEY_BYTES = Long.BYTES + CURRENCY_CODE_BYTES;
+
+    private BinaryCodec() {
+    }
+
+    static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static int stringSize(byte[] value) {
+        return Integer.BYTES + (value == null ? 0 : value.length);
+    }
+
+    static ByteBuffer putString(ByteBuffer buffer, byte[] value) {
+        buffer.putInt(value == null ? -1 : value.length);
+        return value == null ? buffer : buffer.put(value);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("String length " + length + " exceeds buffer");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static ByteBuffer putMoney(ByteBuffer buffer, Money amount) {
+        return buffer.putLong(amount.minorUnits())
+                .put(amount.currency().getCurrencyCode().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static Money readMoney(ByteBuffer buffer) {
+        long minorUnits = buffer.getLong();
+        byte[] code = new byte[CURRENCY_CODE_BYTES];
+        buffer.get(code);
+        return Money.ofMinor(minorUnits, Currency.getInstance(new String(code, StandardCharsets.US_ASCII)));
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+// paymentId identifierar utskicket, så att samma bekräftelse inte skickas två gånger
+public record EmailConfirmation(String paymentId, String email, Money amount) {
+}
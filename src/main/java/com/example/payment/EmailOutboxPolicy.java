@@ -0,0 +1,25 @@
+package com.example.payment;
+
+import java.time.Duration;
+import java.util.Objects;
+
+public record EmailOutboxPolicy(int workers,
+                                int batchSize,
+                                int maxAttempts,
+                                Duration initialBackoff,
+                                Duration maxBackoff) {
+
+    public EmailOutboxPolicy {
+        Objects.requireNonNull(initialBackoff, "initialBackoff cannot be null");
+        Objects.requireNonNull(maxBackoff, "maxBackoff cannot be null");
+        if (workers <= 0) throw new IllegalArgumentException("workers must be positive");
+        if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be positive");
+        if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be positive");
+        if (initialBackoff.isNegative() || initialBackoff.isZero()) throw new IllegalArgumentException("initialBackoff must be positive");
+        if (maxBackoff.compareTo(initialBackoff) < 0) throw new IllegalArgumentException("maxBackoff must not be less than initialBackoff");
+    }
+
+    public static EmailOutboxPolicy defaults() {
+        return new EmailOutboxPolicy(4, 50, 8, Duration.ofSeconds(1), Duration.ofMinutes(5));
+    }
+}
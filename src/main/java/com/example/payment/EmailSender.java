@@ -1,5 +1,20 @@
 package com.example.payment;
 
+import com.example.money.Money;
+
+import java.util.List;
+
 public interface EmailSender {
-    void sendPaymentConfirmation(String email, double amount) throws EmailSendingException;
+    void sendPaymentConfirmation(String email, Money amount) throws EmailSendingException;
+
+    default void sendPaymentConfirmation(EmailConfirmation confirmation) throws EmailSendingException {
+        sendPaymentConfirmation(confirmation.email(), confirmation.amount());
+    }
+
+    // En anslutning per anrop, implementationer som kan skicka flera brev i samma session skriver över den
+    default void sendPaymentConfirmations(List<EmailConfirmation> confirmations) throws EmailSendingException {
+        for (EmailConfirmation confirmation : confirmations) {
+            sendPaymentConfirmation(confirmation);
+        }
+    }
 }
@@ -4,4 +4,8 @@ public class EmailSendingException extends Exception {
     public EmailSendingException(String message) {
         super(message);
     }
-}
\ No newline at end of file
+
+    public EmailSendingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.payment;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// En keep-alive-anslutning där flera förfrågningar kan vara ute samtidigt
+final class GatewayConnection implements AutoCloseable {
+
+    private final SocketChannel channel;
+    private final Map<Long, CompletableFuture<GatewayProtocol.Frame>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile boolean open = true;
+
+    private GatewayConnection(SocketChannel channel) {
+        this.channel = channel;
+        Thread.ofVirtual().name("payment-gateway-reader").start(this::readLoop);
+    }
+
+    static GatewayConnection open(InetSocketAddress address, String apiKey, Duration timeout)
+            throws IOException, PaymentProcessingException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        GatewayConnection connection = new GatewayConnection(channel);
+        try {
+            connection.call(GatewayProtocol.HELLO, GatewayProtocol.string(apiKey), timeout);
+        } catch (IOException | PaymentProcessingException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    ByteBuffer call(byte operation, ByteBuffer body, Duration timeout) throws IOException, PaymentProcessingException {
+        long id = nextId.incrementAndGet();
+        CompletableFuture<GatewayProtocol.Frame> response = new CompletableFuture<>();
+        inFlight.put(id, response);
+        try {
+            if (!open) {
+                throw new IOException("Gateway connection is closed");
+            }
+            writeLock.lock();
+            try {
+                GatewayProtocol.write(channel, GatewayProtocol.frame(id, operation, body));
+            } catch (IOException e) {
+                // En halvskriven ram förstör strömmen för alla som delar anslutningen, poolen öppnar en ny
+                close();
+                throw e;
+            } finally {
+                writeLock.unlock();
+            }
+            GatewayProtocol.Frame frame = response.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            if (frame.code() != GatewayProtocol.OK) {
+                throw new PaymentProcessingException("Payment gateway error: " + GatewayProtocol.readString(frame.body()));
+            }
+            return frame.body();
+        } catch (TimeoutException e) {
+            throw new PaymentProcessingException("Payment gateway timed out after " + timeout.toMillis() + " ms", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentProcessingException("Interrupted while waiting for payment gateway", e);
+        } finally {
+            inFlight.remove(id);
+        }
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Stänger ändå, läsaren avslutar de väntande anropen
+        }
+    }
+
+    private void readLoop() {
+        IOException failure;
+        try {
+            GatewayProtocol.Frame frame;
+            while ((frame = GatewayProtocol.read(channel)) != null) {
+                CompletableFuture<GatewayProtocol.Frame> response = inFlight.get(frame.id());
+                // Saknas den har anroparen redan gett upp
+                if (response != null) {
+                    response.complete(frame);
+                }
+            }
+            failure = new IOException("Gateway closed the connection");
+        } catch (IOException e) {
+            failure = e;
+        }
+        open = false;
+        for (CompletableFuture<GatewayProtocol.Frame> response : inFlight.values()) {
+            response.completeExceptionally(failure);
+        }
+        close();
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Ramar: [längd][korrelations-id][kod][kropp]. Koden är operationen i en förfrågan och status i ett svar,
+// svaren kan komma i valfri ordning och paras ihop med förfrågan via id:t
+final class GatewayProtocol {
+
+    static final byte HELLO = 1;
+    static final byte CHARGE = 2;
+    static final byte REFUND = 3;
+    static final byte BATCH_CHARGE = 4;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private static final int HEADER_BYTES = Long.BYTES + Byte.BYTES;
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    record Frame(long id, byte code, ByteBuffer body) {
+    }
+
+    private GatewayProtocol() {
+    }
+
+    static ByteBuffer frame(long id, byte code, ByteBuffer body) {
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + HEADER_BYTES + body.remaining());
+        frame.putInt(HEADER_BYTES + body.remaining()).putLong(id).put(code).put(body.duplicate());
+        return frame.flip();
+    }
+
+    static void write(WritableByteChannel channel, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    // null när motparten stängt mellan två ramar
+    static Frame read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        if (!readFully(channel, length, true)) {
+            return null;
+        }
+        int size = length.flip().getInt();
+        if (size < HEADER_BYTES || size > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid gateway frame length: " + size);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        readFully(channel, frame, false);
+        frame.flip();
+        long id = frame.getLong();
+        byte code = frame.get();
+        return new Frame(id, code, frame.slice());
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer, boolean eofAllowed) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (eofAllowed && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Gateway connection closed mid-frame");
+            }
+        }
+        return true;
+    }
+
+    static ByteBuffer money(Money amount) {
+        return BinaryCodec.putMoney(ByteBuffer.allocate(BinaryCodec.MONEY_BYTES), amount).flip();
+    }
+
+    static ByteBuffer moneyList(List<Money> amounts) {
+        ByteBuffer body = ByteBuffer.allocate(Integer.BYTES + amounts.size() * BinaryCodec.MONEY_BYTES).putInt(amounts.size());
+        for (Money amount : amounts) {
+            BinaryCodec.putMoney(body, amount);
+        }
+        return body.flip();
+    }
+
+    static Money readMoney(ByteBuffer body) {
+        return BinaryCodec.readMoney(body);
+    }
+
+    static List<Money> readMoneyList(ByteBuffer body) {
+        int count = readCount(body, BinaryCodec.MONEY_BYTES);
+        List<Money> amounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            amounts.add(readMoney(body));
+        }
+        return amounts;
+    }
+
+    static ByteBuffer string(String value) {
+        byte[] bytes = BinaryCodec.utf8(value);
+        return BinaryCodec.putString(ByteBuffer.allocate(BinaryCodec.stringSize(bytes)), bytes).flip();
+    }
+
+    static String readString(ByteBuffer body) {
+        return BinaryCodec.readString(body);
+    }
+
+    static ByteBuffer response(PaymentApiResponse response) {
+        ByteBuffer transactionId = string(response.transactionId());
+        return ByteBuffer.allocate(Byte.BYTES + transactionId.remaining())
+                .put((byte) (response.isSuccess() ? 1 : 0))
+                .put(transactionId)
+                .flip();
+    }
+
+    static ByteBuffer responses(List<PaymentApiResponse> responses) {
+        List<ByteBuffer> encoded = new ArrayList<>(responses.size());
+        int size = Integer.BYTES;
+        for (PaymentApiResponse response : responses) {
+            ByteBuffer body = response(response);
+            encoded.add(body);
+            size += body.remaining();
+        }
+        ByteBuffer body = ByteBuffer.allocate(size).putInt(responses.size());
+        encoded.forEach(body::put);
+        return body.flip();
+    }
+
+    static PaymentApiResponse readResponse(ByteBuffer body) {
+        boolean success = body.get() == 1;
+        return new PaymentApiResponse(success, readString(body));
+    }
+
+    static List<PaymentApiResponse> readResponses(ByteBuffer body) {
+        int count = readCount(body, Byte.BYTES + Integer.BYTES);
+        List<PaymentApiResponse> responses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            responses.add(readResponse(body));
+        }
+        return responses;
+    }
+
+    // Antalet kommer från motparten, kontrolleras mot ramens storlek innan något allokeras
+    private static int readCount(ByteBuffer body, int minElementBytes) {
+        int count = body.getInt();
+        if (count < 0 || count > body.remaining() / minElementBytes) {
+            throw new IllegalArgumentException("Invalid element count: " + count);
+        }
+        return count;
+    }
+}
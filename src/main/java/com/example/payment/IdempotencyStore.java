@@ -0,0 +1,145 @@
+package com.example.payment;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongSupplier;
+
+public class IdempotencyStore {
+
+    public interface Operation {
+        PaymentApiResponse run() throws PaymentProcessingException;
+    }
+
+    public record Result(PaymentApiResponse response, boolean replayed) {
+    }
+
+    // fingerprint beskriver anropet, samma nyckel får inte återanvändas för ett annat belopp eller en annan mottagare
+    private record InFlight(Object fingerprint, CompletableFuture<PaymentApiResponse> response) {
+    }
+
+    private record Completed(Object fingerprint, PaymentApiResponse response, long expiresAt) {
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    // Insättningsordning, så att äldsta posten ligger först vid utgång och vid eviction
+    private final LinkedHashMap<String, Completed> completed = new LinkedHashMap<>();
+
+    public IdempotencyStore(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+
+    public IdempotencyStore(int maxEntries, Duration ttl, LongSupplier nanoClock) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be positive");
+        Objects.requireNonNull(ttl, "ttl cannot be null");
+        if (ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("ttl must be positive");
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = Objects.requireNonNull(nanoClock, "nanoClock cannot be null");
+    }
+
+    public Result execute(String key, Operation operation) throws PaymentProcessingException {
+        return execute(key, null, operation);
+    }
+
+    public Result execute(String key, Object fingerprint, Operation operation) throws PaymentProcessingException {
+        PaymentApiResponse cached = lookup(key, fingerprint);
+        if (cached != null) {
+            return new Result(cached, true);
+        }
+
+        CompletableFuture<PaymentApiResponse> future = new CompletableFuture<>();
+        InFlight attempt = new InFlight(fingerprint, future);
+        InFlight existing = inFlight.putIfAbsent(key, attempt);
+        if (existing != null) {
+            checkFingerprint(key, existing.fingerprint(), fingerprint);
+            return new Result(await(existing.response()), true);
+        }
+
+        try {
+            // Första försöket kan ha hunnit bli klart mellan lookup och putIfAbsent
+            cached = lookup(key, fingerprint);
+            if (cached != null) {
+                future.complete(cached);
+                return new Result(cached, true);
+            }
+            PaymentApiResponse response = operation.run();
+            store(key, fingerprint, response);
+            future.complete(response);
+            return new Result(response, false);
+        } catch (PaymentProcessingException | RuntimeException e) {
+            // Misslyckade försök sparas inte, nästa försök får gå till gatewayen igen
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, attempt);
+        }
+    }
+
+    public synchronized int size() {
+        evictExpired(nanoClock.getAsLong());
+        return completed.size();
+    }
+
+    private synchronized PaymentApiResponse lookup(String key, Object fingerprint) {
+        Completed entry = completed.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() - nanoClock.getAsLong() <= 0) {
+            completed.remove(key);
+            return null;
+        }
+        checkFingerprint(key, entry.fingerprint(), fingerprint);
+        return entry.response();
+    }
+
+    private synchronized void store(String key, Object fingerprint, PaymentApiResponse response) {
+        long now = nanoClock.getAsLong();
+        completed.put(key, new Completed(fingerprint, response, now + ttlNanos));
+        evictExpired(now);
+        Iterator<String> oldest = completed.keySet().iterator();
+        while (completed.size() > maxEntries) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Completed> oldest = completed.values().iterator();
+        while (oldest.hasNext() && oldest.next().expiresAt() - now <= 0) {
+            oldest.remove();
+        }
+    }
+
+    private static void checkFingerprint(String key, Object stored, Object requested) {
+        if (!Objects.equals(stored, requested)) {
+            throw new IllegalArgumentException("Idempotency key " + key + " was already used for a different request");
+        }
+    }
+
+    private static PaymentApiResponse await(CompletableFuture<PaymentApiResponse> future) throws PaymentProcessingException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentProcessingException("Interrupted while waiting for duplicate payment", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PaymentProcessingException paymentException) {
+                throw paymentException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new PaymentProcessingException("Duplicate payment attempt failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.payment;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class InMemoryPaymentMetrics implements PaymentMetrics {
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+    private final Map<PaymentOutcome.Result, LongAdder> outcomes = new EnumMap<>(PaymentOutcome.Result.class);
+    private final LongAdder emailFailures = new LongAdder();
+
+    public InMemoryPaymentMetrics() {
+        // Fylls i förväg så att inspelningen bara läser kartorna
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+        for (PaymentOutcome.Result result : PaymentOutcome.Result.values()) {
+            outcomes.put(result, new LongAdder());
+        }
+    }
+
+    @Override
+    public void recordLatency(Stage stage, long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    @Override
+    public void recordOutcome(PaymentOutcome.Result result) {
+        outcomes.get(result).increment();
+    }
+
+    @Override
+    public void recordEmailFailure() {
+        emailFailures.increment();
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies.get(stage);
+    }
+
+    public long getCount(PaymentOutcome.Result result) {
+        return outcomes.get(result).sum();
+    }
+
+    public long getEmailFailures() {
+        return emailFailures.sum();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+public class InMemoryPaymentRepository implements PaymentRepository {
+
+    private static final Comparator<StoredPayment> BY_CREATED_AT =
+            Comparator.comparing(StoredPayment::createdAt).thenComparing(StoredPayment::paymentId);
+
+    private final Clock clock;
+    private final Map<String, StoredPayment> payments = new ConcurrentHashMap<>();
+    private final Map<String, String> paymentIdsByTransaction = new ConcurrentHashMap<>();
+    // Bara PENDING-betalningar, sorterade på skapandetid, så avstämningen slipper skanna allt
+    private final NavigableSet<StoredPayment> pending = new ConcurrentSkipListSet<>(BY_CREATED_AT);
+
+    public InMemoryPaymentRepository() {
+        this(Clock.systemUTC());
+    }
+
+    public InMemoryPaymentRepository(Clock clock) {
+        this.clock = Objects.requireNonNull(clock, "clock cannot be null");
+    }
+
+    @Override
+    public void savePayment(Money amount, PaymentStatus status, String transactionId) {
+        StoredPayment payment = new StoredPayment(UUID.randomUUID().toString(), amount, status, transactionId, clock.instant());
+        payments.put(payment.paymentId(), payment);
+        index(payment);
+    }
+
+    @Override
+    public void savePending(String paymentId, Money amount) throws PaymentDataAccessException {
+        StoredPayment payment = new StoredPayment(paymentId, amount, PaymentStatus.PENDING, null, clock.instant());
+        if (payments.putIfAbsent(paymentId, payment) != null) {
+            throw new PaymentDataAccessException("Payment already exists: " + paymentId);
+        }
+        pending.add(payment);
+    }
+
+    @Override
+    public void updateStatus(String paymentId, PaymentStatus status, String transactionId) throws PaymentDataAccessException {
+        StoredPayment current = payments.get(paymentId);
+        if (current == null) {
+            throw new PaymentDataAccessException("Payment not found: " + paymentId);
+        }
+        if (!current.status().canTransitionTo(status)) {
+            throw new IllegalStateException("Cannot change payment from " + current.status() + " to " + status);
+        }
+        StoredPayment updated = current.withStatus(status, transactionId);
+        if (!payments.replace(paymentId, current, updated)) {
+            throw new PaymentDataAccessException("Concurrent update of payment: " + paymentId);
+        }
+        pending.remove(current);
+        index(updated);
+    }
+
+    @Override
+    public Optional<StoredPayment> findByTransactionId(String transactionId) {
+        String paymentId = paymentIdsByTransaction.get(transactionId);
+        return paymentId == null ? Optional.empty() : Optional.ofNullable(payments.get(paymentId));
+    }
+
+    @Override
+    public List<StoredPayment> findPendingOlderThan(Instant cutoff) {
+        List<StoredPayment> stuck = new ArrayList<>();
+        for (StoredPayment payment : pending) {
+            if (!payment.createdAt().isBefore(cutoff)) {
+                break;
+            }
+            stuck.add(payment);
+        }
+        return stuck;
+    }
+
+    @Override
+    public Optional<StoredPayment> findById(String paymentId) {
+        return Optional.ofNullable(payments.get(paymentId));
+    }
+
+    private void index(StoredPayment payment) {
+        if (payment.transactionId() != null) {
+            paymentIdsByTransaction.put(payment.transactionId(), payment.paymentId());
+        }
+        if (payment.status() == PaymentStatus.PENDING) {
+            pending.add(payment);
+        }
+    }
+}
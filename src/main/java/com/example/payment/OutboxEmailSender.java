@@ -0,0 +1,314 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SequencedSet;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.example.payment.BinaryCodec.MONEY_BYTES;
+import static com.example.payment.BinaryCodec.putMoney;
+import static com.example.payment.BinaryCodec.putString;
+import static com.example.payment.BinaryCodec.readMoney;
+import static com.example.payment.BinaryCodec.readString;
+import static com.example.payment.BinaryCodec.stringSize;
+import static com.example.payment.BinaryCodec.utf8;
+
+// Bekräftelsen skrivs till en lokal logg och anropet returnerar direkt, arbetartrådar skickar
+// sedan i batchar via delegaten med omförsök. Det som inte hunnit skickas spelas upp vid nästa start
+public class OutboxEmailSender implements EmailSender, AutoCloseable {
+
+    private static final String LOG_FILE = "emails.outbox";
+    private static final byte KIND_ENQUEUED = 1;
+    private static final byte KIND_SENT = 2;
+    private static final byte KIND_ABANDONED = 3;
+    private static final long COMPACT_THRESHOLD_BYTES = 1024 * 1024;
+    private static final long POLL_MILLIS = 50;
+    private static final int DEDUP_MAX_ENTRIES = 100_000;
+
+    private record Attempt(EmailConfirmation confirmation, int number, long readyAt) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(readyAt - ((Attempt) other).readyAt, 0);
+        }
+    }
+
+    private record Record(byte kind, EmailConfirmation confirmation) {
+    }
+
+    private final EmailSender delegate;
+    private final EmailOutboxPolicy policy;
+    private final PaymentMetrics metrics;
+    private final RecordLog log;
+    private final DelayQueue<Attempt> queue = new DelayQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    // Loggen, pending och finished ändras bara under låset
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, EmailConfirmation> pending = new LinkedHashMap<>();
+    private final SequencedSet<String> finished = new LinkedHashSet<>();
+
+    private volatile boolean closing;
+
+    public OutboxEmailSender(Path directory, EmailSender delegate) throws EmailSendingException {
+        this(directory, delegate, EmailOutboxPolicy.defaults(), PaymentMetrics.NOOP);
+    }
+
+    public OutboxEmailSender(Path directory, EmailSender delegate, EmailOutboxPolicy policy, PaymentMetrics metrics)
+            throws EmailSendingException {
+        this.delegate = Objects.requireNonNull(delegate, "delegate cannot be null");
+        this.policy = Objects.requireNonNull(policy, "policy cannot be null");
+        this.metrics = Objects.requireNonNull(metrics, "metrics cannot be null");
+        try {
+            Files.createDirectories(directory);
+            this.log = RecordLog.open(directory.resolve(LOG_FILE));
+        } catch (IOException e) {
+            throw new EmailSendingException("Failed to open email outbox", e);
+        }
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            log.closeQuietly();
+            throw new EmailSendingException("Failed to replay email outbox", e);
+        }
+
+        for (int i = 0; i < policy.workers(); i++) {
+            Thread worker = new Thread(this::workLoop, "payment-email-outbox-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    @Override
+    public void sendPaymentConfirmation(String email, Money amount) throws EmailSendingException {
+        sendPaymentConfirmation(new EmailConfirmation(UUID.randomUUID().toString(), email, amount));
+    }
+
+    @Override
+    public void sendPaymentConfirmation(EmailConfirmation confirmation) throws EmailSendingException {
+        Objects.requireNonNull(confirmation, "confirmation cannot be null");
+        if (closing) {
+            throw new EmailSendingException("Email outbox is closed");
+        }
+        lock.lock();
+        try {
+            // Redan köad eller skickad, t.ex. ett omförsök från anroparen
+            if (pending.containsKey(confirmation.paymentId()) || finished.contains(confirmation.paymentId())) {
+                return;
+            }
+            log.append(encode(List.of(new Record(KIND_ENQUEUED, confirmation))));
+            pending.put(confirmation.paymentId(), confirmation);
+        } catch (IOException e) {
+            throw new EmailSendingException("Failed to write email outbox", e);
+        } finally {
+            lock.unlock();
+        }
+        queue.add(new Attempt(confirmation, 1, System.nanoTime()));
+    }
+
+    @Override
+    public void sendPaymentConfirmations(List<EmailConfirmation> confirmations) throws EmailSendingException {
+        for (EmailConfirmation confirmation : confirmations) {
+            sendPaymentConfirmation(confirmation);
+        }
+    }
+
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Väntar inte ut omförsök som ligger i backoff, de ligger kvar i loggen till nästa start
+    @Override
+    public void close() throws EmailSendingException {
+        closing = true;
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new EmailSendingException("Failed to close email outbox", e);
+        }
+    }
+
+    private void workLoop() {
+        List<Attempt> batch = new ArrayList<>(policy.batchSize());
+        while (true) {
+            try {
+                Attempt first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closing) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                // Bara de som redan är redo, resten får vänta ut sin backoff
+                queue.drainTo(batch, policy.batchSize() - 1);
+                send(batch);
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<Attempt> batch) {
+        List<EmailConfirmation> confirmations = new ArrayList<>(batch.size());
+        for (Attempt attempt : batch) {
+            confirmations.add(attempt.confirmation());
+        }
+        try {
+            delegate.sendPaymentConfirmations(confirmations);
+        } catch (EmailSendingException | RuntimeException e) {
+            retryOrAbandon(batch);
+            return;
+        }
+        finish(KIND_SENT, confirmations);
+    }
+
+    // Hela batchen försöks igen, så en mottagare kan få samma bekräftelse två gånger om delegaten
+    // hann skicka en del av den. Det är priset för att aldrig tappa ett utskick
+    private void retryOrAbandon(List<Attempt> batch) {
+        List<EmailConfirmation> abandoned = new ArrayList<>();
+        long now = System.nanoTime();
+        for (Attempt attempt : batch) {
+            if (attempt.number() >= policy.maxAttempts()) {
+                abandoned.add(attempt.confirmation());
+            } else {
+                queue.add(new Attempt(attempt.confirmation(), attempt.number() + 1, now + backoffNanos(attempt.number())));
+            }
+        }
+        if (!abandoned.isEmpty()) {
+            finish(KIND_ABANDONED, abandoned);
+            abandoned.forEach(confirmation -> metrics.recordEmailFailure());
+        }
+    }
+
+    private long backoffNanos(int attempt) {
+        long initial = policy.initialBackoff().toNanos();
+        long max = policy.maxBackoff().toNanos();
+        int shift = Math.min(attempt - 1, 62);
+        return initial > (max >> shift) ? max : initial << shift;
+    }
+
+    private void finish(byte kind, List<EmailConfirmation> confirmations) {
+        List<Record> records = new ArrayList<>(confirmations.size());
+        for (EmailConfirmation confirmation : confirmations) {
+            records.add(new Record(kind, confirmation));
+        }
+        lock.lock();
+        try {
+            for (EmailConfirmation confirmation : confirmations) {
+                pending.remove(confirmation.paymentId());
+                remember(confirmation.paymentId());
+            }
+            try {
+                log.append(encode(records));
+                // Inget kvar att skicka, då kan loggen börja om från noll
+                if (pending.isEmpty()) {
+                    log.clearIfLargerThan(COMPACT_THRESHOLD_BYTES);
+                }
+            } catch (IOException e) {
+                // Posten ligger kvar som köad i loggen och skickas om vid nästa start
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remember(String paymentId) {
+        finished.add(paymentId);
+        if (finished.size() > DEDUP_MAX_ENTRIES) {
+            finished.removeFirst();
+        }
+    }
+
+    // Köar de ej skickade posterna igen. Loggen skrivs inte om: en krasch mitt i en omskrivning
+    // skulle tappa just de bekräftelser som väntar. Den töms först när inget väntar, som i finish
+    private void recover() throws IOException {
+        for (Record record : log.read(OutboxEmailSender::decode)) {
+            String paymentId = record.confirmation().paymentId();
+            if (record.kind() == KIND_ENQUEUED) {
+                pending.put(paymentId, record.confirmation());
+            } else {
+                pending.remove(paymentId);
+                remember(paymentId);
+            }
+        }
+        if (pending.isEmpty()) {
+            log.clearIfLargerThan(COMPACT_THRESHOLD_BYTES);
+        }
+
+        long now = System.nanoTime();
+        for (EmailConfirmation confirmation : pending.values()) {
+            queue.add(new Attempt(confirmation, 1, now));
+        }
+    }
+
+    private static List<ByteBuffer> encode(List<Record> records) {
+        List<ByteBuffer> payloads = new ArrayList<>(records.size());
+        for (Record record : records) {
+            payloads.add(encode(record));
+        }
+        return payloads;
+    }
+
+    // Klara poster behöver bara id:t, köade har hela bekräftelsen
+    private static ByteBuffer encode(Record record) {
+        EmailConfirmation confirmation = record.confirmation();
+        byte[] paymentId = utf8(confirmation.paymentId());
+        if (record.kind() != KIND_ENQUEUED) {
+            return putString(ByteBuffer.allocate(Byte.BYTES + stringSize(paymentId)).put(record.kind()), paymentId).flip();
+        }
+        byte[] email = utf8(confirmation.email());
+        ByteBuffer payload = ByteBuffer.allocate(Byte.BYTES + stringSize(paymentId) + stringSize(email) + MONEY_BYTES)
+                .put(record.kind());
+        putString(payload, paymentId);
+        putString(payload, email);
+        return putMoney(payload, confirmation.amount()).flip();
+    }
+
+    private static Record decode(ByteBuffer payload) throws IOException {
+        byte kind = payload.get();
+        String paymentId = readString(payload);
+        return switch (kind) {
+            case KIND_ENQUEUED -> {
+                String email = readString(payload);
+                yield new Record(kind, new EmailConfirmation(paymentId, email, readMoney(payload)));
+            }
+            case KIND_SENT, KIND_ABANDONED -> new Record(kind, new EmailConfirmation(paymentId, null, null));
+            default -> throw new IOException("Unknown email outbox record kind: " + kind);
+        };
+    }
+}
@@ -1,12 +1,21 @@
 package com.example.payment;
 
+import com.example.money.Money;
+
 public class PaymentApi {
     private PaymentApi() {}
 
-    public static PaymentApiResponse charge(String apiKey, double amount) {
-        if (apiKey == null || apiKey.isBlank() || !apiKey.startsWith("sk_") || amount <= 0) {
+    public static PaymentApiResponse charge(String apiKey, Money amount) {
+        if (apiKey == null || apiKey.isBlank() || !apiKey.startsWith("sk_") || amount == null || !amount.isPositive()) {
             return PaymentApiResponse.failure();
         }
         return PaymentApiResponse.success("test-txn-123");
     }
-}
\ No newline at end of file
+
+    public static PaymentApiResponse refund(String apiKey, String transactionId) {
+        if (apiKey == null || apiKey.isBlank() || !apiKey.startsWith("sk_") || transactionId == null || transactionId.isBlank()) {
+            return PaymentApiResponse.failure();
+        }
+        return PaymentApiResponse.success(transactionId);
+    }
+}
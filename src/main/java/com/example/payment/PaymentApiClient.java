@@ -1,5 +1,19 @@
 package com.example.payment;
 
+import com.example.money.Money;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public interface PaymentApiClient {
-    PaymentApiResponse charge(double amount) throws PaymentProcessingException;
+    PaymentApiResponse charge(Money amount) throws PaymentProcessingException;
+    PaymentApiResponse refund(String transactionId) throws PaymentProcessingException;
+
+    default List<PaymentApiResponse> chargeAll(List<Money> amounts) throws PaymentProcessingException {
+        List<PaymentApiResponse> responses = new ArrayList<>(amounts.size());
+        for (Money amount : amounts) {
+            responses.add(charge(amount));
+        }
+        return responses;
+    }
 }
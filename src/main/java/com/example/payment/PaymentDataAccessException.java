@@ -4,4 +4,8 @@ public class PaymentDataAccessException extends Exception {
     public PaymentDataAccessException(String message) {
         super(message);
     }
-}
\ No newline at end of file
+
+    public PaymentDataAccessException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
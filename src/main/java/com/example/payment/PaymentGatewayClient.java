@@ -1,20 +1,113 @@
 package com.example.payment;
 
-public class PaymentGatewayClient implements PaymentApiClient {
+import com.example.money.Money;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class PaymentGatewayClient implements PaymentApiClient, AutoCloseable {
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
     private final String apiKey;
+    private final InetSocketAddress gateway;
+    private final Duration requestTimeout;
+    private final GatewayConnection[] connections;
+    private final ReentrantLock[] connectLocks;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private volatile boolean closed;
+
+    public PaymentGatewayClient(String apiKey, InetSocketAddress gateway) {
+        this(apiKey, gateway, DEFAULT_CONNECTIONS, DEFAULT_TIMEOUT);
+    }
 
-        public PaymentGatewayClient(String apiKey) {
-            if (apiKey == null || apiKey.isBlank()) {throw new IllegalArgumentException("API key cannot be null or empty");}
-            if (!apiKey.startsWith("sk_")) {throw new IllegalArgumentException("API key must start with 'sk_'");}
-            this.apiKey = apiKey;
+    public PaymentGatewayClient(String apiKey, InetSocketAddress gateway, int connections, Duration requestTimeout) {
+        if (apiKey == null || apiKey.isBlank()) {throw new IllegalArgumentException("API key cannot be null or empty");}
+        if (!apiKey.startsWith("sk_")) {throw new IllegalArgumentException("API key must start with 'sk_'");}
+        if (connections <= 0) {throw new IllegalArgumentException("Connections must be positive");}
+        this.apiKey = apiKey;
+        this.gateway = Objects.requireNonNull(gateway, "gateway cannot be null");
+        this.requestTimeout = Objects.requireNonNull(requestTimeout, "requestTimeout cannot be null");
+        this.connections = new GatewayConnection[connections];
+        this.connectLocks = new ReentrantLock[connections];
+        for (int i = 0; i < connections; i++) {
+            connectLocks[i] = new ReentrantLock();
         }
+    }
 
-        @Override
-        public PaymentApiResponse charge(double amount) throws PaymentProcessingException {
+    @Override
+    public PaymentApiResponse charge(Money amount) throws PaymentProcessingException {
+        Objects.requireNonNull(amount, "amount cannot be null");
+        return GatewayProtocol.readResponse(call(GatewayProtocol.CHARGE, GatewayProtocol.money(amount)));
+    }
+
+    @Override
+    public PaymentApiResponse refund(String transactionId) throws PaymentProcessingException {
+        return GatewayProtocol.readResponse(call(GatewayProtocol.REFUND, GatewayProtocol.string(transactionId)));
+    }
+
+    // Hela listan går i en förfrågan mot gatewayens batch-endpoint
+    @Override
+    public List<PaymentApiResponse> chargeAll(List<Money> amounts) throws PaymentProcessingException {
+        if (amounts.isEmpty()) {
+            return List.of();
+        }
+        List<PaymentApiResponse> responses =
+                GatewayProtocol.readResponses(call(GatewayProtocol.BATCH_CHARGE, GatewayProtocol.moneyList(amounts)));
+        if (responses.size() != amounts.size()) {
+            throw new PaymentProcessingException("Payment gateway returned " + responses.size()
+                    + " results for " + amounts.size() + " charges");
+        }
+        return responses;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < connections.length; i++) {
+            connectLocks[i].lock();
             try {
-                return PaymentApi.charge(apiKey, amount);
-            } catch (Exception e) {
-                throw new PaymentProcessingException("Payment API call failed", e);
+                if (connections[i] != null) {
+                    connections[i].close();
+                    connections[i] = null;
+                }
+            } finally {
+                connectLocks[i].unlock();
+            }
+        }
+    }
+
+    private ByteBuffer call(byte operation, ByteBuffer body) throws PaymentProcessingException {
+        try {
+            return connection().call(operation, body, requestTimeout);
+        } catch (IOException e) {
+            throw new PaymentProcessingException("Payment API call failed", e);
+        }
+    }
+
+    // Round-robin över poolen, en trasig anslutning ersätts vid nästa användning. Låset hålls under
+    // handskakningen och är därför inte synchronized, som låser fast virtuella trådar vid bärartråden
+    private GatewayConnection connection() throws IOException, PaymentProcessingException {
+        int slot = Math.floorMod(nextConnection.getAndIncrement(), connections.length);
+        connectLocks[slot].lock();
+        try {
+            if (closed) {
+                throw new IOException("Payment gateway client is closed");
+            }
+            GatewayConnection connection = connections[slot];
+            if (connection == null || !connection.isOpen()) {
+                connection = GatewayConnection.open(gateway, apiKey, requestTimeout);
+                connections[slot] = connection;
             }
+            return connection;
+        } finally {
+            connectLocks[slot].unlock();
         }
-    }
\ No newline at end of file
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.payment;
+
+public interface PaymentMetrics {
+
+    PaymentMetrics NOOP = new PaymentMetrics() {
+    };
+
+    enum Stage {
+        SAVE_PENDING,
+        CHARGE,
+        UPDATE_STATUS,
+        REFUND,
+        EMAIL
+    }
+
+    default void recordLatency(Stage stage, long nanos) {
+    }
+
+    default void recordOutcome(PaymentOutcome.Result result) {
+    }
+
+    default void recordEmailFailure() {
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.payment;
+
+public record PaymentOutcome(PaymentRequest request, Result result, String transactionId, Exception error) {
+
+    public enum Result {
+        COMPLETED,
+        DECLINED,
+        FAILED
+    }
+
+    public static PaymentOutcome completed(PaymentRequest request, String transactionId) {
+        return new PaymentOutcome(request, Result.COMPLETED, transactionId, null);
+    }
+
+    public static PaymentOutcome declined(PaymentRequest request) {
+        return new PaymentOutcome(request, Result.DECLINED, null, null);
+    }
+
+    public static PaymentOutcome failed(PaymentRequest request, Exception error) {
+        return new PaymentOutcome(request, Result.FAILED, null, error);
+    }
+
+    public boolean isSuccess() {
+        return result == Result.COMPLETED;
+    }
+}
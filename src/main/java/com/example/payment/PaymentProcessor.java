@@ -1,43 +1,417 @@
 package com.example.payment;
 
+import com.example.money.Money;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 public class PaymentProcessor {
 
+    private static final Executor VIRTUAL_THREADS = task -> Thread.ofVirtual().start(task);
+    private static final int WRITE_BATCH_SIZE = 500;
+    private static final int IDEMPOTENCY_MAX_ENTRIES = 100_000;
+    private static final Duration IDEMPOTENCY_TTL = Duration.ofHours(24);
+
+    private interface TimedCall<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    // Det som måste stämma när en idempotensnyckel återanvänds
+    private record RequestFingerprint(Money amount, String email) {
+    }
+
     private final PaymentApiClient paymentApiClient;
     private final PaymentRepository paymentRepository;
     private final EmailSender emailSender;
+    private final PaymentMetrics metrics;
+    private final IdempotencyStore idempotencyStore;
 
     public PaymentProcessor(PaymentApiClient paymentApiClient,
                             PaymentRepository paymentRepository,
                             EmailSender emailSender) {
+        this(paymentApiClient, paymentRepository, emailSender, PaymentMetrics.NOOP);
+    }
+
+    public PaymentProcessor(PaymentApiClient paymentApiClient,
+                            PaymentRepository paymentRepository,
+                            EmailSender emailSender,
+                            PaymentMetrics metrics) {
+        this(paymentApiClient, paymentRepository, emailSender, metrics,
+                new IdempotencyStore(IDEMPOTENCY_MAX_ENTRIES, IDEMPOTENCY_TTL));
+    }
+
+    public PaymentProcessor(PaymentApiClient paymentApiClient,
+                            PaymentRepository paymentRepository,
+                            EmailSender emailSender,
+                            PaymentMetrics metrics,
+                            IdempotencyStore idempotencyStore) {
         this.paymentApiClient = Objects.requireNonNull(paymentApiClient, "paymentApiClient cannot be null");
         this.paymentRepository = Objects.requireNonNull(paymentRepository, "paymentRepository cannot be null");
         this.emailSender = Objects.requireNonNull(emailSender, "emailSender cannot be null");
+        this.metrics = Objects.requireNonNull(metrics, "metrics cannot be null");
+        this.idempotencyStore = Objects.requireNonNull(idempotencyStore, "idempotencyStore cannot be null");
     }
 
-    public boolean processPayment(double amount, String email) throws PaymentProcessingException {
-        if (amount <= 0) throw new IllegalArgumentException("Amount must be positive");
-        if (email == null || email.isBlank()) throw new IllegalArgumentException("Email cannot be null or empty");
+    public boolean processPayment(Money amount, String email) throws PaymentProcessingException {
+        validate(amount, email);
+
+        String paymentId = newPaymentId();
+        try {
+            begin(paymentId, amount);
+
+            // Kastar gatewayen är utfallet okänt, betalningen ligger kvar som PENDING för avstämning
+            PaymentApiResponse response = chargeGateway(amount);
+
+            if (!complete(paymentId, response)) {
+                metrics.recordOutcome(PaymentOutcome.Result.DECLINED);
+                return false;
+            }
+        } catch (PaymentProcessingException | RuntimeException e) {
+            metrics.recordOutcome(PaymentOutcome.Result.FAILED);
+            throw e;
+        }
+
+        metrics.recordOutcome(PaymentOutcome.Result.COMPLETED);
+        sendConfirmation(new EmailConfirmation(paymentId, email, amount));
+        return true;
+    }
+
+    public boolean processPayment(String idempotencyKey, Money amount, String email) throws PaymentProcessingException {
+        validate(amount, email);
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            throw new IllegalArgumentException("Idempotency key cannot be null or empty");
+        }
+
+        String paymentId = newPaymentId();
+        try {
+            RequestFingerprint fingerprint = new RequestFingerprint(amount, email);
+            IdempotencyStore.Result result = idempotencyStore.execute(idempotencyKey, fingerprint, () -> {
+                begin(paymentId, amount);
+                return chargeGateway(amount);
+            });
+            PaymentApiResponse response = result.response();
+
+            // Bara första försöket sparar status, räknas och skickar e-post
+            if (result.replayed()) {
+                return response.isSuccess();
+            }
 
-        PaymentApiResponse response = paymentApiClient.charge(amount);
+            if (!complete(paymentId, response)) {
+                metrics.recordOutcome(PaymentOutcome.Result.DECLINED);
+                return false;
+            }
+        } catch (PaymentProcessingException | RuntimeException e) {
+            metrics.recordOutcome(PaymentOutcome.Result.FAILED);
+            throw e;
+        }
+
+        metrics.recordOutcome(PaymentOutcome.Result.COMPLETED);
+        sendConfirmation(new EmailConfirmation(paymentId, email, amount));
+        return true;
+    }
+
+    public CompletableFuture<Boolean> processPaymentAsync(Money amount, String email) {
+        return processPaymentAsync(amount, email, VIRTUAL_THREADS);
+    }
+
+    public CompletableFuture<Boolean> processPaymentAsync(Money amount, String email, Executor executor) {
+        return processPaymentAsync(amount, email, executor, CompletableFuture.completedFuture(null));
+    }
+
+    // Debiteringen startar direkt medan anroparen kontrollerar något annat, t.ex. en varukorg.
+    // Betalningen slutförs först när precondition är klar. Misslyckas den efter en lyckad debitering
+    // återbetalas beloppet och framtiden misslyckas med precondition-felet, ingen bekräftelse skickas
+    public CompletableFuture<Boolean> processPaymentAsync(Money amount, String email, Executor executor,
+                                                          CompletionStage<?> precondition) {
+        validate(amount, email);
+        Objects.requireNonNull(executor, "executor cannot be null");
+        Objects.requireNonNull(precondition, "precondition cannot be null");
+
+        String paymentId = newPaymentId();
+        CompletableFuture<Throwable> preconditionError = precondition.handle((ignored, error) -> error).toCompletableFuture();
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        begin(paymentId, amount);
+                        return chargeGateway(amount);
+                    } catch (PaymentProcessingException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor)
+                .thenCombine(preconditionError, (response, error) -> {
+                    try {
+                        if (!complete(paymentId, response)) {
+                            return false;
+                        }
+                        if (error != null) {
+                            reverse(paymentId, response.transactionId(), unwrap(error));
+                        }
+                    } catch (PaymentProcessingException e) {
+                        throw new CompletionException(e);
+                    }
+                    // E-post ligger utanför den kritiska vägen
+                    executor.execute(() -> sendConfirmation(new EmailConfirmation(paymentId, email, amount)));
+                    return true;
+                })
+                .whenComplete((completed, error) -> metrics.recordOutcome(error != null
+                        ? PaymentOutcome.Result.FAILED
+                        : completed ? PaymentOutcome.Result.COMPLETED : PaymentOutcome.Result.DECLINED));
+    }
 
+    public List<PaymentOutcome> processPayments(List<PaymentRequest> requests, int parallelism) {
+        Objects.requireNonNull(requests, "requests cannot be null");
+        if (parallelism <= 0) throw new IllegalArgumentException("Parallelism must be positive");
+
+        PaymentOutcome[] outcomes = new PaymentOutcome[requests.size()];
+        String[] paymentIds = new String[requests.size()];
+        Semaphore permits = new Semaphore(parallelism);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            // Ett fönster i taget: PENDING i en skrivning, debitera parallellt, slutstatus i en skrivning
+            for (int from = 0; from < requests.size(); from += WRITE_BATCH_SIZE) {
+                int to = Math.min(from + WRITE_BATCH_SIZE, requests.size());
+                beginWindow(requests, from, to, paymentIds, outcomes);
+                chargeWindow(requests, from, to, permits, executor, outcomes);
+                completeWindow(from, to, paymentIds, executor, outcomes);
+            }
+        }
+        for (PaymentOutcome outcome : outcomes) {
+            metrics.recordOutcome(outcome.result());
+        }
+        return Arrays.asList(outcomes);
+    }
+
+    public boolean refundPayment(String transactionId) throws PaymentProcessingException {
+        if (transactionId == null || transactionId.isBlank()) {
+            throw new IllegalArgumentException("Transaction ID cannot be null or empty");
+        }
+
+        StoredPayment payment;
+        try {
+            payment = paymentRepository.findByTransactionId(transactionId)
+                    .orElseThrow(() -> new IllegalArgumentException("Payment not found: " + transactionId));
+        } catch (PaymentDataAccessException e) {
+            throw new PaymentProcessingException("Failed to load payment", e);
+        }
+        if (payment.status() != PaymentStatus.COMPLETED) {
+            throw new IllegalStateException("Only completed payments can be refunded, was " + payment.status());
+        }
+
+        PaymentApiResponse response = timed(PaymentMetrics.Stage.REFUND, () -> paymentApiClient.refund(transactionId));
         if (!response.isSuccess()) {
             return false;
         }
 
+        try {
+            timed(PaymentMetrics.Stage.UPDATE_STATUS, () -> {
+                paymentRepository.updateStatus(payment.paymentId(), PaymentStatus.REFUNDED, transactionId);
+                return null;
+            });
+        } catch (PaymentDataAccessException e) {
+            throw new PaymentProcessingException("Failed to save refund", e);
+        }
+        return true;
+    }
+
+    private void beginWindow(List<PaymentRequest> requests, int from, int to, String[] paymentIds,
+                             PaymentOutcome[] outcomes) {
+        List<PendingPayment> pending = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            PaymentRequest request = requests.get(i);
             try {
-                paymentRepository.savePayment(amount, PaymentStatus.COMPLETED, response.transactionId());
-            } catch (PaymentDataAccessException e) {
-                // Wrap och kasta vidare
-                throw new PaymentProcessingException("Failed to save payment", e);
+                validate(request.amount(), request.email());
+            } catch (IllegalArgumentException e) {
+                outcomes[i] = PaymentOutcome.failed(request, e);
+                continue;
+            }
+            paymentIds[i] = newPaymentId();
+            pending.add(new PendingPayment(paymentIds[i], request.amount()));
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        try {
+            timed(PaymentMetrics.Stage.SAVE_PENDING, () -> {
+                paymentRepository.savePendingPayments(pending);
+                return null;
+            });
+        } catch (PaymentDataAccessException e) {
+            PaymentProcessingException failure = new PaymentProcessingException("Failed to save payment", e);
+            for (int i = from; i < to; i++) {
+                if (outcomes[i] == null) {
+                    outcomes[i] = PaymentOutcome.failed(requests.get(i), failure);
+                }
+            }
+        }
+    }
+
+    private void chargeWindow(List<PaymentRequest> requests, int from, int to, Semaphore permits,
+                              Executor executor, PaymentOutcome[] outcomes) {
+        List<CompletableFuture<?>> charges = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            if (outcomes[i] != null) {
+                continue;
+            }
+            int index = i;
+            PaymentRequest request = requests.get(i);
+            charges.add(CompletableFuture.runAsync(() -> outcomes[index] = charge(request, permits), executor));
+        }
+        CompletableFuture.allOf(charges.toArray(CompletableFuture[]::new)).join();
+    }
+
+    private PaymentOutcome charge(PaymentRequest request, Semaphore permits) {
+        permits.acquireUninterruptibly();
+        try {
+            PaymentApiResponse response = chargeGateway(request.amount());
+            return response.isSuccess()
+                    ? PaymentOutcome.completed(request, response.transactionId())
+                    : PaymentOutcome.declined(request);
+        } catch (Exception e) {
+            return PaymentOutcome.failed(request, e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void completeWindow(int from, int to, String[] paymentIds, Executor executor, PaymentOutcome[] outcomes) {
+        List<PaymentStatusUpdate> updates = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            PaymentOutcome outcome = outcomes[i];
+            if (outcome.isSuccess()) {
+                updates.add(new PaymentStatusUpdate(paymentIds[i], PaymentStatus.COMPLETED, outcome.transactionId()));
+            } else if (outcome.result() == PaymentOutcome.Result.DECLINED) {
+                updates.add(new PaymentStatusUpdate(paymentIds[i], PaymentStatus.FAILED, null));
             }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        try {
+            timed(PaymentMetrics.Stage.UPDATE_STATUS, () -> {
+                paymentRepository.updateStatuses(updates);
+                return null;
+            });
+        } catch (PaymentDataAccessException e) {
+            PaymentProcessingException failure = new PaymentProcessingException("Failed to save payment", e);
+            for (int i = from; i < to; i++) {
+                if (outcomes[i].isSuccess()) {
+                    // Behåll transaktions-id:t så att debiteringen kan stämmas av
+                    outcomes[i] = new PaymentOutcome(outcomes[i].request(), PaymentOutcome.Result.FAILED,
+                            outcomes[i].transactionId(), failure);
+                }
+            }
+            return;
+        }
+
+        for (int i = from; i < to; i++) {
+            if (outcomes[i].isSuccess()) {
+                PaymentRequest request = outcomes[i].request();
+                EmailConfirmation confirmation = new EmailConfirmation(paymentIds[i], request.email(), request.amount());
+                executor.execute(() -> sendConfirmation(confirmation));
+            }
+        }
+    }
+
+    private static void validate(Money amount, String email) {
+        if (amount == null || !amount.isPositive()) throw new IllegalArgumentException("Amount must be positive");
+        if (email == null || email.isBlank()) throw new IllegalArgumentException("Email cannot be null or empty");
+    }
+
+    private static String newPaymentId() {
+        return UUID.randomUUID().toString();
+    }
+
+    private void begin(String paymentId, Money amount) throws PaymentProcessingException {
+        try {
+            timed(PaymentMetrics.Stage.SAVE_PENDING, () -> {
+                paymentRepository.savePending(paymentId, amount);
+                return null;
+            });
+        } catch (PaymentDataAccessException e) {
+            throw new PaymentProcessingException("Failed to save payment", e);
+        }
+    }
 
+    private boolean complete(String paymentId, PaymentApiResponse response) throws PaymentProcessingException {
+        if (!response.isSuccess()) {
             try {
-                emailSender.sendPaymentConfirmation(email, amount);
-            } catch (EmailSendingException e) {
-                // Fortsätt
+                updateStatus(paymentId, PaymentStatus.FAILED, response.transactionId());
+            } catch (PaymentDataAccessException e) {
+                // Ligger kvar som PENDING och plockas upp av avstämningen
             }
-            return true;
+            return false;
+        }
+
+        try {
+            updateStatus(paymentId, PaymentStatus.COMPLETED, response.transactionId());
+        } catch (PaymentDataAccessException e) {
+            // Wrap och kasta vidare
+            throw new PaymentProcessingException("Failed to save payment", e);
+        }
+        return true;
+    }
+
+    // Återbetalar en debitering vars förutsättning föll bort och kastar alltid, med orsaken kvar
+    private void reverse(String paymentId, String transactionId, Throwable reason) throws PaymentProcessingException {
+        PaymentApiResponse response = timed(PaymentMetrics.Stage.REFUND, () -> paymentApiClient.refund(transactionId));
+        if (!response.isSuccess()) {
+            throw new PaymentProcessingException("Precondition failed and refund was declined for payment " + paymentId, reason);
+        }
+        try {
+            updateStatus(paymentId, PaymentStatus.REFUNDED, transactionId);
+        } catch (PaymentDataAccessException e) {
+            // Återbetalningen är gjord, statusen får rättas av avstämningen
+            reason.addSuppressed(e);
         }
-    }
\ No newline at end of file
+        throw new CompletionException(reason);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private void updateStatus(String paymentId, PaymentStatus status, String transactionId) throws PaymentDataAccessException {
+        timed(PaymentMetrics.Stage.UPDATE_STATUS, () -> {
+            paymentRepository.updateStatus(paymentId, status, transactionId);
+            return null;
+        });
+    }
+
+    private PaymentApiResponse chargeGateway(Money amount) throws PaymentProcessingException {
+        return timed(PaymentMetrics.Stage.CHARGE, () -> paymentApiClient.charge(amount));
+    }
+
+    // Med en OutboxEmailSender är det här bara en skrivning till utkorgen, själva utskicket sker i bakgrunden
+    private void sendConfirmation(EmailConfirmation confirmation) {
+        long start = System.nanoTime();
+        try {
+            emailSender.sendPaymentConfirmation(confirmation);
+        } catch (EmailSendingException e) {
+            // Fortsätt, men räkna felet
+            metrics.recordEmailFailure();
+        } finally {
+            metrics.recordLatency(PaymentMetrics.Stage.EMAIL, System.nanoTime() - start);
+        }
+    }
+
+    private <T, E extends Exception> T timed(PaymentMetrics.Stage stage, TimedCall<T, E> call) throws E {
+        long start = System.nanoTime();
+        try {
+            return call.run();
+        } finally {
+            metrics.recordLatency(stage, System.nanoTime() - start);
+        }
+    }
+}
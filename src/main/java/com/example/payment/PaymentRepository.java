@@ -1,5 +1,39 @@
 package com.example.payment;
 
+import com.example.money.Money;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
 public interface PaymentRepository {
-    void savePayment(double amount, PaymentStatus status, String transactionId) throws PaymentDataAccessException;
+    void savePayment(Money amount, PaymentStatus status, String transactionId) throws PaymentDataAccessException;
+
+    default void savePayments(List<PaymentRecord> payments) throws PaymentDataAccessException {
+        for (PaymentRecord payment : payments) {
+            savePayment(payment.amount(), payment.status(), payment.transactionId());
+        }
+    }
+
+    void savePending(String paymentId, Money amount) throws PaymentDataAccessException;
+
+    default void savePendingPayments(List<PendingPayment> payments) throws PaymentDataAccessException {
+        for (PendingPayment payment : payments) {
+            savePending(payment.paymentId(), payment.amount());
+        }
+    }
+
+    void updateStatus(String paymentId, PaymentStatus status, String transactionId) throws PaymentDataAccessException;
+
+    default void updateStatuses(List<PaymentStatusUpdate> updates) throws PaymentDataAccessException {
+        for (PaymentStatusUpdate update : updates) {
+            updateStatus(update.paymentId(), update.status(), update.transactionId());
+        }
+    }
+
+    Optional<StoredPayment> findById(String paymentId) throws PaymentDataAccessException;
+
+    Optional<StoredPayment> findByTransactionId(String transactionId) throws PaymentDataAccessException;
+
+    List<StoredPayment> findPendingOlderThan(Instant cutoff) throws PaymentDataAccessException;
 }
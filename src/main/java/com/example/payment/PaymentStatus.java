@@ -2,7 +2,15 @@ package com.example.payment;
 
 public enum PaymentStatus {
     COMPLETED,
-    // FAILED,
-    // PENDING,
-    // REFUNDED
-}
\ No newline at end of file
+    FAILED,
+    PENDING,
+    REFUNDED;
+
+    public boolean canTransitionTo(PaymentStatus next) {
+        return switch (this) {
+            case PENDING -> next == COMPLETED || next == FAILED;
+            case COMPLETED -> next == REFUNDED;
+            case FAILED, REFUNDED -> false;
+        };
+    }
+}
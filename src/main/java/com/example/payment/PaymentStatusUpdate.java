@@ -0,0 +1,4 @@
+package com.example.payment;
+
+public record PaymentStatusUpdate(String paymentId, PaymentStatus status, String transactionId) {
+}
@@ -0,0 +1,6 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+public record PendingPayment(String paymentId, Money amount) {
+}
@@ -0,0 +1,166 @@
+package com.example.payment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+// Loggfil med poster inramade som [längd][CRC32][data], delas av betalningsloggen och e-postutkorgen.
+// Uppspelningen stannar vid första posten som inte stämmer, det är en avbruten skrivning i slutet.
+// Skrivningar måste serialiseras av anroparen
+final class RecordLog implements AutoCloseable {
+
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+    private static final int READ_CHUNK_BYTES = 64 * 1024;
+
+    interface Decoder<T> {
+        T decode(ByteBuffer payload) throws IOException;
+    }
+
+    private final FileChannel channel;
+    // Sätts om en trasig skrivning inte gick att klippa bort, då tas inga fler skrivningar emot
+    private volatile boolean failed;
+
+    private RecordLog(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    static RecordLog open(Path file) throws IOException {
+        return open(file, UnaryOperator.identity());
+    }
+
+    // wrapper låter tester byta ut kanalen, t.ex. mot en som fallerar mitt i en skrivning
+    static RecordLog open(Path file, UnaryOperator<FileChannel> wrapper) throws IOException {
+        return new RecordLog(wrapper.apply(FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)));
+    }
+
+    // Läses i bitar, loggen kan vara större än vad som ryms i en ByteBuffer
+    <T> List<T> read(Decoder<T> decoder) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK_BYTES).limit(0);
+        long position = 0;
+        List<T> records = new ArrayList<>();
+        while (true) {
+            if (buffer.remaining() < HEADER_BYTES) {
+                position = refill(buffer, position);
+                if (buffer.remaining() < HEADER_BYTES) {
+                    break;
+                }
+            }
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES) {
+                break;
+            }
+            if (buffer.remaining() < length) {
+                if (buffer.capacity() < length) {
+                    buffer = ByteBuffer.allocate(length).put(buffer).flip();
+                }
+                position = refill(buffer, position);
+                if (buffer.remaining() < length) {
+                    break;
+                }
+            }
+            ByteBuffer payload = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            if (crc(payload) != checksum) {
+                break;
+            }
+            records.add(decoder.decode(payload));
+        }
+        return records;
+    }
+
+    // En halvskriven post mitt i loggen skulle stoppa uppspelningen vid nästa start och tappa
+    // allt som skrivs efter den, så den klipps bort innan felet kastas vidare
+    void append(List<ByteBuffer> payloads) throws IOException {
+        if (failed) {
+            throw new IOException("Log is unavailable after a failed write");
+        }
+        ByteBuffer buffer = frame(payloads);
+        long end = channel.size();
+        try {
+            long position = end;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            discardFrom(end);
+            throw e;
+        }
+    }
+
+    boolean isFailed() {
+        return failed;
+    }
+
+    // Anroparen avgör när allt i loggen är omhändertaget, då kan den tömmas
+    void clearIfLargerThan(long bytes) throws IOException {
+        if (channel.size() > bytes) {
+            clear();
+        }
+    }
+
+    void clear() throws IOException {
+        channel.truncate(0);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    void closeQuietly() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Redan trasigt, det första felet är viktigare
+        }
+    }
+
+    private void discardFrom(long end) {
+        try {
+            channel.truncate(end);
+            channel.force(false);
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    // Flyttar oläst data först i bufferten och fyller på från position, returnerar nästa position
+    private long refill(ByteBuffer buffer, long position) throws IOException {
+        buffer.compact();
+        int read;
+        while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0) {
+            position += read;
+        }
+        buffer.flip();
+        return position;
+    }
+
+    private static ByteBuffer frame(List<ByteBuffer> payloads) {
+        int size = 0;
+        for (ByteBuffer payload : payloads) {
+            size += HEADER_BYTES + payload.remaining();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (ByteBuffer payload : payloads) {
+            buffer.putInt(payload.remaining()).putInt(crc(payload)).put(payload.duplicate());
+        }
+        return buffer.flip();
+    }
+
+    private static int crc(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+}
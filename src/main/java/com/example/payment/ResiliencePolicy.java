@@ -0,0 +1,31 @@
+package com.example.payment;
+
+import java.time.Duration;
+import java.util.Objects;
+
+public record ResiliencePolicy(int windowSize,
+                               int minimumCalls,
+                               double failureRateThreshold,
+                               Duration openDuration,
+                               int maxConcurrentCalls,
+                               Duration minTimeout,
+                               Duration maxTimeout,
+                               double timeoutMultiplier,
+                               int latencyWindow) {
+
+    public ResiliencePolicy {
+        Objects.requireNonNull(openDuration, "openDuration cannot be null");
+        Objects.requireNonNull(minTimeout, "minTimeout cannot be null");
+        Objects.requireNonNull(maxTimeout, "maxTimeout cannot be null");
+        if (maxConcurrentCalls <= 0) throw new IllegalArgumentException("maxConcurrentCalls must be positive");
+        if (minTimeout.isNegative() || minTimeout.isZero()) throw new IllegalArgumentException("minTimeout must be positive");
+        if (maxTimeout.compareTo(minTimeout) < 0) throw new IllegalArgumentException("maxTimeout must not be less than minTimeout");
+        if (timeoutMultiplier < 1) throw new IllegalArgumentException("timeoutMultiplier must be at least 1");
+        if (latencyWindow <= 0) throw new IllegalArgumentException("latencyWindow must be positive");
+    }
+
+    public static ResiliencePolicy defaults() {
+        return new ResiliencePolicy(100, 20, 0.5, Duration.ofSeconds(30), 64,
+                Duration.ofMillis(200), Duration.ofSeconds(10), 3.0, 1_000);
+    }
+}
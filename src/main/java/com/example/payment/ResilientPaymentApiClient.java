@@ -0,0 +1,147 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public class ResilientPaymentApiClient implements PaymentApiClient {
+
+    private static final Executor VIRTUAL_THREADS = task -> Thread.ofVirtual().start(task);
+    private static final double TIMEOUT_PERCENTILE = 99.0;
+
+    private interface GatewayCall {
+        PaymentApiResponse call() throws PaymentProcessingException;
+    }
+
+    private final PaymentApiClient delegate;
+    private final ResiliencePolicy policy;
+    private final CircuitBreaker circuitBreaker;
+    private final Semaphore bulkhead;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile LatencyHistogram recentLatency = new LatencyHistogram();
+    private volatile long timeoutNanos;
+    private final LongAdder rejectedByCircuit = new LongAdder();
+    private final LongAdder rejectedByBulkhead = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public ResilientPaymentApiClient(PaymentApiClient delegate, ResiliencePolicy policy) {
+        this(delegate, policy, System::nanoTime);
+    }
+
+    public ResilientPaymentApiClient(PaymentApiClient delegate, ResiliencePolicy policy, LongSupplier nanoClock) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate cannot be null");
+        this.policy = Objects.requireNonNull(policy, "policy cannot be null");
+        this.circuitBreaker = new CircuitBreaker(policy.windowSize(), policy.minimumCalls(),
+                policy.failureRateThreshold(), policy.openDuration(), nanoClock);
+        this.bulkhead = new Semaphore(policy.maxConcurrentCalls());
+        // Ingen latensdata ännu, börja med den generösaste gränsen
+        this.timeoutNanos = policy.maxTimeout().toNanos();
+    }
+
+    @Override
+    public PaymentApiResponse charge(Money amount) throws PaymentProcessingException {
+        return call(() -> delegate.charge(amount));
+    }
+
+    @Override
+    public PaymentApiResponse refund(String transactionId) throws PaymentProcessingException {
+        return call(() -> delegate.refund(transactionId));
+    }
+
+    private PaymentApiResponse call(GatewayCall gatewayCall) throws PaymentProcessingException {
+        if (!bulkhead.tryAcquire()) {
+            rejectedByBulkhead.increment();
+            throw new PaymentProcessingException("Payment gateway bulkhead is full");
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            bulkhead.release();
+            rejectedByCircuit.increment();
+            throw new PaymentProcessingException("Payment gateway circuit is open");
+        }
+
+        long start = System.nanoTime();
+        long timeout = timeoutNanos;
+        // Platsen i bulkheaden släpps först när gatewayanropet faktiskt är klart, även efter timeout
+        CompletableFuture<PaymentApiResponse> call = CompletableFuture.supplyAsync(() -> {
+            try {
+                return gatewayCall.call();
+            } catch (PaymentProcessingException e) {
+                throw new CompletionException(e);
+            } finally {
+                bulkhead.release();
+            }
+        }, VIRTUAL_THREADS);
+
+        try {
+            PaymentApiResponse response = call.get(timeout, TimeUnit.NANOSECONDS);
+            recordLatency(System.nanoTime() - start);
+            circuitBreaker.onSuccess();
+            return response;
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            circuitBreaker.onFailure();
+            throw new PaymentProcessingException(
+                    "Payment gateway timed out after " + TimeUnit.NANOSECONDS.toMillis(timeout) + " ms", e);
+        } catch (ExecutionException e) {
+            circuitBreaker.onFailure();
+            if (e.getCause() instanceof PaymentProcessingException paymentException) {
+                throw paymentException;
+            }
+            throw new PaymentProcessingException("Payment API call failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            circuitBreaker.releasePermission();
+            throw new PaymentProcessingException("Interrupted while waiting for payment gateway", e);
+        }
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    public double getFailureRate() {
+        return circuitBreaker.getFailureRate();
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    public Duration getCurrentTimeout() {
+        return Duration.ofNanos(timeoutNanos);
+    }
+
+    public long getRejectedByCircuit() {
+        return rejectedByCircuit.sum();
+    }
+
+    public long getRejectedByBulkhead() {
+        return rejectedByBulkhead.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    private void recordLatency(long nanos) {
+        latency.record(nanos);
+        LatencyHistogram recent = recentLatency;
+        recent.record(nanos);
+        if (recent.getCount() >= policy.latencyWindow()) {
+            // Nytt fönster, timeouten följer p99 från det senaste fulla fönstret
+            recentLatency = new LatencyHistogram();
+            long adaptive = (long) (recent.percentileNanos(TIMEOUT_PERCENTILE) * policy.timeoutMultiplier());
+            timeoutNanos = Math.max(policy.minTimeout().toNanos(), Math.min(policy.maxTimeout().toNanos(), adaptive));
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+import java.time.Instant;
+
+public record StoredPayment(String paymentId, Money amount, PaymentStatus status, String transactionId, Instant createdAt) {
+
+    public StoredPayment withStatus(PaymentStatus status, String transactionId) {
+        return new StoredPayment(paymentId, amount, status, transactionId, createdAt);
+    }
+}
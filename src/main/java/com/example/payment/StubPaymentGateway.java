@@ -0,0 +1,179 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Gateway i samma process för tester och genomströmningsmätningar. Besluten tas av PaymentApi,
+// varje förfrågan hanteras i en egen virtuell tråd så att svaren kan komma i annan ordning
+public class StubPaymentGateway implements AutoCloseable {
+
+    private final ServerSocketChannel server;
+    private final Duration latency;
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder requestsHandled = new LongAdder();
+    private final LongAdder batchRequests = new LongAdder();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    public StubPaymentGateway() throws IOException {
+        this(Duration.ZERO);
+    }
+
+    public StubPaymentGateway(Duration latency) throws IOException {
+        this.latency = Objects.requireNonNull(latency, "latency cannot be null");
+        this.server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.acceptor = Thread.ofPlatform().daemon().name("stub-payment-gateway").start(this::acceptLoop);
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    public long getRequestsHandled() {
+        return requestsHandled.sum();
+    }
+
+    public long getBatchRequests() {
+        return batchRequests.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        // Porten släpps först när accept-tråden har lämnat accept
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                SocketChannel client = server.accept();
+                clients.add(client);
+                connectionsAccepted.increment();
+                Thread.ofVirtual().start(() -> serve(client));
+            } catch (IOException e) {
+                // Servern stängd
+                return;
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        ReentrantLock writeLock = new ReentrantLock();
+        String apiKey = null;
+        try (client) {
+            GatewayProtocol.Frame frame;
+            while ((frame = GatewayProtocol.read(client)) != null) {
+                if (frame.code() == GatewayProtocol.HELLO) {
+                    apiKey = readApiKey(frame.body());
+                    boolean valid = apiKey != null && apiKey.startsWith("sk_");
+                    reply(client, writeLock, frame.id(), valid ? GatewayProtocol.OK : GatewayProtocol.ERROR,
+                            valid ? ByteBuffer.allocate(0) : GatewayProtocol.string("Invalid API key"));
+                    if (!valid) {
+                        return;
+                    }
+                    continue;
+                }
+                if (apiKey == null) {
+                    reply(client, writeLock, frame.id(), GatewayProtocol.ERROR, GatewayProtocol.string("Handshake required"));
+                    return;
+                }
+                GatewayProtocol.Frame request = frame;
+                String key = apiKey;
+                Thread.ofVirtual().start(() -> handle(client, writeLock, key, request));
+            }
+        } catch (IOException e) {
+            // Klienten försvann
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private void handle(SocketChannel client, ReentrantLock writeLock, String apiKey, GatewayProtocol.Frame request) {
+        try {
+            if (!latency.isZero()) {
+                Thread.sleep(latency);
+            }
+            ByteBuffer body;
+            try {
+                body = respond(apiKey, request);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                // Trasig kropp, svara med fel i stället för att låta klienten vänta ut sin timeout
+                requestsHandled.increment();
+                reply(client, writeLock, request.id(), GatewayProtocol.ERROR, GatewayProtocol.string("Malformed request"));
+                return;
+            }
+            requestsHandled.increment();
+            if (body == null) {
+                reply(client, writeLock, request.id(), GatewayProtocol.ERROR,
+                        GatewayProtocol.string("Unknown operation: " + request.code()));
+            } else {
+                reply(client, writeLock, request.id(), GatewayProtocol.OK, body);
+            }
+        } catch (InterruptedException | IOException e) {
+            // Anslutningen stängs, klienten får felet via sin läsare
+        }
+    }
+
+    // null för okända operationer
+    private ByteBuffer respond(String apiKey, GatewayProtocol.Frame request) {
+        return switch (request.code()) {
+            case GatewayProtocol.CHARGE -> GatewayProtocol.response(PaymentApi.charge(apiKey, GatewayProtocol.readMoney(request.body())));
+            case GatewayProtocol.REFUND -> GatewayProtocol.response(PaymentApi.refund(apiKey, GatewayProtocol.readString(request.body())));
+            case GatewayProtocol.BATCH_CHARGE -> {
+                batchRequests.increment();
+                List<PaymentApiResponse> responses = new ArrayList<>();
+                for (Money amount : GatewayProtocol.readMoneyList(request.body())) {
+                    responses.add(PaymentApi.charge(apiKey, amount));
+                }
+                yield GatewayProtocol.responses(responses);
+            }
+            default -> null;
+        };
+    }
+
+    private static String readApiKey(ByteBuffer body) {
+        try {
+            return GatewayProtocol.readString(body);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void reply(SocketChannel client, ReentrantLock writeLock, long id, byte status, ByteBuffer body) throws IOException {
+        writeLock.lock();
+        try {
+            GatewayProtocol.write(client, GatewayProtocol.frame(id, status, body));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package com.example.payment;
+
+import com.example.money.Money;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+import static com.example.payment.BinaryCodec.MONEY_BYTES;
+import static com.example.payment.BinaryCodec.putMoney;
+import static com.example.payment.BinaryCodec.putString;
+import static com.example.payment.BinaryCodec.readMoney;
+import static com.example.payment.BinaryCodec.readString;
+import static com.example.payment.BinaryCodec.stringSize;
+import static com.example.payment.BinaryCodec.utf8;
+
+public class WriteAheadLogPaymentRepository implements PaymentRepository, AutoCloseable {
+
+    private static final String LOG_FILE = "payments.wal";
+    private static final String CHECKPOINT_FILE = "payments.checkpoint";
+    private static final byte KIND_SAVE = 1;
+    private static final byte KIND_PENDING = 2;
+    private static final byte KIND_STATUS = 3;
+    private static final long COMPACT_THRESHOLD_BYTES = 4L * 1024 * 1024;
+    private static final long POLL_MILLIS = 50;
+    private static final long MIN_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+    private static final long READ_TIMEOUT_MILLIS = 5_000;
+    private static final long WRITE_TIMEOUT_MILLIS = 10_000;
+
+    // operation är en PaymentRecord, PendingPayment eller PaymentStatusUpdate
+    private record LogEntry(long sequence, Object operation) {
+    }
+
+    private record PendingWrite(List<?> operations, CompletableFuture<Void> durable) {
+    }
+
+    private final PaymentRepository delegate;
+    private final RecordLog log;
+    private final FileChannel checkpoint;
+    private final BlockingQueue<PendingWrite> commitQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<List<LogEntry>> flushQueue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private final Thread flusher;
+
+    private final Object flushed = new Object();
+    // Tas av append och close, så att ingen skrivning hinner köas efter att committern stannat
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    private volatile long lastAppendedSequence;
+    private volatile long lastFlushedSequence;
+    // Poster till och med den här kan ha nått delegaten utan att checkpointen hann skrivas.
+    // Används bara av återställningen och sedan av flush-tråden
+    private long uncertainThrough;
+    private volatile boolean closing;
+    private volatile boolean commitDone;
+
+    public WriteAheadLogPaymentRepository(Path directory, PaymentRepository delegate) throws PaymentDataAccessException {
+        this(directory, delegate, UnaryOperator.identity());
+    }
+
+    // logChannel låter tester byta ut loggfilens kanal, t.ex. mot en som fallerar mitt i en skrivning
+    WriteAheadLogPaymentRepository(Path directory, PaymentRepository delegate, UnaryOperator<FileChannel> logChannel)
+            throws PaymentDataAccessException {
+        this.delegate = Objects.requireNonNull(delegate, "delegate cannot be null");
+        try {
+            Files.createDirectories(directory);
+            this.log = RecordLog.open(directory.resolve(LOG_FILE), logChannel);
+            this.checkpoint = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new PaymentDataAccessException("Failed to open payment log", e);
+        }
+        try {
+            recover();
+        } catch (IOException | PaymentDataAccessException | RuntimeException e) {
+            closeQuietly();
+            throw e instanceof PaymentDataAccessException dataAccessException
+                    ? dataAccessException
+                    : new PaymentDataAccessException("Failed to replay payment log", e);
+        }
+
+        this.committer = new Thread(this::commitLoop, "payment-wal-commit");
+        this.flusher = new Thread(this::flushLoop, "payment-wal-flush");
+        committer.setDaemon(true);
+        flusher.setDaemon(true);
+        committer.start();
+        flusher.start();
+    }
+
+    @Override
+    public void savePayment(Money amount, PaymentStatus status, String transactionId) throws PaymentDataAccessException {
+        savePayments(List.of(new PaymentRecord(amount, status, transactionId)));
+    }
+
+    @Override
+    public void savePayments(List<PaymentRecord> payments) throws PaymentDataAccessException {
+        append(payments);
+    }
+
+    @Override
+    public void savePending(String paymentId, Money amount) throws PaymentDataAccessException {
+        append(List.of(new PendingPayment(paymentId, amount)));
+    }
+
+    @Override
+    public void savePendingPayments(List<PendingPayment> payments) throws PaymentDataAccessException {
+        append(payments);
+    }
+
+    @Override
+    public void updateStatus(String paymentId, PaymentStatus status, String transactionId) throws PaymentDataAccessException {
+        append(List.of(new PaymentStatusUpdate(paymentId, status, transactionId)));
+    }
+
+    @Override
+    public void updateStatuses(List<PaymentStatusUpdate> updates) throws PaymentDataAccessException {
+        append(updates);
+    }
+
+    @Override
+    public Optional<StoredPayment> findById(String paymentId) throws PaymentDataAccessException {
+        awaitFlushed();
+        return delegate.findById(paymentId);
+    }
+
+    @Override
+    public Optional<StoredPayment> findByTransactionId(String transactionId) throws PaymentDataAccessException {
+        awaitFlushed();
+        return delegate.findByTransactionId(transactionId);
+    }
+
+    @Override
+    public List<StoredPayment> findPendingOlderThan(Instant cutoff) throws PaymentDataAccessException {
+        awaitFlushed();
+        return delegate.findPendingOlderThan(cutoff);
+    }
+
+    private void append(List<?> operations) throws PaymentDataAccessException {
+        if (operations.isEmpty()) {
+            return;
+        }
+        PendingWrite write = new PendingWrite(List.copyOf(operations), new CompletableFuture<>());
+        appendLock.lock();
+        try {
+            if (closing) {
+                throw new PaymentDataAccessException("Payment log is closed");
+            }
+            if (log.isFailed()) {
+                throw new PaymentDataAccessException("Payment log is unavailable after a failed write");
+            }
+            commitQueue.add(write);
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            write.durable().get(WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentDataAccessException("Interrupted while waiting for payment log");
+        } catch (ExecutionException e) {
+            throw new PaymentDataAccessException("Failed to write payment log", e.getCause());
+        } catch (TimeoutException e) {
+            // Skrivningen kan fortfarande bli beständig, anroparen får stämma av som vid ett gatewayfel
+            throw new PaymentDataAccessException("Timed out waiting for payment log");
+        }
+    }
+
+    // Läsningar går mot delegaten, så allt som redan bekräftats måste ha nått den först
+    private void awaitFlushed() throws PaymentDataAccessException {
+        long target = lastAppendedSequence;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(READ_TIMEOUT_MILLIS);
+        synchronized (flushed) {
+            while (lastFlushedSequence < target) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new PaymentDataAccessException("Timed out waiting for payment log to flush");
+                }
+                try {
+                    flushed.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PaymentDataAccessException("Interrupted while waiting for payment log");
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws PaymentDataAccessException {
+        appendLock.lock();
+        try {
+            closing = true;
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            committer.join();
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Bara om committern avbröts, annars har den tömt kön innan den stannade
+        PendingWrite write;
+        while ((write = commitQueue.poll()) != null) {
+            write.durable().completeExceptionally(new PaymentDataAccessException("Payment log is closed"));
+        }
+        try {
+            log.close();
+            checkpoint.close();
+        } catch (IOException e) {
+            throw new PaymentDataAccessException("Failed to close payment log", e);
+        }
+    }
+
+    private void closeQuietly() {
+        log.closeQuietly();
+        try {
+            checkpoint.close();
+        } catch (IOException e) {
+            // Redan trasigt, felet från återställningen är viktigare
+        }
+    }
+
+    // Group commit: allt som köats medan förra fsync pågick skrivs och synkas i ett svep
+    private void commitLoop() {
+        List<PendingWrite> group = new ArrayList<>();
+        while (true) {
+            try {
+                PendingWrite first = commitQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    group.add(first);
+                }
+                // closing sätts under appendLock, så efter det här svepet kommer inget mer in i kön
+                boolean last = closing;
+                commitQueue.drainTo(group);
+                if (group.isEmpty()) {
+                    if (last) {
+                        break;
+                    }
+                    continue;
+                }
+                commit(group);
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                group.clear();
+            }
+        }
+        commitDone = true;
+    }
+
+    private void commit(List<PendingWrite> group) {
+        List<LogEntry> entries = new ArrayList<>();
+        long sequence = lastAppendedSequence;
+        for (PendingWrite write : group) {
+            for (Object operation : write.operations()) {
+                entries.add(new LogEntry(++sequence, operation));
+            }
+        }
+        try {
+            // Allt i loggen har nått delegaten, då kan den börja om från noll
+            if (lastFlushedSequence == lastAppendedSequence) {
+                log.clearIfLargerThan(COMPACT_THRESHOLD_BYTES);
+            }
+            log.append(encode(entries));
+        } catch (IOException e) {
+            for (PendingWrite write : group) {
+                write.durable().completeExceptionally(e);
+            }
+            return;
+        }
+        lastAppendedSequence = sequence;
+        for (PendingWrite write : group) {
+            write.durable().complete(null);
+        }
+        flushQueue.add(entries);
+    }
+
+    private void flushLoop() {
+        List<LogEntry> batch = new ArrayList<>();
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            try {
+                if (batch.isEmpty()) {
+                    List<LogEntry> first = flushQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (commitDone) {
+                            break;
+                        }
+                        continue;
+                    }
+                    batch.addAll(first);
+                }
+                List<List<LogEntry>> more = new ArrayList<>();
+                flushQueue.drainTo(more);
+                more.forEach(batch::addAll);
+
+                flush(batch);
+                batch.clear();
+                backoff = MIN_BACKOFF_MILLIS;
+            } catch (InterruptedException e) {
+                break;
+            } catch (PaymentDataAccessException | IOException | RuntimeException e) {
+                // Det som lyckades är redan borta ur batch. Körningen som föll kan delvis ha nått delegaten
+                if (!batch.isEmpty()) {
+                    uncertainThrough = Math.max(uncertainThrough, batch.get(runEnd(batch) - 1).sequence());
+                }
+                // Ligger kvar i loggen och spelas upp vid nästa start om vi stänger nu
+                if (commitDone) {
+                    break;
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    // Checkpointen skrivs efter varje körning och det som lagts fram tas bort ur entries, så ett nytt
+    // försök börjar där det förra föll. Osäkra poster läggs fram en i taget och hoppas över
+    // om delegaten redan har dem, en operation får aldrig nå delegaten två gånger
+    private void flush(List<LogEntry> entries) throws PaymentDataAccessException, IOException {
+        while (!entries.isEmpty()) {
+            int to;
+            if (entries.get(0).sequence() <= uncertainThrough) {
+                to = 1;
+                Object operation = entries.get(0).operation();
+                if (!alreadyApplied(operation)) {
+                    apply(List.of(operation));
+                }
+            } else {
+                to = runEnd(entries);
+                List<Object> run = new ArrayList<>(to);
+                for (int i = 0; i < to; i++) {
+                    run.add(entries.get(i).operation());
+                }
+                apply(run);
+            }
+            long sequence = entries.get(to - 1).sequence();
+            writeCheckpoint(sequence);
+            entries.subList(0, to).clear();
+            synchronized (flushed) {
+                lastFlushedSequence = sequence;
+                flushed.notifyAll();
+            }
+        }
+    }
+
+    // Ordningen måste bevaras, en statusändring får inte nå delegaten före sin PENDING-rad,
+    // men intilliggande operationer av samma slag går i en bulkskrivning
+    private static int runEnd(List<LogEntry> entries) {
+        Class<?> kind = entries.get(0).operation().getClass();
+        int to = 1;
+        while (to < entries.size() && entries.get(to).operation().getClass() == kind) {
+            to++;
+        }
+        return to;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(List<Object> run) throws PaymentDataAccessException {
+        Object first = run.get(0);
+        if (first instanceof PendingPayment) {
+            delegate.savePendingPayments((List<PendingPayment>) (List<?>) run);
+        } else if (first instanceof PaymentStatusUpdate) {
+            delegate.updateStatuses((List<PaymentStatusUpdate>) (List<?>) run);
+        } else {
+            delegate.savePayments((List<PaymentRecord>) (List<?>) run);
+        }
+    }
+
+    // En statusändring räknas som gjord när betalningen redan har nått den statusen eller längre.
+    // Betalningar utan transaktions-id går inte att känna igen och läggs fram igen
+    private boolean alreadyApplied(Object operation) throws PaymentDataAccessException {
+        return switch (operation) {
+            case PendingPayment pending -> delegate.findById(pending.paymentId()).isPresent();
+            case PaymentStatusUpdate update -> delegate.findById(update.paymentId())
+                    .filter(stored -> !stored.status().canTransitionTo(update.status()))
+                    .isPresent();
+            case PaymentRecord payment -> payment.transactionId() != null && delegate.findByTransactionId(payment.transactionId())
+                    .filter(stored -> stored.status() == payment.status() && stored.amount().equals(payment.amount()))
+                    .isPresent();
+            default -> throw new IllegalArgumentException("Unknown payment operation: " + operation);
+        };
+    }
+
+    // En krasch mellan delegaten och checkpointen lämnar poster efter checkpointen som redan har
+    // lagts fram, så allt som spelas upp räknas som osäkert. Det händer bara vid start
+    private void recover() throws IOException, PaymentDataAccessException {
+        long checkpointed = readCheckpoint();
+        List<LogEntry> entries = log.read(WriteAheadLogPaymentRepository::decode);
+        List<LogEntry> unflushed = new ArrayList<>();
+        long last = checkpointed;
+        for (LogEntry entry : entries) {
+            if (entry.sequence() > checkpointed) {
+                unflushed.add(entry);
+            }
+            last = Math.max(last, entry.sequence());
+        }
+        uncertainThrough = last;
+        flush(unflushed);
+        writeCheckpoint(last);
+        log.clear();
+        lastAppendedSequence = last;
+        lastFlushedSequence = last;
+    }
+
+    private long readCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (checkpoint.read(buffer, buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        return buffer.flip().getLong();
+    }
+
+    private void writeCheckpoint(long sequence) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(sequence).flip();
+        while (buffer.hasRemaining()) {
+            checkpoint.write(buffer, buffer.position());
+        }
+        checkpoint.force(false);
+    }
+
+    private static List<ByteBuffer> encode(List<LogEntry> entries) {
+        List<ByteBuffer> payloads = new ArrayList<>(entries.size());
+        for (LogEntry entry : entries) {
+            payloads.add(encode(entry));
+        }
+        return payloads;
+    }
+
+    private static ByteBuffer encode(LogEntry entry) {
+        return switch (entry.operation()) {
+            case PaymentRecord payment -> {
+                byte[] transactionId = utf8(payment.transactionId());
+                ByteBuffer payload = header(KIND_SAVE, entry.sequence(), MONEY_BYTES + Byte.BYTES + stringSize(transactionId));
+                putMoney(payload, payment.amount()).put((byte) payment.status().ordinal());
+                yield putString(payload, transactionId).flip();
+            }
+            case PendingPayment pending -> {
+                byte[] paymentId = utf8(pending.paymentId());
+                ByteBuffer payload = header(KIND_PENDING, entry.sequence(), MONEY_BYTES + stringSize(paymentId));
+                putMoney(payload, pending.amount());
+                yield putString(payload, paymentId).flip();
+            }
+            case PaymentStatusUpdate update -> {
+                byte[] paymentId = utf8(update.paymentId());
+                byte[] transactionId = utf8(update.transactionId());
+                ByteBuffer payload = header(KIND_STATUS, entry.sequence(), Byte.BYTES + stringSize(paymentId) + stringSize(transactionId))
+                        .put((byte) update.status().ordinal());
+                putString(payload, paymentId);
+                yield putString(payload, transactionId).flip();
+            }
+            default -> throw new IllegalArgumentException("Unknown payment operation: " + entry.operation());
+        };
+    }
+
+    private static ByteBuffer header(byte kind, long sequence, int bodySize) {
+        return ByteBuffer.allocate(Byte.BYTES + Long.BYTES + bodySize).put(kind).putLong(sequence);
+    }
+
+    private static LogEntry decode(ByteBuffer payload) throws IOException {
+        byte kind = payload.get();
+        long sequence = payload.getLong();
+        Object operation = switch (kind) {
+            case KIND_SAVE -> {
+                Money amount = readMoney(payload);
+                PaymentStatus status = PaymentStatus.values()[payload.get()];
+                yield new PaymentRecord(amount, status, readString(payload));
+            }
+            case KIND_PENDING -> {
+                Money amount = readMoney(payload);
+                yield new PendingPayment(readString(payload), amount);
+            }
+            case KIND_STATUS -> {
+                PaymentStatus status = PaymentStatus.values()[payload.get()];
+                String paymentId = readString(payload);
+                yield new PaymentStatusUpdate(paymentId, status, readString(payload));
+            }
+            default -> throw new IOException("Unknown payment log record kind: " + kind);
+        };
+        return new LogEntry(sequence, operation);
+    }
+}
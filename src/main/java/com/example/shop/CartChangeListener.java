@@ -0,0 +1,22 @@
+package com.example.shop;
+
+import java.util.Map;
+import java.util.UUID;
+
+// Anropas efter att ändringen har gått igenom, med samma argument som anroparen gav
+public interface CartChangeListener {
+    void productAdded(Product product, int quantity);
+
+    void productRemoved(UUID productId, int quantity);
+
+    void cleared();
+
+    // Bulkändringar kommer som en händelse, korgen har då redan alla rader i batchen
+    default void productsAdded(Map<Product, Integer> products) {
+        products.forEach(this::productAdded);
+    }
+
+    default void productsRemoved(Map<UUID, Integer> products) {
+        products.forEach(this::productRemoved);
+    }
+}
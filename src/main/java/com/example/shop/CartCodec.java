@@ -0,0 +1,90 @@
+package com.example.shop;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+// Binärt format för korgar, skrivs och läses direkt i anroparens buffert utan mellanliggande kopior.
+// Ögonblicksbild: [antal rader][rad]*, rad: [id hög][id låg][antal].
+// Delta: [op][id hög][id låg][antal], alltid lika stor så att en logg kan läsas utan längdfält.
+// Bara produkt-id och antal sparas, namn och pris hämtas från katalogen vid inläsning
+public final class CartCodec {
+
+    public static final int LINE_BYTES = Long.BYTES * 2 + Integer.BYTES;
+    public static final int DELTA_BYTES = Byte.BYTES + LINE_BYTES;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+
+    private CartCodec() {
+    }
+
+    public static int snapshotSize(ShoppingCart cart) {
+        return Integer.BYTES + cart.getItems().size() * LINE_BYTES;
+    }
+
+    public static void writeSnapshot(ShoppingCart cart, ByteBuffer target) {
+        Collection<CartItem> items = cart.getItems();
+        target.putInt(items.size());
+        for (CartItem item : items) {
+            putLine(target, item.getProduct().getId(), item.getQuantity());
+        }
+    }
+
+    // Produkter som inte längre finns i katalogen hoppas över
+    public static ShoppingCart readSnapshot(ByteBuffer source, ProductCatalog catalog) {
+        ShoppingCart cart = new ShoppingCart();
+        int lines = source.getInt();
+        if (lines < 0 || (long) lines * LINE_BYTES > source.remaining()) {
+            throw new CartException("Corrupt cart snapshot: " + lines + " lines");
+        }
+        for (int i = 0; i < lines; i++) {
+            UUID productId = new UUID(source.getLong(), source.getLong());
+            int quantity = source.getInt();
+            catalog.find(productId).ifPresent(product -> cart.addProduct(product, quantity));
+        }
+        return cart;
+    }
+
+    public static void writeAdded(ByteBuffer target, UUID productId, int quantity) {
+        putLine(target.put(ADD), productId, quantity);
+    }
+
+    public static void writeRemoved(ByteBuffer target, UUID productId, int quantity) {
+        putLine(target.put(REMOVE), productId, quantity);
+    }
+
+    public static void writeCleared(ByteBuffer target) {
+        putLine(target.put(CLEAR), new UUID(0, 0), 0);
+    }
+
+    // Spelar upp alla hela deltan som återstår i bufferten mot korgen
+    public static void applyDeltas(ByteBuffer source, ShoppingCart cart, ProductCatalog catalog) {
+        while (source.remaining() >= DELTA_BYTES) {
+            byte op = source.get();
+            UUID productId = new UUID(source.getLong(), source.getLong());
+            int quantity = source.getInt();
+            switch (op) {
+                case ADD -> {
+                    Optional<Product> product = catalog.find(productId);
+                    product.ifPresent(p -> cart.addProduct(p, quantity));
+                }
+                case REMOVE -> {
+                    if (cart.containsProduct(productId)) {
+                        cart.removeProduct(productId, quantity);
+                    }
+                }
+                case CLEAR -> cart.clear();
+                default -> throw new CartException("Corrupt cart delta: unknown operation " + op);
+            }
+        }
+    }
+
+    private static void putLine(ByteBuffer target, UUID productId, int quantity) {
+        target.putLong(productId.getMostSignificantBits())
+                .putLong(productId.getLeastSignificantBits())
+                .putInt(quantity);
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.shop;
 
+import com.example.money.Money;
+
 import java.util.Objects;
 
 public class CartItem {
@@ -14,8 +16,8 @@ public class CartItem {
 
     public Product getProduct() { return product; }
     public int getQuantity() { return quantity; }
-    public void addQuantity(int amount) {if (amount <= 0) throw new IllegalArgumentException("Amount must be positive");quantity += amount;}
-    public void removeQuantity(int amount) {if (amount <= 0) throw new IllegalArgumentException("Amount must be positive");quantity = Math.max(0, quantity - amount);}
+    void addQuantity(int amount) {if (amount <= 0) throw new IllegalArgumentException("Amount must be positive");quantity += amount;}
+    void removeQuantity(int amount) {if (amount <= 0) throw new IllegalArgumentException("Amount must be positive");quantity = Math.max(0, quantity - amount);}
     public boolean isEmpty() { return quantity <= 0; }
-    public double getTotalPrice() {return product.getPrice() * quantity;}
+    public Money getTotalPrice() {return product.getPrice().times(quantity);}
 }
\ No newline at end of file
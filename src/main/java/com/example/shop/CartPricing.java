@@ -0,0 +1,19 @@
+package com.example.shop;
+
+import com.example.money.Money;
+
+import java.util.List;
+
+public record CartPricing(List<Line> lines, Money subtotal, Money total) {
+
+    public record Line(Product product, int quantity, Money gross, Money net) {
+
+        public Money discount() {
+            return gross.minus(net);
+        }
+    }
+
+    public Money discount() {
+        return subtotal.minus(total);
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.shop;
+
+import java.util.Optional;
+
+public interface CartRepository {
+    // Sparar korgen och fortsätter därefter spara varje ändring i den
+    void save(String cartId, ShoppingCart cart);
+
+    Optional<ShoppingCart> load(String cartId);
+
+    void delete(String cartId);
+}
@@ -0,0 +1,13 @@
+package com.example.shop;
+
+import com.example.money.Money;
+
+import java.util.List;
+
+// Korgens innehåll vid ett och samma tillfälle, subtotal och itemCount stämmer alltid med items
+public record CartSnapshot(List<CartItem> items, Money subtotal, int itemCount, Discount discount) {
+
+    public Money totalPrice() {
+        return discount != null ? discount.apply(subtotal) : subtotal;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.shop;
+
+import com.example.money.Money;
+
+// Vad kunden debiterades för, eller skulle ha debiterats för om betalningen nekades
+public record CheckoutResult(Status status, CartPricing pricing, Money total) {
+
+    public enum Status {
+        COMPLETED,
+        DECLINED
+    }
+
+    public boolean isCompleted() {
+        return status == Status.COMPLETED;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.shop;
+
+import com.example.money.Money;
+import com.example.payment.PaymentProcessingException;
+import com.example.payment.PaymentProcessor;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+// Kassan: korgen prissätts en gång, sedan startar debiteringen medan raderna kontrolleras mot katalogen.
+// Faller kontrollen efter en lyckad debitering återbetalar PaymentProcessor beloppet.
+// Korgen töms bara när betalningen gått igenom, annars ligger den kvar oförändrad.
+// Har korgen ett lager säljs reservationerna som en del av kontrollen, så att slutsålda varor återbetalas
+// precis som ändrade priser, och de hålls åt korgen igen om betalningen inte går igenom.
+// En korg som rabatterats ner till noll går igenom utan att betalningen anropas alls
+public class CheckoutService {
+
+    private static final Executor VIRTUAL_THREADS = task -> Thread.ofVirtual().start(task);
+
+    private final PaymentProcessor paymentProcessor;
+    private final ProductCatalog catalog;
+    private final Executor executor;
+
+    public CheckoutService(PaymentProcessor paymentProcessor, ProductCatalog catalog) {
+        this(paymentProcessor, catalog, VIRTUAL_THREADS);
+    }
+
+    public CheckoutService(PaymentProcessor paymentProcessor, ProductCatalog catalog, Executor executor) {
+        this.paymentProcessor = Objects.requireNonNull(paymentProcessor, "paymentProcessor cannot be null");
+        this.catalog = Objects.requireNonNull(catalog, "catalog cannot be null");
+        this.executor = Objects.requireNonNull(executor, "executor cannot be null");
+    }
+
+    public CheckoutResult checkout(ShoppingCart cart, String email) throws PaymentProcessingException {
+        Objects.requireNonNull(cart, "cart cannot be null");
+        if (cart.isEmpty()) {
+            throw new CartException("Cannot check out an empty cart");
+        }
+
+        // Lagret måste hållas hela vägen genom betalningen, reservationer som hunnit gå ut tas om
+        cart.renewReservations();
+
+        // Raderna i pricing är ögonblicksbilden, korgen läses inte mer förrän den töms.
+        // Korgen lägger sin rabatt på samma prissättning, så totalen blir densamma som korgen visar
+        CartPricing pricing = cart.getPricing();
+        Money total = cart.getTotalPrice(pricing);
+        if (!total.isPositive()) {
+            if (email == null || email.isBlank()) throw new IllegalArgumentException("Email cannot be null or empty");
+            CartException invalid = validate(pricing);
+            if (invalid != null) {
+                throw invalid;
+            }
+            cart.commitReservations();
+            cart.clear();
+            return new CheckoutResult(CheckoutResult.Status.COMPLETED, pricing, total);
+        }
+
+        CompletableFuture<Void> validated = new CompletableFuture<>();
+        CompletableFuture<Boolean> payment = paymentProcessor.processPaymentAsync(total, email, executor, validated);
+        CartException invalid = validate(pricing);
+        if (invalid == null) {
+            try {
+                cart.commitReservations();
+            } catch (InsufficientStockException e) {
+                invalid = e;
+            }
+        }
+        if (invalid == null) {
+            validated.complete(null);
+        } else {
+            validated.completeExceptionally(invalid);
+        }
+
+        boolean paid;
+        try {
+            paid = await(payment);
+        } catch (PaymentProcessingException | RuntimeException e) {
+            if (invalid == null) {
+                cart.reopenReservations();
+            }
+            throw e;
+        }
+        if (invalid != null) {
+            throw invalid;
+        }
+        if (!paid) {
+            cart.reopenReservations();
+            return new CheckoutResult(CheckoutResult.Status.DECLINED, pricing, total);
+        }
+        cart.clear();
+        return new CheckoutResult(CheckoutResult.Status.COMPLETED, pricing, total);
+    }
+
+    // Produkten ska finnas kvar och kosta detsamma som när den lades i korgen
+    private CartException validate(CartPricing pricing) {
+        for (CartPricing.Line line : pricing.lines()) {
+            Product product = line.product();
+            Optional<Money> current = catalog.findPrice(product.getId());
+            if (current.isEmpty()) {
+                return new CartException("Product no longer available: " + product.getId());
+            }
+            if (!current.get().equals(product.getPrice())) {
+                return new CartException("Price changed for product " + product.getId() + ": " + product.getPrice() + " -> " + current.get());
+            }
+        }
+        return null;
+    }
+
+    private static boolean await(CompletableFuture<Boolean> payment) throws PaymentProcessingException {
+        try {
+            return payment.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof PaymentProcessingException failure) {
+                throw failure;
+            }
+            if (cause instanceof RuntimeException failure) {
+                throw failure;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.shop;
+
+import com.example.money.Money;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Korg som delas mellan flera sessioner. Varje rad uppdateras atomärt via ConcurrentHashMap.compute,
+// så skrivare på olika produkter stör inte varandra och inget globalt lås finns.
+// Ögonblicksbilder läses optimistiskt: skrivare räknar upp started före och finished efter sin ändring,
+// och läsaren försöker igen om någon skrivning pågick under läsningen. Lyckas det inte på ett antal försök
+// tar läsaren ett kort exklusivt avsnitt där nya skrivare väntar, så att läsningen alltid blir klar.
+// Valutan släpps alltid den vägen, av clear och när sista raden försvinner, annars kan en samtidig
+// addProduct hinna godkänna sin valuta och lägga en rad medan valutan släpps
+public class ConcurrentShoppingCart {
+
+    private static final long MAX_BACKOFF_NANOS = 1_000_000;
+    private static final int OPTIMISTIC_ATTEMPTS = 20;
+
+    // Oföränderlig, en ändring ersätter hela raden
+    private record Line(Product product, int quantity) {
+    }
+
+    private final ConcurrentHashMap<UUID, Line> lines = new ConcurrentHashMap<>();
+    private final LongAdder subtotal = new LongAdder();
+    private final LongAdder itemCount = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+    // Låses vid första tillägget och släpps när korgen blir tom
+    private final AtomicReference<Currency> currency = new AtomicReference<>();
+    private volatile Discount discount;
+    // Hålls av den som behöver korgen för sig själv. Skrivare som ser exclusive backar och väntar på låset
+    private final ReentrantLock exclusiveLock = new ReentrantLock();
+    private volatile boolean exclusive;
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public void addProduct(Product product, int quantity) {
+        Objects.requireNonNull(product, "Product cannot be null");
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
+        Money price = product.getPrice();
+
+        boolean added = false;
+        beginWrite();
+        try {
+            Currency existing = currency.compareAndExchange(null, price.currency());
+            if (existing != null && !price.hasCurrency(existing)) {
+                throw new CartException("Cannot mix currencies in cart: " + existing + " and " + price.currency());
+            }
+            // En befintlig rad behåller sin produkt, så beloppet räknas på det pris raden redan har
+            long[] delta = new long[1];
+            lines.compute(product.getId(), (id, line) -> {
+                Product kept = line == null ? product : line.product();
+                delta[0] = Math.multiplyExact(kept.getPrice().minorUnits(), (long) quantity);
+                return new Line(kept, line == null ? quantity : Math.addExact(line.quantity(), quantity));
+            });
+            subtotal.add(delta[0]);
+            itemCount.add(quantity);
+            added = true;
+        } finally {
+            finished.increment();
+            // Valutan kan ha låsts av just det här anropet innan compute föll
+            if (!added) {
+                releaseCurrencyIfEmpty();
+            }
+        }
+    }
+
+    public void removeProduct(UUID productId, int quantity) {
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
+
+        boolean emptied = false;
+        beginWrite();
+        try {
+            int[] removed = new int[1];
+            long[] delta = new long[1];
+            lines.compute(productId, (id, line) -> {
+                if (line == null) throw new CartException("Product not found in cart: " + productId);
+                removed[0] = Math.min(quantity, line.quantity());
+                delta[0] = line.product().getPrice().minorUnits() * removed[0];
+                return removed[0] == line.quantity() ? null : new Line(line.product(), line.quantity() - removed[0]);
+            });
+            subtotal.add(-delta[0]);
+            itemCount.add(-removed[0]);
+            emptied = lines.isEmpty();
+        } finally {
+            finished.increment();
+        }
+        if (emptied) {
+            releaseCurrencyIfEmpty();
+        }
+    }
+
+    public int getQuantity(UUID productId) {
+        Line line = lines.get(productId);
+        return line != null ? line.quantity() : 0;
+    }
+
+    public boolean containsProduct(UUID productId) {
+        return lines.containsKey(productId);
+    }
+
+    public int getItemCount() {
+        return snapshot(false).itemCount();
+    }
+
+    public Money getTotalPrice() {
+        return snapshot(false).totalPrice();
+    }
+
+    public Collection<CartItem> getItems() {
+        return snapshot().items();
+    }
+
+    public CartSnapshot snapshot() {
+        return snapshot(true);
+    }
+
+    public void setDiscount(Discount discount) {
+        beginWrite();
+        try {
+            this.discount = discount;
+        } finally {
+            finished.increment();
+        }
+    }
+
+    public Discount getDiscount() {
+        return discount;
+    }
+
+    public void clear() {
+        enterExclusive();
+        try {
+            started.increment();
+            try {
+                for (Line line : lines.values()) {
+                    subtotal.add(-line.product().getPrice().minorUnits() * line.quantity());
+                    itemCount.add(-line.quantity());
+                }
+                lines.clear();
+                discount = null;
+                // Inga skrivare är igång, så ingen kan ha lagt en rad i valutan sedan raderna togs bort
+                currency.set(null);
+            } finally {
+                finished.increment();
+            }
+        } finally {
+            exitExclusive();
+        }
+    }
+
+    // Inga skrivare är igång i det exklusiva avsnittet, så är korgen tom där kan ingen rad i valutan vara på väg
+    private void releaseCurrencyIfEmpty() {
+        if (!lines.isEmpty()) {
+            return;
+        }
+        enterExclusive();
+        try {
+            if (lines.isEmpty()) {
+                currency.set(null);
+            }
+        } finally {
+            exitExclusive();
+        }
+    }
+
+    // Räknar upp started innan exclusive läses, och enterExclusive sätter exclusive innan started läses.
+    // Antingen ser skrivaren flaggan och backar, eller så ser den exklusiva tråden skrivningen och väntar ut den
+    private void beginWrite() {
+        while (true) {
+            started.increment();
+            if (!exclusive) {
+                return;
+            }
+            finished.increment();
+            exclusiveLock.lock();
+            exclusiveLock.unlock();
+        }
+    }
+
+    private void enterExclusive() {
+        exclusiveLock.lock();
+        exclusive = true;
+        // finished före started: lika betyder att alla skrivningar som hunnit börja också är klara
+        while (finished.sum() != started.sum()) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private void exitExclusive() {
+        exclusive = false;
+        exclusiveLock.unlock();
+    }
+
+    // Summorna läses före och efter started, så att en skrivning som pågick eller hann börja under
+    // läsningen upptäcks. Utan raderna räcker det att läsa aggregaten, vilket är O(1) i antalet rader
+    private CartSnapshot snapshot(boolean withItems) {
+        long backoff = 1;
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long before = started.sum();
+            if (finished.sum() == before) {
+                CartSnapshot snapshot = read(withItems);
+                if (started.sum() == before) {
+                    return snapshot;
+                }
+            }
+            if (backoff == 1) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(backoff);
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+        }
+        // Skrivarna hinner hela tiden emellan, stoppa dem en kort stund
+        enterExclusive();
+        try {
+            return read(withItems);
+        } finally {
+            exitExclusive();
+        }
+    }
+
+    private CartSnapshot read(boolean withItems) {
+        List<CartItem> items = withItems ? new ArrayList<>(lines.size()) : List.of();
+        if (withItems) {
+            for (Line line : lines.values()) {
+                items.add(new CartItem(line.product(), line.quantity()));
+            }
+        }
+        long total = subtotal.sum();
+        long count = itemCount.sum();
+        Currency cartCurrency = currency.get();
+        Money sum = Money.ofMinor(total, cartCurrency != null ? cartCurrency : Money.DEFAULT_CURRENCY);
+        return new CartSnapshot(Collections.unmodifiableList(items), sum, Math.toIntExact(count), discount);
+    }
+}
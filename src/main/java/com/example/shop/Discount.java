@@ -1,5 +1,13 @@
 package com.example.shop;
 
+import com.example.money.Money;
+
 public interface Discount {
-    double apply(double originalPrice);
+    Money apply(Money originalPrice);
+
+    // Ren = samma pris in ger alltid samma pris ut, utan sidoeffekter. Bara då får resultatet cachas.
+    // Regler som läser klockan, lager eller annat tillstånd ska lämna standardvärdet
+    default boolean isPure() {
+        return false;
+    }
 }
@@ -0,0 +1,155 @@
+package com.example.shop;
+
+import com.example.money.Money;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+// Regeluppsättningen kompileras en gång till en plan per produkt-id som har egna regler och en
+// rabattlista per kategori, så att prissättningen kostar O(rader) i stället för O(rader × regler).
+// Kategorin slås upp på varje rad, en produkt som byter kategori får den nya kategorins rabatter.
+//
+// Per rad staplas reglerna i den här ordningen, var och en på resultatet av den förra:
+// gratisenheter från köp X få Y, högsta uppnådda mängdtrappa, produktrabatter, kategorirabatter
+public final class DiscountPlan {
+
+    private static final Discount[] NO_DISCOUNTS = new Discount[0];
+
+    public static final DiscountPlan NONE = compile(List.of());
+
+    private record LinePlan(int buy, int free, int[] tierMinimums, Discount[] tierDiscounts, Discount[] discounts) {
+
+        static final LinePlan EMPTY = new LinePlan(0, 0, new int[0], NO_DISCOUNTS, NO_DISCOUNTS);
+
+        boolean isEmpty() {
+            return free == 0 && tierMinimums.length == 0 && discounts.length == 0;
+        }
+    }
+
+    private static final class ProductRules {
+        private DiscountRule.BuyXGetY buyXGetY;
+        private final List<DiscountRule.QuantityTier> tiers = new ArrayList<>();
+        private final List<Discount> discounts = new ArrayList<>();
+
+        LinePlan toPlan() {
+            int buy = buyXGetY != null ? buyXGetY.buy() : 0;
+            int free = buyXGetY != null ? buyXGetY.free() : 0;
+            List<DiscountRule.QuantityTier> sorted = new ArrayList<>(tiers);
+            sorted.sort((a, b) -> Integer.compare(b.minQuantity(), a.minQuantity()));
+            int[] tierMinimums = new int[sorted.size()];
+            Discount[] tierDiscounts = new Discount[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                tierMinimums[i] = sorted.get(i).minQuantity();
+                tierDiscounts[i] = sorted.get(i).discount();
+            }
+            return new LinePlan(buy, free, tierMinimums, tierDiscounts, discounts.toArray(Discount[]::new));
+        }
+    }
+
+    // Båda kartorna är fyllda vid kompileringen och ändras aldrig, storleken följer antalet regler
+    private final Map<UUID, LinePlan> productPlans;
+    private final Map<String, Discount[]> categoryDiscounts;
+    private final boolean pure;
+
+    private DiscountPlan(Map<UUID, LinePlan> productPlans, Map<String, Discount[]> categoryDiscounts, boolean pure) {
+        this.productPlans = productPlans;
+        this.categoryDiscounts = categoryDiscounts;
+        this.pure = pure;
+    }
+
+    public static DiscountPlan compile(List<? extends DiscountRule> rules) {
+        Objects.requireNonNull(rules, "rules cannot be null");
+        Map<UUID, ProductRules> productRules = new HashMap<>();
+        Map<String, List<Discount>> categoryDiscounts = new HashMap<>();
+        for (DiscountRule rule : rules) {
+            switch (rule) {
+                case DiscountRule.ForProduct forProduct ->
+                        productRules.computeIfAbsent(forProduct.productId(), id -> new ProductRules()).discounts.add(forProduct.discount());
+                case DiscountRule.ForCategory forCategory ->
+                        categoryDiscounts.computeIfAbsent(forCategory.category(), category -> new ArrayList<>()).add(forCategory.discount());
+                case DiscountRule.BuyXGetY buyXGetY -> {
+                    ProductRules target = productRules.computeIfAbsent(buyXGetY.productId(), id -> new ProductRules());
+                    if (target.buyXGetY != null) {
+                        throw new IllegalArgumentException("Only one buy-X-get-Y rule per product: " + buyXGetY.productId());
+                    }
+                    target.buyXGetY = buyXGetY;
+                }
+                case DiscountRule.QuantityTier tier ->
+                        productRules.computeIfAbsent(tier.productId(), id -> new ProductRules()).tiers.add(tier);
+            }
+        }
+        Map<UUID, LinePlan> productPlans = new HashMap<>();
+        productRules.forEach((id, forProduct) -> productPlans.put(id, forProduct.toPlan()));
+        Map<String, Discount[]> forCategories = new HashMap<>();
+        categoryDiscounts.forEach((category, discounts) -> forCategories.put(category, discounts.toArray(Discount[]::new)));
+        return new DiscountPlan(Map.copyOf(productPlans), Map.copyOf(forCategories), rules.stream().allMatch(DiscountPlan::isPure));
+    }
+
+    private static boolean isPure(DiscountRule rule) {
+        return switch (rule) {
+            case DiscountRule.ForProduct forProduct -> forProduct.discount().isPure();
+            case DiscountRule.ForCategory forCategory -> forCategory.discount().isPure();
+            case DiscountRule.QuantityTier tier -> tier.discount().isPure();
+            case DiscountRule.BuyXGetY buyXGetY -> true;
+        };
+    }
+
+    // Sant när varje rabatt i planen är ren, då beror priset bara på produkterna och antalen
+    public boolean isPure() {
+        return pure;
+    }
+
+    public CartPricing price(Collection<CartItem> items) {
+        List<CartPricing.Line> lines = new ArrayList<>(items.size());
+        Currency currency = null;
+        long subtotal = 0;
+        long total = 0;
+        for (CartItem item : items) {
+            CartPricing.Line line = price(item.getProduct(), item.getQuantity());
+            lines.add(line);
+            subtotal = Math.addExact(subtotal, line.gross().minorUnits());
+            total = Math.addExact(total, line.net().minorUnits());
+            currency = line.gross().currency();
+        }
+        if (currency == null) {
+            currency = Money.DEFAULT_CURRENCY;
+        }
+        return new CartPricing(List.copyOf(lines), Money.ofMinor(subtotal, currency), Money.ofMinor(total, currency));
+    }
+
+    public CartPricing.Line price(Product product, int quantity) {
+        Money gross = product.getPrice().times(quantity);
+        LinePlan plan = productPlans.getOrDefault(product.getId(), LinePlan.EMPTY);
+        String category = product.getCategory();
+        Discount[] forCategory = category != null ? categoryDiscounts.getOrDefault(category, NO_DISCOUNTS) : NO_DISCOUNTS;
+        if (plan.isEmpty() && forCategory.length == 0) {
+            return new CartPricing.Line(product, quantity, gross, gross);
+        }
+
+        int charged = quantity;
+        if (plan.free() > 0) {
+            charged -= quantity / (plan.buy() + plan.free()) * plan.free();
+        }
+        Money net = product.getPrice().times(charged);
+        // Trappstegen ligger sorterade med högsta gränsen först
+        for (int i = 0; i < plan.tierMinimums().length; i++) {
+            if (quantity >= plan.tierMinimums()[i]) {
+                net = plan.tierDiscounts()[i].apply(net);
+                break;
+            }
+        }
+        for (Discount discount : plan.discounts()) {
+            net = discount.apply(net);
+        }
+        for (Discount discount : forCategory) {
+            net = discount.apply(net);
+        }
+        return new CartPricing.Line(product, quantity, gross, net);
+    }
+}
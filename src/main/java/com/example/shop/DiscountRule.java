@@ -0,0 +1,40 @@
+package com.example.shop;
+
+import java.util.Objects;
+import java.util.UUID;
+
+// Reglerna kompileras till en DiscountPlan, de utvärderas aldrig direkt
+public sealed interface DiscountRule {
+
+    record ForProduct(UUID productId, Discount discount) implements DiscountRule {
+        public ForProduct {
+            Objects.requireNonNull(productId, "productId cannot be null");
+            Objects.requireNonNull(discount, "discount cannot be null");
+        }
+    }
+
+    record ForCategory(String category, Discount discount) implements DiscountRule {
+        public ForCategory {
+            Objects.requireNonNull(category, "category cannot be null");
+            Objects.requireNonNull(discount, "discount cannot be null");
+        }
+    }
+
+    // Köp buy, få free gratis, för varje hel grupp om buy + free
+    record BuyXGetY(UUID productId, int buy, int free) implements DiscountRule {
+        public BuyXGetY {
+            Objects.requireNonNull(productId, "productId cannot be null");
+            if (buy <= 0) throw new IllegalArgumentException("buy must be positive");
+            if (free <= 0) throw new IllegalArgumentException("free must be positive");
+        }
+    }
+
+    // Gäller från minQuantity, bland flera trappsteg vinner det högsta som nåtts
+    record QuantityTier(UUID productId, int minQuantity, Discount discount) implements DiscountRule {
+        public QuantityTier {
+            Objects.requireNonNull(productId, "productId cannot be null");
+            if (minQuantity <= 0) throw new IllegalArgumentException("minQuantity must be positive");
+            Objects.requireNonNull(discount, "discount cannot be null");
+        }
+    }
+}
@@ -1,14 +1,32 @@
 package com.example.shop;
 
+import com.example.money.Money;
+
+import java.util.Objects;
+
 public class FixedDiscount implements Discount {
-    private final double amount;
+    private final Money amount;
 
-    public FixedDiscount(double amount) {if (amount < 0) {throw new IllegalArgumentException("Discount amount cannot be negative");}
+    public FixedDiscount(Money amount) {
+        Objects.requireNonNull(amount, "Discount amount cannot be null");
+        if (amount.isNegative()) {throw new IllegalArgumentException("Discount amount cannot be negative");}
         this.amount = amount;
     }
 
+    public FixedDiscount(double amount) {
+        this(Money.of(amount));
+    }
+
+    @Override
+    public Money apply(Money originalPrice) {
+        if (!originalPrice.hasCurrency(amount.currency())) {
+            throw new IllegalArgumentException("Discount currency " + amount.currency() + " does not match " + originalPrice.currency());
+        }
+        return Money.ofMinor(Math.max(0, originalPrice.minorUnits() - amount.minorUnits()), originalPrice.currency());
+    }
+
     @Override
-    public double apply(double originalPrice) {
-        return Math.max(0, originalPrice - amount);
+    public boolean isPure() {
+        return true;
     }
 }
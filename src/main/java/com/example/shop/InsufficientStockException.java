@@ -0,0 +1,22 @@
+package com.example.shop;
+
+import java.util.UUID;
+
+public class InsufficientStockException extends CartException {
+    private final UUID productId;
+    private final int requested;
+
+    public InsufficientStockException(UUID productId, int requested) {
+        super("Insufficient stock for product " + productId + ": requested " + requested);
+        this.productId = productId;
+        this.requested = requested;
+    }
+
+    public UUID getProductId() {
+        return productId;
+    }
+
+    public int getRequested() {
+        return requested;
+    }
+}
@@ -0,0 +1,349 @@
+package com.example.shop;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Lagersaldo per produkt-id med tidsbegränsade reservationer.
+// Saldot är en räknare som ändras med CAS. Vid trängsel delas den upp i celler på var sin cache-rad,
+// som i LongAdder, och varje tråd tar i första hand ur sin egen cell. Räcker ingen enskild cell
+// samlas antalet ihop under ett lås per produkt, så det säljs aldrig mer än som finns.
+// Reservationer som inte förnyas går ut av sig själva: de sorteras i tidsfack och passerade fack
+// töms av det anrop som först märker att klockan gått förbi dem, det behövs ingen bakgrundstråd
+public class Inventory {
+
+    private static final int PADDING = 8;
+    private static final int EXPIRY_BUCKETS_PER_HOLD = 8;
+
+    private final long holdNanos;
+    private final long bucketNanos;
+    private final int stripes;
+    private final LongSupplier nanoClock;
+    private final Map<UUID, Stock> stock = new ConcurrentHashMap<>();
+    private final Map<Long, Queue<Reservation>> expiries = new ConcurrentHashMap<>();
+    private final AtomicLong sweptBucket;
+
+    private final class Stock {
+        private final AtomicLong base = new AtomicLong();
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile AtomicLongArray cells;
+
+        boolean take(int quantity) {
+            AtomicLongArray striped = cells;
+            if (striped == null) {
+                long available = base.get();
+                if (available < quantity) {
+                    return gather(quantity);
+                }
+                if (base.compareAndSet(available, available - quantity)) {
+                    return true;
+                }
+                // Någon annan hann före, dela upp räknaren
+                striped = inflate();
+            }
+            int home = home();
+            for (int i = 0; i < stripes; i++) {
+                if (tryTake(striped, ((home + i) & (stripes - 1)) * PADDING, quantity)) {
+                    return true;
+                }
+            }
+            return tryTake(base, quantity) || gather(quantity);
+        }
+
+        void give(long quantity) {
+            AtomicLongArray striped = cells;
+            if (striped == null) {
+                base.addAndGet(quantity);
+            } else {
+                striped.getAndAdd(home() * PADDING, quantity);
+            }
+        }
+
+        void add(long quantity) {
+            AtomicLongArray striped = cells;
+            if (striped == null) {
+                base.addAndGet(quantity);
+                return;
+            }
+            // Sprid ny leverans över alla celler så att trådarna hittar varor i sin egen
+            long share = quantity / stripes;
+            for (int i = 0; i < stripes; i++) {
+                striped.getAndAdd(i * PADDING, i == 0 ? share + quantity % stripes : share);
+            }
+        }
+
+        long available() {
+            long sum = base.get();
+            AtomicLongArray striped = cells;
+            if (striped != null) {
+                for (int i = 0; i < stripes; i++) {
+                    sum += striped.get(i * PADDING);
+                }
+            }
+            return sum;
+        }
+
+        private AtomicLongArray inflate() {
+            lock.lock();
+            try {
+                if (cells == null) {
+                    cells = new AtomicLongArray(stripes * PADDING);
+                    add(base.getAndSet(0));
+                }
+                return cells;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Plockar ihop antalet från alla celler. Räcker det inte läggs det tillbaka
+        private boolean gather(int quantity) {
+            lock.lock();
+            try {
+                long taken = takeUpTo(base, quantity);
+                AtomicLongArray striped = cells;
+                for (int i = 0; striped != null && i < stripes && taken < quantity; i++) {
+                    taken += takeUpTo(striped, i * PADDING, quantity - taken);
+                }
+                if (taken == quantity) {
+                    return true;
+                }
+                if (taken > 0) {
+                    give(taken);
+                }
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public Inventory(Duration holdTime) {
+        this(holdTime, Runtime.getRuntime().availableProcessors(), System::nanoTime);
+    }
+
+    public Inventory(Duration holdTime, int stripes, LongSupplier nanoClock) {
+        Objects.requireNonNull(holdTime, "holdTime cannot be null");
+        if (holdTime.isNegative() || holdTime.isZero()) throw new IllegalArgumentException("holdTime must be positive");
+        if (stripes <= 0) throw new IllegalArgumentException("stripes must be positive");
+        this.holdNanos = holdTime.toNanos();
+        this.bucketNanos = Math.max(1, holdNanos / EXPIRY_BUCKETS_PER_HOLD);
+        // Avrundas nedåt till en tvåpotens så att cellen kan väljas med en mask
+        this.stripes = Integer.highestOneBit(stripes);
+        this.nanoClock = Objects.requireNonNull(nanoClock, "nanoClock cannot be null");
+        this.sweptBucket = new AtomicLong(Math.floorDiv(nanoClock.getAsLong(), bucketNanos));
+    }
+
+    public void addStock(UUID productId, long quantity) {
+        Objects.requireNonNull(productId, "productId cannot be null");
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
+        stock.computeIfAbsent(productId, id -> new Stock()).add(quantity);
+    }
+
+    // Lediga enheter, reserverade räknas inte
+    public long getAvailable(UUID productId) {
+        expireDue();
+        Stock product = stock.get(productId);
+        return product != null ? product.available() : 0;
+    }
+
+    public Reservation reserve(UUID productId, int quantity) {
+        Objects.requireNonNull(productId, "productId cannot be null");
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
+        long now = expireDue();
+        Stock product = stock.get(productId);
+        if (product == null || !product.take(quantity)) {
+            throw new InsufficientStockException(productId, quantity);
+        }
+        Reservation reservation = new Reservation(productId, quantity, now + holdNanos);
+        schedule(reservation, now + holdNanos);
+        return reservation;
+    }
+
+    // Reserverar fler enheter i samma reservation och förnyar tiden.
+    // false om reservationen inte längre är aktiv, då har ingenting tagits
+    public boolean extend(Reservation reservation, int quantity) {
+        Objects.requireNonNull(reservation, "reservation cannot be null");
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
+        long now = expireDue();
+        synchronized (reservation) {
+            if (reservation.state() != Reservation.State.ACTIVE) {
+                return false;
+            }
+            if (!stock.get(reservation.getProductId()).take(quantity)) {
+                throw new InsufficientStockException(reservation.getProductId(), quantity);
+            }
+            reservation.update(Math.addExact(reservation.quantity(), quantity), now + holdNanos);
+        }
+        schedule(reservation, now + holdNanos);
+        return true;
+    }
+
+    // Skjuter upp utgången, false om reservationen redan har gått ut eller avslutats
+    public boolean renew(Reservation reservation) {
+        Objects.requireNonNull(reservation, "reservation cannot be null");
+        long now = expireDue();
+        synchronized (reservation) {
+            if (reservation.state() != Reservation.State.ACTIVE) {
+                return false;
+            }
+            reservation.update(reservation.quantity(), now + holdNanos);
+        }
+        schedule(reservation, now + holdNanos);
+        return true;
+    }
+
+    // Lämnar tillbaka upp till quantity enheter, hela reservationen avslutas när den når noll
+    public void release(Reservation reservation, int quantity) {
+        Objects.requireNonNull(reservation, "reservation cannot be null");
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
+        synchronized (reservation) {
+            if (reservation.state() != Reservation.State.ACTIVE) {
+                return;
+            }
+            int released = Math.min(quantity, reservation.quantity());
+            reservation.update(reservation.quantity() - released, reservation.expiresAt());
+            if (reservation.quantity() == 0) {
+                reservation.end(Reservation.State.RELEASED);
+            }
+            stock.get(reservation.getProductId()).give(released);
+        }
+    }
+
+    // Enheterna är sålda. En reservation som hunnit gå ut har lämnat tillbaka sina enheter, de tas då
+    // ur lagret igen. Finns de inte kvar kastas InsufficientStockException och reservationen är orörd
+    public void commit(Reservation reservation) {
+        Objects.requireNonNull(reservation, "reservation cannot be null");
+        synchronized (reservation) {
+            Reservation.State state = reservation.state();
+            if (state == Reservation.State.EXPIRED) {
+                if (!stock.get(reservation.getProductId()).take(reservation.quantity())) {
+                    throw new InsufficientStockException(reservation.getProductId(), reservation.quantity());
+                }
+            } else if (state != Reservation.State.ACTIVE) {
+                throw new IllegalStateException("Cannot commit a " + state + " reservation");
+            }
+            reservation.end(Reservation.State.COMMITTED);
+        }
+    }
+
+    // Ångrar commit när köpet inte blev av. Enheterna har aldrig lämnats tillbaka,
+    // så de hålls åt korgen igen med en ny hålltid
+    public void reopen(Reservation reservation) {
+        Objects.requireNonNull(reservation, "reservation cannot be null");
+        long now = expireDue();
+        synchronized (reservation) {
+            if (reservation.state() != Reservation.State.COMMITTED) {
+                throw new IllegalStateException("Cannot reopen a " + reservation.state() + " reservation");
+            }
+            reservation.update(reservation.quantity(), now + holdNanos);
+            reservation.end(Reservation.State.ACTIVE);
+        }
+        schedule(reservation, now + holdNanos);
+    }
+
+    // Går normalt av sig själv vid reserve, extend, renew och getAvailable. Returnerar antal utgångna
+    public int expireReservations() {
+        return sweep(nanoClock.getAsLong());
+    }
+
+    private long expireDue() {
+        long now = nanoClock.getAsLong();
+        long current = Math.floorDiv(now, bucketNanos);
+        long swept = sweptBucket.get();
+        // En tråd tömmer per fack, de andra går vidare direkt
+        if (current > swept && sweptBucket.compareAndSet(swept, current)) {
+            sweep(now);
+        }
+        return now;
+    }
+
+    // Tömmer fack som ligger helt bakåt i tiden, så en reservation går ut högst ett fack för sent
+    private int sweep(long now) {
+        long current = Math.floorDiv(now, bucketNanos);
+        int expired = 0;
+        for (Long bucket : expiries.keySet()) {
+            if (bucket >= current) {
+                continue;
+            }
+            Queue<Reservation> due = expiries.remove(bucket);
+            if (due != null) {
+                for (Reservation reservation : due) {
+                    expired += expire(reservation, now) ? 1 : 0;
+                }
+            }
+        }
+        return expired;
+    }
+
+    private boolean expire(Reservation reservation, long now) {
+        synchronized (reservation) {
+            // En förnyad reservation ligger även i ett senare fack, den här posten är gammal
+            if (reservation.state() != Reservation.State.ACTIVE || reservation.expiresAt() > now) {
+                return false;
+            }
+            reservation.end(Reservation.State.EXPIRED);
+            stock.get(reservation.getProductId()).give(reservation.quantity());
+            return true;
+        }
+    }
+
+    private void schedule(Reservation reservation, long expiresAt) {
+        expiries.computeIfAbsent(Math.floorDiv(expiresAt, bucketNanos), bucket -> new ConcurrentLinkedQueue<>()).add(reservation);
+    }
+
+    private int home() {
+        long id = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & (stripes - 1);
+    }
+
+    private static boolean tryTake(AtomicLong counter, int quantity) {
+        long available;
+        while ((available = counter.get()) >= quantity) {
+            if (counter.compareAndSet(available, available - quantity)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean tryTake(AtomicLongArray cells, int cell, int quantity) {
+        long available;
+        while ((available = cells.get(cell)) >= quantity) {
+            if (cells.compareAndSet(cell, available, available - quantity)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long takeUpTo(AtomicLong counter, long quantity) {
+        long available;
+        while ((available = counter.get()) > 0) {
+            long taken = Math.min(available, quantity);
+            if (counter.compareAndSet(available, available - taken)) {
+                return taken;
+            }
+        }
+        return 0;
+    }
+
+    private static long takeUpTo(AtomicLongArray cells, int cell, long quantity) {
+        long available;
+        while ((available = cells.get(cell)) > 0) {
+            long taken = Math.min(available, quantity);
+            if (cells.compareAndSet(cell, available, available - taken)) {
+                return taken;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.shop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// En minnesmappad fil per korg: [magic][version][slut] följt av en ögonblicksbild och därefter deltan.
+// Varje addProduct/removeProduct/clear lägger till ett delta och flyttar fram slutet, så en ändring
+// kostar några skrivningar i minnet och en force av deltans sida. Operativsystemet skriver inte sidorna
+// i någon bestämd ordning, så deltan tvingas ut innan slutet flyttas, en halv delta läses aldrig.
+// När filen är full skrivs en ny ögonblicksbild till en temporär fil som sedan byter plats atomärt
+public class MappedFileCartRepository implements CartRepository, AutoCloseable {
+
+    private static final String SUFFIX = ".cart";
+    private static final int MAGIC = 0x43415254;
+    private static final int VERSION = 1;
+    private static final int END_OFFSET = Integer.BYTES * 2;
+    private static final int HEADER_BYTES = Integer.BYTES * 3;
+    private static final int MIN_FILE_BYTES = 4096;
+    private static final Pattern CART_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final Path directory;
+    private final ProductCatalog catalog;
+    private final Map<String, CartFile> open = new ConcurrentHashMap<>();
+
+    private final class CartFile implements CartChangeListener {
+        private final String cartId;
+        private final ShoppingCart cart;
+        private MappedByteBuffer buffer;
+        private int end;
+
+        private CartFile(String cartId, ShoppingCart cart, MappedByteBuffer buffer, int end) {
+            this.cartId = cartId;
+            this.cart = cart;
+            this.buffer = buffer;
+            this.end = end;
+        }
+
+        @Override
+        public synchronized void productAdded(Product product, int quantity) {
+            if (reserve(1)) {
+                CartCodec.writeAdded(buffer.position(end), product.getId(), quantity);
+                commit(1);
+            }
+        }
+
+        @Override
+        public synchronized void productRemoved(UUID productId, int quantity) {
+            if (reserve(1)) {
+                CartCodec.writeRemoved(buffer.position(end), productId, quantity);
+                commit(1);
+            }
+        }
+
+        @Override
+        public synchronized void cleared() {
+            if (reserve(1)) {
+                CartCodec.writeCleared(buffer.position(end));
+                commit(1);
+            }
+        }
+
+        @Override
+        public synchronized void productsAdded(Map<Product, Integer> products) {
+            if (reserve(products.size())) {
+                buffer.position(end);
+                products.forEach((product, quantity) -> CartCodec.writeAdded(buffer, product.getId(), quantity));
+                commit(products.size());
+            }
+        }
+
+        @Override
+        public synchronized void productsRemoved(Map<UUID, Integer> products) {
+            if (reserve(products.size())) {
+                buffer.position(end);
+                products.forEach((productId, quantity) -> CartCodec.writeRemoved(buffer, productId, quantity));
+                commit(products.size());
+            }
+        }
+
+        // false när filen skrevs om, då finns ändringen redan i den nya ögonblicksbilden. En batch får
+        // plats helt eller inte alls: korgen har redan hela batchen, så en ny ögonblicksbild täcker alla rader
+        private boolean reserve(int deltas) {
+            if (end + (long) deltas * CartCodec.DELTA_BYTES <= buffer.capacity()) {
+                return true;
+            }
+            try {
+                buffer = writeFile(cartId, cart);
+                end = buffer.getInt(END_OFFSET);
+            } catch (IOException e) {
+                throw new CartException("Failed to persist cart: " + cartId, e);
+            }
+            return false;
+        }
+
+        // Slutet kan nå disken när som helst efter att det skrivits, deltan måste ligga där före det
+        private void commit(int deltas) {
+            buffer.force(end, deltas * CartCodec.DELTA_BYTES);
+            end += deltas * CartCodec.DELTA_BYTES;
+            buffer.putInt(END_OFFSET, end);
+        }
+    }
+
+    public MappedFileCartRepository(Path directory, ProductCatalog catalog) {
+        this.directory = Objects.requireNonNull(directory, "directory cannot be null");
+        this.catalog = Objects.requireNonNull(catalog, "catalog cannot be null");
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new CartException("Failed to create cart directory: " + directory, e);
+        }
+    }
+
+    @Override
+    public void save(String cartId, ShoppingCart cart) {
+        validate(cartId);
+        Objects.requireNonNull(cart, "cart cannot be null");
+        MappedByteBuffer buffer;
+        try {
+            buffer = writeFile(cartId, cart);
+        } catch (IOException e) {
+            throw new CartException("Failed to persist cart: " + cartId, e);
+        }
+        track(new CartFile(cartId, cart, buffer, buffer.getInt(END_OFFSET)));
+    }
+
+    @Override
+    public Optional<ShoppingCart> load(String cartId) {
+        validate(cartId);
+        CartFile tracked = open.get(cartId);
+        if (tracked != null) {
+            return Optional.of(tracked.cart);
+        }
+        Path path = path(cartId);
+        if (!Files.exists(path)) {
+            return Optional.empty();
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        } catch (IOException e) {
+            throw new CartException("Failed to read cart: " + cartId, e);
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new CartException("Not a cart file: " + path);
+        }
+        int end = buffer.getInt(END_OFFSET);
+        if (end < HEADER_BYTES + Integer.BYTES || end > buffer.capacity()) {
+            throw new CartException("Corrupt cart file: " + path);
+        }
+
+        ByteBuffer content = buffer.slice(HEADER_BYTES, end - HEADER_BYTES);
+        ShoppingCart cart = CartCodec.readSnapshot(content, catalog);
+        CartCodec.applyDeltas(content, cart, catalog);
+        track(new CartFile(cartId, cart, buffer, end));
+        return Optional.of(cart);
+    }
+
+    @Override
+    public void delete(String cartId) {
+        validate(cartId);
+        CartFile tracked = open.remove(cartId);
+        if (tracked != null) {
+            tracked.cart.setChangeListener(null);
+        }
+        try {
+            Files.deleteIfExists(path(cartId));
+        } catch (IOException e) {
+            throw new CartException("Failed to delete cart: " + cartId, e);
+        }
+    }
+
+    // Kopplar bort korgarna och skriver ut det senaste slutet
+    @Override
+    public void close() {
+        for (CartFile file : open.values()) {
+            synchronized (file) {
+                file.cart.setChangeListener(null);
+                file.buffer.force();
+            }
+        }
+        open.clear();
+    }
+
+    private void track(CartFile file) {
+        CartFile previous = open.put(file.cartId, file);
+        if (previous != null && previous.cart != file.cart) {
+            previous.cart.setChangeListener(null);
+        }
+        file.cart.setChangeListener(file);
+    }
+
+    // Ögonblicksbilden skrivs direkt i en mappning av en temporär fil, med plats för lika många deltan till
+    private MappedByteBuffer writeFile(String cartId, ShoppingCart cart) throws IOException {
+        int content = HEADER_BYTES + CartCodec.snapshotSize(cart);
+        int size = Math.max(MIN_FILE_BYTES, Math.multiplyExact(content, 2));
+        Path path = path(cartId);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(0);
+        CartCodec.writeSnapshot(cart, buffer);
+        buffer.putInt(END_OFFSET, buffer.position());
+        buffer.force();
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return buffer;
+    }
+
+    private Path path(String cartId) {
+        return directory.resolve(cartId + SUFFIX);
+    }
+
+    private static void validate(String cartId) {
+        if (cartId == null || !CART_ID.matcher(cartId).matches()) {
+            throw new IllegalArgumentException("Invalid cart id: " + cartId);
+        }
+    }
+}
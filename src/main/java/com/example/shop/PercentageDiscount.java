@@ -1,15 +1,26 @@
 package com.example.shop;
 
+import com.example.money.Money;
+
 public class PercentageDiscount implements Discount {
-    private final double percentage;
+    private static final long BASIS_POINTS = 10_000;
+
+    private final long basisPoints;
 
     public PercentageDiscount(double percentage) {
         if (percentage < 0 || percentage > 100) {throw new IllegalArgumentException("Percentage must be between 0 and 100");}
-        this.percentage = percentage;
+        this.basisPoints = Math.round(percentage * 100);
+    }
+
+    @Override
+    public Money apply(Money originalPrice) {
+        // Avrundar halva öre uppåt, helt i heltal
+        long scaled = Math.multiplyExact(originalPrice.minorUnits(), BASIS_POINTS - basisPoints);
+        return Money.ofMinor(Math.floorDiv(scaled + BASIS_POINTS / 2, BASIS_POINTS), originalPrice.currency());
     }
 
     @Override
-    public double apply(double originalPrice) {
-        return originalPrice * (1 - percentage / 100);
+    public boolean isPure() {
+        return true;
     }
 }
@@ -1,26 +1,39 @@
 package com.example.shop;
 
+import com.example.money.Money;
+
 import java.util.Objects;
 import java.util.UUID;
 
 public class Product {
     private final UUID id;
     private final String name;
-    private final double price;
+    private final Money price;
+    private final String category;
+
+    public Product(UUID id, String name, Money price) {
+        this(id, name, price, null);
+    }
 
-    public Product(UUID id, String name, double price) {
+    // category är valfri och används bara av kategorirabatter
+    public Product(UUID id, String name, Money price, String category) {
         this.id = Objects.requireNonNull(id, "id cannot be null");
         this.name = Objects.requireNonNull(name, "name cannot be null");
         if (name.trim().isEmpty()) {throw new IllegalArgumentException("name cannot be empty or blank");}
-        if (price < 0) {throw new IllegalArgumentException("price cannot be negative: " + price);}
+        Objects.requireNonNull(price, "price cannot be null");
+        if (price.isNegative()) {throw new IllegalArgumentException("price cannot be negative: " + price);}
         this.price = price;
+        this.category = category;
     }
 
+    public Product(UUID id, String name, double price) {this(id, name, Money.of(price));}
+    public Product(String name, Money price) {this(UUID.randomUUID(), name, price);}
     public Product(String name, double price) {this(UUID.randomUUID(), name, price);}
 
     public UUID getId() {return id;}
     public String getName() {return name;}
-    public double getPrice() {return price;}
+    public Money getPrice() {return price;}
+    public String getCategory() {return category;}
 
     @Override
     public boolean equals(Object o) {
@@ -31,7 +44,8 @@ public class Product {
     }
 
     @Override
-    public int hashCode() {return Objects.hash(id);}
+    // Samma värde som Objects.hash(id), men utan varargs-array
+    public int hashCode() {return 31 + id.hashCode();}
 
     @Override
     public String toString() {
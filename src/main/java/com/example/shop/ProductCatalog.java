@@ -0,0 +1,350 @@
+package com.example.shop;
+
+import com.example.money.Money;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongUnaryOperator;
+
+// Produkterna lagras kolumnvis i primitiva arrayer, så miljontals artiklar blir ett fåtal stora objekt
+// i stället för miljontals små. Id:t ligger som två long, priset som ören, namnen som UTF-8 i en
+// gemensam byte-array. Indexet är öppen adressering med linjär sondering och pekar på radnummer + 1.
+// Product-objekt skapas först vid uppslag och är ögonblicksbilder, en senare prisändring syns inte i dem
+public class ProductCatalog {
+
+    private static final int INITIAL_ROWS = 16;
+    private static final int NO_CATEGORY = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] idHigh = new long[INITIAL_ROWS];
+    private long[] idLow = new long[INITIAL_ROWS];
+    private long[] prices = new long[INITIAL_ROWS];
+    private short[] currencies = new short[INITIAL_ROWS];
+    private int[] categories = new int[INITIAL_ROWS];
+    private int[] nameOffsets = new int[INITIAL_ROWS];
+    private int[] nameLengths = new int[INITIAL_ROWS];
+    private byte[] names = new byte[INITIAL_ROWS * 16];
+    private int namesUsed;
+    private int namesWasted;
+    private int size;
+
+    // Minst dubbelt så stort som antalet rader, 0 betyder tom plats
+    private int[] index = new int[INITIAL_ROWS * 2];
+
+    // Få valutor och kategorier, de lagras en gång och refereras med nummer
+    private final List<Currency> currencyTable = new ArrayList<>();
+    private final List<String> categoryTable = new ArrayList<>();
+    private final Map<String, Integer> categoryIds = new HashMap<>();
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(UUID id) {
+        lock.readLock().lock();
+        try {
+            return row(id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Optional<Product> find(UUID id) {
+        Objects.requireNonNull(id, "id cannot be null");
+        lock.readLock().lock();
+        try {
+            int row = row(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            return row < 0 ? Optional.empty() : Optional.of(view(row, id));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Läser bara priskolumnen, ingen Product skapas
+    public Optional<Money> findPrice(UUID id) {
+        Objects.requireNonNull(id, "id cannot be null");
+        lock.readLock().lock();
+        try {
+            int row = row(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            return row < 0 ? Optional.empty() : Optional.of(Money.ofMinor(prices[row], currencyTable.get(currencies[row])));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(Product product) {
+        Objects.requireNonNull(product, "Product cannot be null");
+        lock.writeLock().lock();
+        try {
+            store(product);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void putAll(Collection<Product> products) {
+        Objects.requireNonNull(products, "products cannot be null");
+        lock.writeLock().lock();
+        try {
+            for (Product product : products) {
+                store(Objects.requireNonNull(product, "Product cannot be null"));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(UUID id) {
+        Objects.requireNonNull(id, "id cannot be null");
+        lock.writeLock().lock();
+        try {
+            int slot = slot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (index[slot] == 0) {
+                return false;
+            }
+            int row = index[slot] - 1;
+            deleteSlot(slot);
+            namesWasted += nameLengths[row];
+
+            // Sista raden flyttas in i hålet så att kolumnerna förblir täta
+            int last = --size;
+            if (row != last) {
+                index[slot(idHigh[last], idLow[last])] = row + 1;
+                idHigh[row] = idHigh[last];
+                idLow[row] = idLow[last];
+                prices[row] = prices[last];
+                currencies[row] = currencies[last];
+                categories[row] = categories[last];
+                nameOffsets[row] = nameOffsets[last];
+                nameLengths[row] = nameLengths[last];
+            }
+            compactNamesIfWasteful();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Alla priser valideras innan något skrivs, så ett fel lämnar katalogen orörd
+    public void updatePrices(Map<UUID, Money> newPrices) {
+        Objects.requireNonNull(newPrices, "prices cannot be null");
+        lock.writeLock().lock();
+        try {
+            int[] rows = new int[newPrices.size()];
+            long[] values = new long[newPrices.size()];
+            int i = 0;
+            for (Map.Entry<UUID, Money> entry : newPrices.entrySet()) {
+                UUID id = entry.getKey();
+                Money price = Objects.requireNonNull(entry.getValue(), "price cannot be null");
+                int row = row(id.getMostSignificantBits(), id.getLeastSignificantBits());
+                if (row < 0) {
+                    throw new IllegalArgumentException("Product not in catalog: " + id);
+                }
+                Currency currency = currencyTable.get(currencies[row]);
+                if (!price.hasCurrency(currency)) {
+                    throw new IllegalArgumentException("Price currency " + price.currency() + " does not match " + currency + " for product " + id);
+                }
+                if (price.isNegative()) {
+                    throw new IllegalArgumentException("price cannot be negative: " + price);
+                }
+                rows[i] = row;
+                values[i] = price.minorUnits();
+                i++;
+            }
+            for (int j = 0; j < rows.length; j++) {
+                prices[rows[j]] = values[j];
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Räknar om varje pris i ören, t.ex. en generell prishöjning, direkt i priskolumnen
+    public void repriceAll(LongUnaryOperator minorUnits) {
+        Objects.requireNonNull(minorUnits, "minorUnits cannot be null");
+        lock.writeLock().lock();
+        try {
+            long[] updated = new long[size];
+            for (int row = 0; row < size; row++) {
+                updated[row] = minorUnits.applyAsLong(prices[row]);
+                if (updated[row] < 0) {
+                    throw new IllegalArgumentException("price cannot be negative: " + updated[row]);
+                }
+            }
+            System.arraycopy(updated, 0, prices, 0, size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void store(Product product) {
+        UUID id = product.getId();
+        long high = id.getMostSignificantBits();
+        long low = id.getLeastSignificantBits();
+        int slot = slot(high, low);
+        int row;
+        if (index[slot] != 0) {
+            row = index[slot] - 1;
+            namesWasted += nameLengths[row];
+        } else {
+            ensureRowCapacity(size + 1);
+            row = size++;
+            idHigh[row] = high;
+            idLow[row] = low;
+            if ((long) size * 2 > index.length) {
+                growIndex();
+            } else {
+                index[slot] = row + 1;
+            }
+        }
+        Money price = product.getPrice();
+        prices[row] = price.minorUnits();
+        currencies[row] = currencyId(price.currency());
+        categories[row] = categoryId(product.getCategory());
+        storeName(row, product.getName());
+        compactNamesIfWasteful();
+    }
+
+    private Product view(int row, UUID id) {
+        String name = new String(names, nameOffsets[row], nameLengths[row], StandardCharsets.UTF_8);
+        Money price = Money.ofMinor(prices[row], currencyTable.get(currencies[row]));
+        String category = categories[row] == NO_CATEGORY ? null : categoryTable.get(categories[row]);
+        return new Product(id, name, price, category);
+    }
+
+    private int row(long high, long low) {
+        return index[slot(high, low)] - 1;
+    }
+
+    // Platsen där id:t ligger, eller den tomma plats där det skulle hamna
+    private int slot(long high, long low) {
+        int mask = index.length - 1;
+        int slot = hash(high, low) & mask;
+        while (index[slot] != 0) {
+            int row = index[slot] - 1;
+            if (idHigh[row] == high && idLow[row] == low) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Baklängesförskjutning: poster efter hålet flyttas tillbaka om hålet ligger på deras sondväg,
+    // så att uppslag aldrig behöver gravstenar
+    private void deleteSlot(int hole) {
+        int mask = index.length - 1;
+        int slot = (hole + 1) & mask;
+        while (index[slot] != 0) {
+            int row = index[slot] - 1;
+            int home = hash(idHigh[row], idLow[row]) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index[hole] = index[slot];
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        index[hole] = 0;
+    }
+
+    private void growIndex() {
+        index = new int[index.length * 2];
+        int mask = index.length - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = hash(idHigh[row], idLow[row]) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = row + 1;
+        }
+    }
+
+    private void ensureRowCapacity(int rows) {
+        if (rows <= idHigh.length) {
+            return;
+        }
+        int capacity = Math.max(rows, idHigh.length * 2);
+        idHigh = Arrays.copyOf(idHigh, capacity);
+        idLow = Arrays.copyOf(idLow, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        currencies = Arrays.copyOf(currencies, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+    }
+
+    private void storeName(int row, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (namesUsed + bytes.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(namesUsed + bytes.length, names.length * 2));
+        }
+        System.arraycopy(bytes, 0, names, namesUsed, bytes.length);
+        nameOffsets[row] = namesUsed;
+        nameLengths[row] = bytes.length;
+        namesUsed += bytes.length;
+    }
+
+    // Ersatta och borttagna namn lämnar hål, packa om när hälften av bytes är skräp
+    private void compactNamesIfWasteful() {
+        if (namesWasted <= namesUsed / 2) {
+            return;
+        }
+        byte[] compacted = new byte[Math.max(namesUsed - namesWasted, INITIAL_ROWS)];
+        int used = 0;
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(names, nameOffsets[row], compacted, used, nameLengths[row]);
+            nameOffsets[row] = used;
+            used += nameLengths[row];
+        }
+        names = compacted;
+        namesUsed = used;
+        namesWasted = 0;
+    }
+
+    private short currencyId(Currency currency) {
+        int id = currencyTable.indexOf(currency);
+        if (id < 0) {
+            if (currencyTable.size() == Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many currencies in catalog");
+            }
+            currencyTable.add(currency);
+            id = currencyTable.size() - 1;
+        }
+        return (short) id;
+    }
+
+    private int categoryId(String category) {
+        if (category == null) {
+            return NO_CATEGORY;
+        }
+        return categoryIds.computeIfAbsent(category, name -> {
+            categoryTable.add(name);
+            return categoryTable.size() - 1;
+        });
+    }
+
+    // Delas med ShoppingCart, som indexerar sina rader på samma sätt
+    static int hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
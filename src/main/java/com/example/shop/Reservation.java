@@ -0,0 +1,64 @@
+package com.example.shop;
+
+import java.util.UUID;
+
+// Lager som hålls för en korg. Tillståndet ändras bara av Inventory, under lås på reservationen,
+// eftersom utgången kan ske i en annan tråd än den som äger korgen
+public final class Reservation {
+
+    public enum State {
+        ACTIVE,
+        RELEASED,
+        COMMITTED,
+        EXPIRED
+    }
+
+    private final UUID productId;
+    private int quantity;
+    private long expiresAt;
+    private State state = State.ACTIVE;
+
+    Reservation(UUID productId, int quantity, long expiresAt) {
+        this.productId = productId;
+        this.quantity = quantity;
+        this.expiresAt = expiresAt;
+    }
+
+    public UUID getProductId() {
+        return productId;
+    }
+
+    public synchronized int getQuantity() {
+        return quantity;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isActive() {
+        return state == State.ACTIVE;
+    }
+
+    // Anroparen håller låset på reservationen
+    int quantity() {
+        return quantity;
+    }
+
+    long expiresAt() {
+        return expiresAt;
+    }
+
+    State state() {
+        return state;
+    }
+
+    void update(int quantity, long expiresAt) {
+        this.quantity = quantity;
+        this.expiresAt = expiresAt;
+    }
+
+    void end(State state) {
+        this.state = state;
+    }
+}
@@ -1,56 +1,226 @@
 package com.example.shop;
 
+import com.example.money.Money;
+
 import java.util.*;
 
 public class ShoppingCart {
-    private final Map<UUID, CartItem> items = new HashMap<>();
+    private static final int INITIAL_LINES = 8;
+
+    // Raderna ligger tätt i lines och index är öppen adressering med linjär sondering som pekar på rad + 1,
+    // samma upplägg som i ProductCatalog. En ändring av en befintlig rad skapar inga objekt
+    private CartItem[] lines = new CartItem[INITIAL_LINES];
+    private int lineCount;
+    private int[] index = new int[INITIAL_LINES * 2];
+    private final Collection<CartItem> items = Collections.unmodifiableCollection(new AbstractCollection<>() {
+        @Override
+        public Iterator<CartItem> iterator() {
+            return Arrays.asList(lines).subList(0, lineCount).iterator();
+        }
+
+        @Override
+        public int size() {
+            return lineCount;
+        }
+    });
     private Discount discount;
+    // Kampanjer för hela butiken, ligger kvar efter clear till skillnad från rabattkoden i discount
+    private DiscountPlan discountPlan;
+    private CartChangeListener changeListener;
+    // Med ett lager hålls varje rad av en reservation, utan lager kontrolleras inget saldo
+    private Inventory inventory;
+    private final Map<UUID, Reservation> reservations = new HashMap<>();
+    // Löpande summor i ören och antal, uppdateras vid varje ändring så att läsningarna blir O(1)
+    private long subtotal;
+    private int itemCount;
+    private Currency currency;
+    // Räknas upp vid varje ändring av rader eller rabatter. Totalen sparas med versionen den räknades för
+    private long version;
+    private long totalVersion = -1;
+    private Money total;
 
     public boolean isEmpty() {
-        return items.isEmpty();
+        return lineCount == 0;
     }
 
     public void addProduct(Product product, int quantity) {
         Objects.requireNonNull(product, "Product cannot be null");
         if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
-        items.merge(product.getId(), new CartItem(product, quantity), (old, ne) -> {
-            old.addQuantity(quantity);
-            return old;
-        });
+        int slot = slot(product.getId());
+        CartItem existing = index[slot] != 0 ? lines[index[slot] - 1] : null;
+        // En befintlig rad behåller sin produkt, och därmed sitt pris, även om samma id läggs till med ett annat
+        Money price = existing != null ? existing.getProduct().getPrice() : product.getPrice();
+        if (currency != null && !price.hasCurrency(currency)) {
+            throw new CartException("Cannot mix currencies in cart: " + currency + " and " + price.currency());
+        }
+        // Räkna fram summorna först, så att ett överslag inte lämnar korgen halvt uppdaterad
+        long newSubtotal = Math.addExact(subtotal, Math.multiplyExact(price.minorUnits(), (long) quantity));
+        int newItemCount = Math.addExact(itemCount, quantity);
+        if (inventory != null) {
+            reserveStock(product.getId(), quantity);
+        }
+        if (existing != null) {
+            existing.addQuantity(quantity);
+        } else {
+            insertLine(slot, new CartItem(product, quantity));
+        }
+        subtotal = newSubtotal;
+        itemCount = newItemCount;
+        currency = price.currency();
+        version++;
+        if (changeListener != null) {
+            changeListener.productAdded(product, quantity);
+        }
     }
 
     public int getItemCount() {
-        return items.values().stream()
-                .mapToInt(CartItem::getQuantity)
-                .sum();
+        return itemCount;
     }
 
     public int getQuantity(UUID productId) {
-        CartItem item = items.get(productId);
+        CartItem item = line(productId);
         return item != null ? item.getQuantity() : 0;
     }
 
     public void removeProduct(UUID productId, int quantity) {
         if (quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
-        CartItem item = items.get(productId);
-        if (item == null) throw new CartException("Product not found in cart: " + productId);
-        if (quantity >= item.getQuantity()) {
-            items.remove(productId);
-        } else {
-            item.removeQuantity(quantity);
+        int slot = slot(productId);
+        if (index[slot] == 0) throw new CartException("Product not found in cart: " + productId);
+        CartItem item = lines[index[slot] - 1];
+        int removed = Math.min(quantity, item.getQuantity());
+        subtotal -= item.getProduct().getPrice().minorUnits() * removed;
+        itemCount -= removed;
+        removeFromLine(slot, item, removed);
+        if (lineCount == 0) {
+            currency = null;
+        }
+        version++;
+        if (changeListener != null) {
+            changeListener.productRemoved(productId, quantity);
+        }
+    }
+
+    // Hela batchen valideras och lagret reserveras innan korgen ändras. Kastar något är korgen orörd
+    public void addProducts(Map<Product, Integer> products) {
+        Objects.requireNonNull(products, "products cannot be null");
+        if (products.isEmpty()) return;
+        long newSubtotal = subtotal;
+        int newItemCount = itemCount;
+        Currency newCurrency = currency;
+        for (Map.Entry<Product, Integer> line : products.entrySet()) {
+            Product product = Objects.requireNonNull(line.getKey(), "Product cannot be null");
+            Integer quantity = line.getValue();
+            if (quantity == null || quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
+            CartItem existing = line(product.getId());
+            Money price = existing != null ? existing.getProduct().getPrice() : product.getPrice();
+            if (newCurrency != null && !price.hasCurrency(newCurrency)) {
+                throw new CartException("Cannot mix currencies in cart: " + newCurrency + " and " + price.currency());
+            }
+            newCurrency = price.currency();
+            newSubtotal = Math.addExact(newSubtotal, Math.multiplyExact(price.minorUnits(), (long) quantity));
+            newItemCount = Math.addExact(newItemCount, quantity);
+        }
+        if (inventory != null) {
+            reserveStock(products);
+        }
+
+        // Växer högst en gång per batch, till den storlek batchen kan behöva
+        ensureCapacity(lineCount + products.size());
+        for (Map.Entry<Product, Integer> line : products.entrySet()) {
+            int slot = slot(line.getKey().getId());
+            if (index[slot] != 0) {
+                lines[index[slot] - 1].addQuantity(line.getValue());
+            } else {
+                insertLine(slot, new CartItem(line.getKey(), line.getValue()));
+            }
+        }
+        subtotal = newSubtotal;
+        itemCount = newItemCount;
+        currency = newCurrency;
+        version++;
+        if (changeListener != null) {
+            changeListener.productsAdded(products);
+        }
+    }
+
+    // Alla produkter måste finnas i korgen, annars tas ingenting bort
+    public void removeProducts(Map<UUID, Integer> products) {
+        Objects.requireNonNull(products, "products cannot be null");
+        if (products.isEmpty()) return;
+        long removedMinor = 0;
+        int removedCount = 0;
+        for (Map.Entry<UUID, Integer> line : products.entrySet()) {
+            Integer quantity = line.getValue();
+            if (quantity == null || quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
+            CartItem item = line(line.getKey());
+            if (item == null) throw new CartException("Product not found in cart: " + line.getKey());
+            int removed = Math.min(quantity, item.getQuantity());
+            removedMinor += item.getProduct().getPrice().minorUnits() * removed;
+            removedCount += removed;
         }
+
+        for (Map.Entry<UUID, Integer> line : products.entrySet()) {
+            int slot = slot(line.getKey());
+            CartItem item = lines[index[slot] - 1];
+            removeFromLine(slot, item, Math.min(line.getValue(), item.getQuantity()));
+        }
+        subtotal -= removedMinor;
+        itemCount -= removedCount;
+        if (lineCount == 0) {
+            currency = null;
+        }
+        version++;
+        if (changeListener != null) {
+            changeListener.productsRemoved(products);
+        }
+    }
+
+    public Money getTotalPrice() {
+        if (totalVersion == version) {
+            return total;
+        }
+        // Med en kampanjplan måste raderna prissättas, utan räcker den löpande summan
+        Money sum = discountPlan != null
+                ? discountPlan.price(items).total()
+                : Money.ofMinor(subtotal, currency != null ? currency : Money.DEFAULT_CURRENCY);
+        Money price = applyDiscount(sum);
+        // Orena rabatter kan ge ett annat svar nästa gång, då sparas inget
+        if ((discount == null || discount.isPure()) && (discountPlan == null || discountPlan.isPure())) {
+            total = price;
+            totalVersion = version;
+        }
+        return price;
+    }
+
+    // Totalen för en prissättning som redan är gjord, så att kassan inte prissätter raderna två gånger
+    Money getTotalPrice(CartPricing pricing) {
+        return applyDiscount(pricing.total());
+    }
+
+    private Money applyDiscount(Money sum) {
+        return discount != null ? discount.apply(sum) : sum;
+    }
+
+    public long getVersion() {
+        return version;
     }
 
-    public double getTotalPrice() {
-        double total = items.values().stream()
-                .mapToDouble(CartItem::getTotalPrice)
-                .sum();
-        if (discount != null) total = discount.apply(total);
-        return total;
+    public CartPricing getPricing() {
+        return (discountPlan != null ? discountPlan : DiscountPlan.NONE).price(items);
+    }
+
+    public void setDiscountPlan(DiscountPlan discountPlan) {
+        this.discountPlan = discountPlan;
+        version++;
+    }
+
+    public DiscountPlan getDiscountPlan() {
+        return discountPlan;
     }
 
     public void setDiscount(Discount discount) {
         this.discount = discount;
+        version++;
     }
 
     public Discount getDiscount() {
@@ -58,15 +228,213 @@ public class ShoppingCart {
     }
 
     public boolean containsProduct(UUID productId) {
-        return items.containsKey(productId);
+        return index[slot(productId)] != 0;
     }
 
     public void clear() {
-        items.clear();
+        for (Map.Entry<UUID, Reservation> held : reservations.entrySet()) {
+            inventory.release(held.getValue(), line(held.getKey()).getQuantity());
+        }
+        reservations.clear();
+        Arrays.fill(lines, 0, lineCount, null);
+        Arrays.fill(index, 0);
+        lineCount = 0;
         discount = null;
+        subtotal = 0;
+        itemCount = 0;
+        currency = null;
+        version++;
+        if (changeListener != null) {
+            changeListener.cleared();
+        }
     }
 
+    public void setInventory(Inventory inventory) {
+        if (lineCount != 0) {
+            throw new CartException("Inventory can only be set on an empty cart");
+        }
+        this.inventory = inventory;
+    }
+
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    // Inför kassan: förnyar varje reservation, och reserverar om de rader vars reservation hunnit gå ut
+    void renewReservations() {
+        if (inventory == null) {
+            return;
+        }
+        for (int row = 0; row < lineCount; row++) {
+            CartItem item = lines[row];
+            UUID productId = item.getProduct().getId();
+            Reservation held = reservations.get(productId);
+            if (held == null || !inventory.renew(held)) {
+                reservations.put(productId, inventory.reserve(productId, item.getQuantity()));
+            }
+        }
+    }
+
+    // Medan betalningen pågår: varorna säljs, allt eller inget. Saknas lager för en reservation som
+    // hunnit gå ut kastas InsufficientStockException och det som redan sålts öppnas igen.
+    // Sålda reservationer påverkas inte av clear, de lämnar inte tillbaka något
+    void commitReservations() {
+        List<Reservation> committed = new ArrayList<>(reservations.size());
+        try {
+            for (Reservation held : reservations.values()) {
+                inventory.commit(held);
+                committed.add(held);
+            }
+        } catch (InsufficientStockException e) {
+            committed.forEach(inventory::reopen);
+            throw e;
+        }
+    }
+
+    // Betalningen gick inte igenom: de sålda varorna hålls åt korgen igen
+    void reopenReservations() {
+        for (Reservation held : reservations.values()) {
+            if (held.getState() == Reservation.State.COMMITTED) {
+                inventory.reopen(held);
+            }
+        }
+    }
+
+    private void reserveStock(UUID productId, int quantity) {
+        Reservation held = reservations.get(productId);
+        if (held != null && inventory.extend(held, quantity)) {
+            return;
+        }
+        // Ny rad, eller reservationen har gått ut och lämnat tillbaka sina varor: reservera hela raden
+        reservations.put(productId, inventory.reserve(productId, getQuantity(productId) + quantity));
+    }
+
+    // Allt eller inget: går en rad inte att reservera lämnas det som redan reserverats i batchen tillbaka
+    private void reserveStock(Map<Product, Integer> products) {
+        List<Product> reserved = new ArrayList<>(products.size());
+        Map<UUID, Reservation> before = new HashMap<>();
+        try {
+            for (Map.Entry<Product, Integer> line : products.entrySet()) {
+                UUID productId = line.getKey().getId();
+                Reservation held = reservations.get(productId);
+                reserveStock(productId, line.getValue());
+                before.put(productId, held);
+                reserved.add(line.getKey());
+            }
+        } catch (RuntimeException e) {
+            for (Product product : reserved) {
+                Reservation held = reservations.get(product.getId());
+                Reservation previous = before.get(product.getId());
+                if (held == previous) {
+                    inventory.release(held, products.get(product));
+                    continue;
+                }
+                inventory.release(held, held.getQuantity());
+                if (previous != null) {
+                    reservations.put(product.getId(), previous);
+                } else {
+                    reservations.remove(product.getId());
+                }
+            }
+            throw e;
+        }
+    }
+
+    // En lyssnare åt gången, null kopplar bort den
+    public void setChangeListener(CartChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    // En levande vy som skapas en gång, den följer korgens ändringar
     public Collection<CartItem> getItems() {
-        return Collections.unmodifiableCollection(items.values());
+        return items;
+    }
+
+    private CartItem line(UUID productId) {
+        int row = index[slot(productId)] - 1;
+        return row >= 0 ? lines[row] : null;
+    }
+
+    private void removeFromLine(int slot, CartItem item, int removed) {
+        UUID productId = item.getProduct().getId();
+        if (removed == item.getQuantity()) {
+            Reservation held = reservations.remove(productId);
+            if (held != null) {
+                inventory.release(held, removed);
+            }
+            deleteLine(slot);
+        } else {
+            Reservation held = reservations.get(productId);
+            if (held != null) {
+                inventory.release(held, removed);
+            }
+            item.removeQuantity(removed);
+        }
+    }
+
+    // Platsen där produkten ligger, eller den tomma plats där den skulle hamna
+    private int slot(UUID productId) {
+        int mask = index.length - 1;
+        int slot = ProductCatalog.hash(productId.getMostSignificantBits(), productId.getLeastSignificantBits()) & mask;
+        while (index[slot] != 0) {
+            if (lines[index[slot] - 1].getProduct().getId().equals(productId)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insertLine(int slot, CartItem item) {
+        if (ensureCapacity(lineCount + 1)) {
+            slot = slot(item.getProduct().getId());
+        }
+        lines[lineCount++] = item;
+        index[slot] = lineCount;
+    }
+
+    // Baklängesförskjutning i indexet, sedan flyttas sista raden in i hålet så att raderna förblir täta
+    private void deleteLine(int hole) {
+        int row = index[hole] - 1;
+        int mask = index.length - 1;
+        int slot = (hole + 1) & mask;
+        while (index[slot] != 0) {
+            UUID id = lines[index[slot] - 1].getProduct().getId();
+            int home = ProductCatalog.hash(id.getMostSignificantBits(), id.getLeastSignificantBits()) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index[hole] = index[slot];
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        index[hole] = 0;
+
+        int last = --lineCount;
+        if (row != last) {
+            index[slot(lines[last].getProduct().getId())] = row + 1;
+            lines[row] = lines[last];
+        }
+        lines[last] = null;
+    }
+
+    // true om indexet byggdes om, då har platserna flyttat
+    private boolean ensureCapacity(int count) {
+        if (count > lines.length) {
+            lines = Arrays.copyOf(lines, Math.max(count, lines.length * 2));
+        }
+        if ((long) count * 2 <= index.length) {
+            return false;
+        }
+        index = new int[Integer.highestOneBit(count * 2 - 1) << 1];
+        int mask = index.length - 1;
+        for (int row = 0; row < lineCount; row++) {
+            UUID id = lines[row].getProduct().getId();
+            int slot = ProductCatalog.hash(id.getMostSignificantBits(), id.getLeastSignificantBits()) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = row + 1;
+        }
+        return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AdmissionControlledBookingSystemTest {
+
+    private static final String ROOM_ID_1 = "000";
+    private static final String ROOM_ID_2 = "001";
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 7, 10, 0);
+    private static final LocalDateTime END = START.plusHours(1);
+
+    @Mock BookingSystem bookingSystem;
+
+    private AdmissionControlledBookingSystem admitting(int global, int perRoom, int burst, Duration wait) {
+        return new AdmissionControlledBookingSystem(bookingSystem, new AdmissionPolicy(global, perRoom, 1_000, burst, wait));
+    }
+
+    @Test
+    void admitted_DelegatesAndCounts() {
+        AdmissionControlledBookingSystem system = admitting(4, 1, 10, Duration.ZERO);
+        when(bookingSystem.hasRoom(ROOM_ID_1)).thenReturn(true);
+        when(bookingSystem.bookRoom(ROOM_ID_1, START, END)).thenReturn(true);
+        assertThat(system.bookRoom(ROOM_ID_1, START, END)).isTrue();
+        assertThat(system.getMetrics().getAdmitted()).isEqualTo(1);
+        assertThat(system.getMetrics().getRejected()).isZero();
+    }
+
+    @Test
+    void rateLimited_RejectsWithoutCallingDelegate() {
+        AdmissionControlledBookingSystem system = new AdmissionControlledBookingSystem(bookingSystem,
+                new AdmissionPolicy(4, 1, 0.01, 1, Duration.ZERO));
+        when(bookingSystem.getAvailableRooms(START, END)).thenReturn(List.of());
+        system.getAvailableRooms(START, END);
+        assertThatThrownBy(() -> system.getAvailableRooms(START, END))
+                .isInstanceOf(BookingRejectedException.class)
+                .extracting(e -> ((BookingRejectedException) e).getReason())
+                .isEqualTo(BookingRejectedException.Reason.RATE_LIMITED);
+        verify(bookingSystem, times(1)).getAvailableRooms(START, END);
+        assertThat(system.getMetrics().getRejected(BookingRejectedException.Reason.RATE_LIMITED)).isEqualTo(1);
+    }
+
+    @Test
+    void busyRoom_RejectsSameRoomButAdmitsOtherRoom() throws Exception {
+        AdmissionControlledBookingSystem system = admitting(4, 1, 10, Duration.ZERO);
+        when(bookingSystem.hasRoom(ROOM_ID_1)).thenReturn(true);
+        when(bookingSystem.hasRoom(ROOM_ID_2)).thenReturn(true);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(bookingSystem.bookRoom(ROOM_ID_1, START, END)).thenAnswer(invocation -> {
+            entered.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return true;
+        });
+        when(bookingSystem.bookRoom(ROOM_ID_2, START, END)).thenReturn(true);
+
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> system.bookRoom(ROOM_ID_1, START, END));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> system.bookRoom(ROOM_ID_1, START, END))
+                .isInstanceOf(BookingRejectedException.class)
+                .extracting(e -> ((BookingRejectedException) e).getReason())
+                .isEqualTo(BookingRejectedException.Reason.ROOM_BUSY);
+        assertThat(system.bookRoom(ROOM_ID_2, START, END)).isTrue();
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(system.bookRoom(ROOM_ID_1, START, END)).isTrue();
+    }
+
+    @Test
+    void globalLimit_RejectsAndReleasesRoomPermit() throws Exception {
+        AdmissionControlledBookingSystem system = admitting(1, 1, 10, Duration.ZERO);
+        when(bookingSystem.hasRoom(ROOM_ID_1)).thenReturn(true);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(bookingSystem.cancelBooking("b-1")).thenAnswer(invocation -> {
+            entered.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return true;
+        });
+        when(bookingSystem.bookRoom(ROOM_ID_1, START, END)).thenReturn(true);
+        // Rummet är känt sedan tidigare, så bokningen tar rummets tillstånd före det globala
+        assertThat(system.bookRoom(ROOM_ID_1, START, END)).isTrue();
+
+        CompletableFuture<Boolean> cancel = CompletableFuture.supplyAsync(() -> system.cancelBooking("b-1"));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> system.bookRoom(ROOM_ID_1, START, END))
+                .isInstanceOf(BookingRejectedException.class)
+                .extracting(e -> ((BookingRejectedException) e).getReason())
+                .isEqualTo(BookingRejectedException.Reason.SYSTEM_BUSY);
+
+        release.countDown();
+        cancel.get(5, TimeUnit.SECONDS);
+        assertThat(system.bookRoom(ROOM_ID_1, START, END)).isTrue();
+    }
+
+    @Test
+    void queuedRequest_WaitsForPermitAndIsMeasured() throws Exception {
+        AdmissionControlledBookingSystem system = admitting(4, 1, 10, Duration.ofSeconds(5));
+        when(bookingSystem.hasRoom(ROOM_ID_1)).thenReturn(true);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(bookingSystem.bookRoom(ROOM_ID_1, START, END)).thenAnswer(invocation -> {
+            if (entered.getCount() > 0) {
+                entered.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return true;
+        });
+
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> system.bookRoom(ROOM_ID_1, START, END));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> system.bookRoom(ROOM_ID_1, START, END));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (system.getMetrics().getCurrentlyQueued() == 0 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(system.getMetrics().getCurrentlyQueued()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(second.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(system.getMetrics().getCurrentlyQueued()).isZero();
+        assertThat(system.getMetrics().getQueuedTotal()).isEqualTo(1);
+        assertThat(system.getMetrics().getTotalQueueWaitNanos()).isPositive();
+    }
+
+    @Test
+    void unknownRoom_GetsNoRoomPermitAndDelegatesValidation() {
+        AdmissionControlledBookingSystem system = admitting(4, 1, 10, Duration.ZERO);
+        when(bookingSystem.bookRoom("okänt", START, END)).thenThrow(new IllegalArgumentException("Rummet existerar inte"));
+
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> system.bookRoom("okänt", START, END))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Rummet existerar inte");
+        }
+        // Ingen semafor sparades, så rummet slås upp igen vid varje anrop
+        verify(bookingSystem, times(3)).hasRoom("okänt");
+        assertThat(system.getMetrics().getAdmitted()).isEqualTo(3);
+    }
+
+    @Test
+    void rateLimitedUnknownRoom_NeverLooksUpRoom() {
+        AdmissionControlledBookingSystem system = new AdmissionControlledBookingSystem(bookingSystem,
+                new AdmissionPolicy(4, 1, 0.01, 1, Duration.ZERO));
+        when(bookingSystem.getAvailableRooms(START, END)).thenReturn(List.of());
+        system.getAvailableRooms(START, END);
+
+        assertThatThrownBy(() -> system.bookRoom("okänt", START, END))
+                .isInstanceOf(BookingRejectedException.class)
+                .extracting(e -> ((BookingRejectedException) e).getReason())
+                .isEqualTo(BookingRejectedException.Reason.RATE_LIMITED);
+        verify(bookingSystem, never()).hasRoom(anyString());
+    }
+
+    @Test
+    void systemBusy_RejectsUnknownRoomBeforeLookup() throws Exception {
+        AdmissionControlledBookingSystem system = admitting(1, 1, 10, Duration.ZERO);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(bookingSystem.cancelBooking("b-1")).thenAnswer(invocation -> {
+            entered.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return true;
+        });
+
+        CompletableFuture<Boolean> cancel = CompletableFuture.supplyAsync(() -> system.cancelBooking("b-1"));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThatThrownBy(() -> system.bookRoom(ROOM_ID_1, START, END))
+                .isInstanceOf(BookingRejectedException.class)
+                .extracting(e -> ((BookingRejectedException) e).getReason())
+                .isEqualTo(BookingRejectedException.Reason.SYSTEM_BUSY);
+        verify(bookingSystem, never()).hasRoom(anyString());
+
+        release.countDown();
+        cancel.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -7,12 +7,14 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.Answers;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.stream.Stream;
 
@@ -38,7 +40,7 @@ class BookingSystemTest {
     private static final LocalDateTime FUTURE_END_TIME = CURRENT_TIME.plusHours(7);
     private static final LocalDateTime PAST_TIME = CURRENT_TIME.minusHours(5);
 
-    @Mock TimeProvider timeProvider;
+    @Mock(answer = Answers.CALLS_REAL_METHODS) TimeProvider timeProvider;
     @Mock RoomRepository roomRepository;
     @Mock NotificationService notificationService;
     @InjectMocks BookingSystem bookingSystem;
@@ -132,6 +134,90 @@ class BookingSystemTest {
             verify(roomRepository).save(firstRoom);
             verify(notificationService).sendBookingConfirmation(any());
         }
+
+        @Test
+        void roomInOtherZone_ComparesAgainstUtcNow() {
+            Room newYorkRoom = new Room(ROOM_ID_2, ROOM_NAME_2, ZoneId.of("America/New_York"));
+            when(roomRepository.findById(ROOM_ID_2)).thenReturn(Optional.of(newYorkRoom));
+            // 06:00 i New York är 11:00 UTC, alltså efter CURRENT_TIME
+            LocalDateTime localStart = CURRENT_TIME.minusHours(3);
+            boolean result = bookingSystem.bookRoom(ROOM_ID_2, localStart, localStart.plusHours(1));
+            assertThat(result).isTrue();
+        }
+
+        @Test
+        void roomInOtherZone_PastLocalTime_Throws() {
+            Room stockholmRoom = new Room(ROOM_ID_2, ROOM_NAME_2, ZoneId.of("Europe/Stockholm"));
+            when(roomRepository.findById(ROOM_ID_2)).thenReturn(Optional.of(stockholmRoom));
+            // 09:30 i Stockholm är 08:30 UTC, alltså före CURRENT_TIME
+            LocalDateTime localStart = CURRENT_TIME.plusMinutes(30);
+            assertThatThrownBy(() -> bookingSystem.bookRoom(ROOM_ID_2, localStart, localStart.plusHours(1)))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Kan inte boka tid i dåtid");
+        }
+
+        @Test
+        void hasRoom_OnlyForExistingRooms() {
+            assertThat(bookingSystem.hasRoom(ROOM_ID_1)).isTrue();
+            assertThat(bookingSystem.hasRoom(ROOM_ID_2)).isFalse();
+            assertThat(bookingSystem.hasRoom(null)).isFalse();
+        }
+    }
+
+
+    @Nested
+    class TryBookRoom {
+        private Room firstRoom;
+        private Room secondRoom;
+        private Booking existing;
+
+        @BeforeEach
+        void setUp() {
+            firstRoom = new Room(ROOM_ID_1, ROOM_NAME_1);
+            secondRoom = new Room(ROOM_ID_2, ROOM_NAME_2);
+            existing = createBooking(FUTURE_BOOKING_ID, ROOM_ID_1, FUTURE_START_TIME, FUTURE_END_TIME);
+            firstRoom.addBooking(existing);
+            Mockito.lenient().when(timeProvider.getCurrentTime()).thenReturn(CURRENT_TIME);
+            Mockito.lenient().when(roomRepository.findById(ROOM_ID_1)).thenReturn(Optional.of(firstRoom));
+        }
+
+        @Test
+        void success_ReturnsBooking() {
+            LocalDateTime start = FUTURE_END_TIME;
+            BookingResult result = bookingSystem.tryBookRoom(ROOM_ID_1, start, start.plusHours(1));
+            assertThat(result.isSuccess()).isTrue();
+            assertThat(result.booking().getRoomId()).isEqualTo(ROOM_ID_1);
+            assertThat(result.conflicts()).isEmpty();
+            verify(roomRepository, never()).findAll();
+        }
+
+        @Test
+        void conflict_ReturnsConflictsAndAlternatives() {
+            mockAllRooms(firstRoom, secondRoom);
+            LocalDateTime start = FUTURE_START_TIME.plusHours(1);
+            BookingResult result = bookingSystem.tryBookRoom(ROOM_ID_1, start, start.plusHours(2));
+            assertThat(result.isSuccess()).isFalse();
+            assertThat(result.conflicts()).containsExactly(existing);
+            assertThat(result.alternatives()).containsExactly(
+                    new TimeSlot(ROOM_ID_2, start, start.plusHours(2)),
+                    new TimeSlot(ROOM_ID_1, FUTURE_END_TIME, FUTURE_END_TIME.plusHours(2)));
+            verify(roomRepository, never()).save(any());
+        }
+
+        @Test
+        void conflict_NextFreeWindowSkipsBackToBackBookings() {
+            firstRoom.addBooking(createBooking("next", ROOM_ID_1, FUTURE_END_TIME, FUTURE_END_TIME.plusHours(1)));
+            mockAllRooms(firstRoom);
+            BookingResult result = bookingSystem.tryBookRoom(ROOM_ID_1, FUTURE_START_TIME, FUTURE_START_TIME.plusHours(1));
+            assertThat(result.alternatives()).containsExactly(
+                    new TimeSlot(ROOM_ID_1, FUTURE_END_TIME.plusHours(1), FUTURE_END_TIME.plusHours(2)));
+        }
+
+        @Test
+        void bookRoomConflict_DoesNotLookUpAlternatives() {
+            assertThat(bookingSystem.bookRoom(ROOM_ID_1, FUTURE_START_TIME, FUTURE_END_TIME)).isFalse();
+            verify(roomRepository, never()).findAll();
+        }
     }
 
 
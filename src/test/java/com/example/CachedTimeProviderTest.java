@@ -0,0 +1,80 @@
+package com.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+
+class CachedTimeProviderTest {
+
+    private static final Instant START = Instant.parse("2026-01-07T09:00:00.250Z");
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(START);
+    private CachedTimeProvider timeProvider;
+
+    private final Clock clock = new Clock() {
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() { return now.get(); }
+    };
+
+    @BeforeEach
+    void setUp() {
+        timeProvider = new CachedTimeProvider(clock, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        timeProvider.close();
+    }
+
+    @Test
+    void readsClockOnCreation() {
+        assertThat(timeProvider.getCurrentEpochMilli()).isEqualTo(START.toEpochMilli());
+        assertThat(timeProvider.getCurrentTime()).isEqualTo(LocalDateTime.of(2026, 1, 7, 9, 0, 0, 250_000_000));
+    }
+
+    @Test
+    void keepsCachedValueUntilRefresh() {
+        now.set(START.plusSeconds(30));
+        assertThat(timeProvider.getCurrentEpochMilli()).isEqualTo(START.toEpochMilli());
+
+        timeProvider.refresh();
+        assertThat(timeProvider.getCurrentEpochMilli()).isEqualTo(START.plusSeconds(30).toEpochMilli());
+        assertThat(timeProvider.getCurrentTime()).isEqualTo(LocalDateTime.of(2026, 1, 7, 9, 0, 30, 250_000_000));
+    }
+
+    @Test
+    void epochMilliMatchesCurrentTimeAsUtc() {
+        assertThat(timeProvider.getCurrentEpochMilli())
+                .isEqualTo(timeProvider.getCurrentTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+
+    @Test
+    void tickerRefreshesInBackground() throws InterruptedException {
+        try (CachedTimeProvider fast = new CachedTimeProvider(clock, Duration.ofMillis(5))) {
+            now.set(START.plusSeconds(1));
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (fast.getCurrentEpochMilli() != START.plusSeconds(1).toEpochMilli() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertThat(fast.getCurrentEpochMilli()).isEqualTo(START.plusSeconds(1).toEpochMilli());
+        }
+    }
+
+    @Test
+    void nonPositiveResolution_Throws() {
+        assertThatThrownBy(() -> new CachedTimeProvider(clock, Duration.ZERO))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Upplösning måste vara positiv");
+    }
+}
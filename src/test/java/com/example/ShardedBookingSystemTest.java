@@ -0,0 +1,114 @@
+package com.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class ShardedBookingSystemTest {
+
+    private static final int SHARDS = 4;
+    private static final LocalDateTime CURRENT_TIME = LocalDateTime.of(2026, 1, 7, 9, 0);
+    private static final LocalDateTime FUTURE_START_TIME = CURRENT_TIME.plusHours(1);
+    private static final LocalDateTime FUTURE_END_TIME = CURRENT_TIME.plusHours(2);
+
+    @Mock NotificationService notificationService;
+
+    private final List<InMemoryRoomRepository> repositories = new ArrayList<>();
+    private ShardedBookingSystem bookingSystem;
+
+    private static class InMemoryRoomRepository implements RoomRepository {
+        private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+        @Override public Optional<Room> findById(String id) { return Optional.ofNullable(rooms.get(id)); }
+        @Override public List<Room> findAll() { return new ArrayList<>(rooms.values()); }
+        @Override public void save(Room room) { rooms.put(room.getId(), room); }
+    }
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < SHARDS; i++) {
+            repositories.add(new InMemoryRoomRepository());
+        }
+        bookingSystem = new ShardedBookingSystem(() -> CURRENT_TIME, List.copyOf(repositories), notificationService);
+        for (int i = 0; i < 20; i++) {
+            String roomId = "room-" + i;
+            repositories.get(bookingSystem.shardOf(roomId)).save(new Room(roomId, "Rum " + i));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        bookingSystem.close();
+    }
+
+    @Test
+    void bookRoom_RoutesToOwningShard() {
+        BookingResult result = bookingSystem.tryBookRoom("room-3", FUTURE_START_TIME, FUTURE_END_TIME);
+        assertThat(result.isSuccess()).isTrue();
+        int shard = bookingSystem.shardOf("room-3");
+        assertThat(repositories.get(shard).findById("room-3").orElseThrow().hasBooking(result.booking().getId())).isTrue();
+        assertThat(result.booking().getId()).startsWith(shard + ":");
+    }
+
+    @Test
+    void bookRoom_SecondBookingConflicts() {
+        assertThat(bookingSystem.bookRoom("room-3", FUTURE_START_TIME, FUTURE_END_TIME)).isTrue();
+        assertThat(bookingSystem.bookRoom("room-3", FUTURE_START_TIME, FUTURE_END_TIME)).isFalse();
+    }
+
+    @Test
+    void bookRoom_UnknownRoom_Throws() {
+        assertThatThrownBy(() -> bookingSystem.bookRoom("missing", FUTURE_START_TIME, FUTURE_END_TIME))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Rummet existerar inte");
+    }
+
+    @Test
+    void bookRoom_NullRoom_Throws() {
+        assertThatThrownBy(() -> bookingSystem.bookRoom(null, FUTURE_START_TIME, FUTURE_END_TIME))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Bokning kräver giltiga start- och sluttider samt rum-id");
+    }
+
+    @Test
+    void getAvailableRooms_GathersFromAllShards() {
+        bookingSystem.bookRoom("room-3", FUTURE_START_TIME, FUTURE_END_TIME);
+        bookingSystem.bookRoom("room-7", FUTURE_START_TIME, FUTURE_END_TIME);
+        List<Room> available = bookingSystem.getAvailableRooms(FUTURE_START_TIME, FUTURE_END_TIME);
+        assertThat(available).hasSize(18);
+        assertThat(available).extracting(Room::getId).doesNotContain("room-3", "room-7");
+    }
+
+    @Test
+    void cancelBooking_RoutesByBookingId() {
+        BookingResult result = bookingSystem.tryBookRoom("room-5", FUTURE_START_TIME, FUTURE_END_TIME);
+        assertThat(bookingSystem.cancelBooking(result.booking().getId())).isTrue();
+        assertThat(bookingSystem.bookRoom("room-5", FUTURE_START_TIME, FUTURE_END_TIME)).isTrue();
+    }
+
+    @Test
+    void cancelBooking_UnshardedId_SearchesAllShards() {
+        int shard = bookingSystem.shardOf("room-8");
+        Room room = repositories.get(shard).findById("room-8").orElseThrow();
+        room.addBooking(new Booking("legacy-id", "room-8", FUTURE_START_TIME, FUTURE_END_TIME));
+        assertThat(bookingSystem.cancelBooking("legacy-id")).isTrue();
+        assertThat(bookingSystem.cancelBooking("legacy-id")).isFalse();
+    }
+
+    @Test
+    void cancelBooking_NullId_Throws() {
+        assertThatThrownBy(() -> bookingSystem.cancelBooking(null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Boknings-id kan inte vara null");
+    }
+}
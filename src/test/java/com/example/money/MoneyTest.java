@@ -0,0 +1,86 @@
+package com.example.money;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import static org.assertj.core.api.Assertions.*;
+
+class MoneyTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    @Nested
+    class Conversion {
+
+        @Test
+        void of_StoresMinorUnits() {
+            assertThat(Money.of(100.50).minorUnits()).isEqualTo(10050);
+            assertThat(Money.of(100.50).currency()).isEqualTo(Money.DEFAULT_CURRENCY);
+        }
+
+        @Test
+        void of_UsesCurrencyFractionDigits() {
+            assertThat(Money.of(1234.0, JPY).minorUnits()).isEqualTo(1234);
+            assertThat(Money.of(new BigDecimal("12.345"), EUR).minorUnits()).isEqualTo(1234);
+        }
+
+        @Test
+        void of_NonFinite_Throws() {
+            assertThatThrownBy(() -> Money.of(Double.NaN))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Amount must be finite: NaN");
+        }
+
+        @Test
+        void toDoubleAndBigDecimal_RoundTrip() {
+            Money money = Money.ofMinor(1999);
+            assertThat(money.toDouble()).isEqualTo(19.99);
+            assertThat(money.toBigDecimal()).isEqualByComparingTo("19.99");
+            assertThat(money).hasToString("19.99 SEK");
+        }
+    }
+
+    @Nested
+    class Arithmetic {
+
+        @Test
+        void plusMinusTimes_AreExact() {
+            Money tenCents = Money.of(0.1);
+            Money sum = Money.zero(Money.DEFAULT_CURRENCY);
+            for (int i = 0; i < 10; i++) {
+                sum = sum.plus(tenCents);
+            }
+            assertThat(sum).isEqualTo(Money.of(1.0));
+            assertThat(sum.minus(tenCents.times(3))).isEqualTo(Money.of(0.7));
+        }
+
+        @Test
+        void overflow_Throws() {
+            assertThatThrownBy(() -> Money.ofMinor(Long.MAX_VALUE).plus(Money.ofMinor(1)))
+                    .isInstanceOf(ArithmeticException.class);
+            assertThatThrownBy(() -> Money.ofMinor(Long.MAX_VALUE / 2 + 1).times(2))
+                    .isInstanceOf(ArithmeticException.class);
+        }
+
+        @Test
+        void mixedCurrencies_Throw() {
+            assertThatThrownBy(() -> Money.of(1.0).plus(Money.of(1.0, EUR)))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Currency mismatch: SEK and EUR");
+            assertThatThrownBy(() -> Money.of(1.0).compareTo(Money.of(1.0, EUR)))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+
+        @Test
+        void signAndOrdering() {
+            assertThat(Money.ofMinor(1).isPositive()).isTrue();
+            assertThat(Money.ofMinor(-1).isNegative()).isTrue();
+            assertThat(Money.ofMinor(0).isZero()).isTrue();
+            assertThat(Money.ofMinor(5)).isGreaterThan(Money.ofMinor(4));
+        }
+    }
+}
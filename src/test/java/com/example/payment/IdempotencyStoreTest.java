@@ -0,0 +1,150 @@
+package com.example.payment;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+
+class IdempotencyStoreTest {
+
+    private static final String KEY = "order-1";
+    private static final PaymentApiResponse SUCCESS = PaymentApiResponse.success("txn-1");
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final IdempotencyStore store = new IdempotencyStore(2, Duration.ofMinutes(10), now::get);
+
+    private PaymentApiResponse countingCharge() {
+        calls.incrementAndGet();
+        return SUCCESS;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void firstCall_RunsOperation() throws Exception {
+        IdempotencyStore.Result result = store.execute(KEY, this::countingCharge);
+        assertThat(result.response()).isEqualTo(SUCCESS);
+        assertThat(result.replayed()).isFalse();
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void completedKey_ReturnsCachedResponse() throws Exception {
+        store.execute(KEY, this::countingCharge);
+        IdempotencyStore.Result result = store.execute(KEY, this::countingCharge);
+        assertThat(result.response()).isEqualTo(SUCCESS);
+        assertThat(result.replayed()).isTrue();
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void declinedResponse_IsCachedToo() throws Exception {
+        store.execute(KEY, PaymentApiResponse::failure);
+        assertThat(store.execute(KEY, this::countingCharge).response().isSuccess()).isFalse();
+        assertThat(calls.get()).isZero();
+    }
+
+    @Test
+    void expiredKey_RunsOperationAgain() throws Exception {
+        store.execute(KEY, this::countingCharge);
+        now.addAndGet(Duration.ofMinutes(10).toNanos());
+        assertThat(store.execute(KEY, this::countingCharge).replayed()).isFalse();
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    void boundedSize_EvictsOldestKey() throws Exception {
+        store.execute("a", this::countingCharge);
+        store.execute("b", this::countingCharge);
+        store.execute("c", this::countingCharge);
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.execute("a", this::countingCharge).replayed()).isFalse();
+        assertThat(store.execute("c", this::countingCharge).replayed()).isTrue();
+    }
+
+    @Test
+    void sameKeyDifferentFingerprint_ThrowsWithoutRunning() throws Exception {
+        store.execute(KEY, "100 SEK", this::countingCharge);
+        assertThat(store.execute(KEY, "100 SEK", this::countingCharge).replayed()).isTrue();
+        assertThatThrownBy(() -> store.execute(KEY, "200 SEK", this::countingCharge))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Idempotency key order-1 was already used for a different request");
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void failedOperation_IsNotCached() throws Exception {
+        PaymentProcessingException failure = new PaymentProcessingException("API failed");
+        assertThatThrownBy(() -> store.execute(KEY, () -> { throw failure; })).isSameAs(failure);
+        assertThat(store.execute(KEY, this::countingCharge).replayed()).isFalse();
+    }
+
+    @Test
+    void concurrentDuplicate_WaitsForFirstAttempt() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<IdempotencyStore.Result> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.execute(KEY, () -> {
+                    started.countDown();
+                    awaitQuietly(release);
+                    return countingCharge();
+                });
+            } catch (PaymentProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<IdempotencyStore.Result> duplicate = CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.execute(KEY, this::countingCharge);
+            } catch (PaymentProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).replayed()).isFalse();
+        assertThat(duplicate.get(5, TimeUnit.SECONDS).replayed()).isTrue();
+        assertThat(duplicate.get().response()).isEqualTo(SUCCESS);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentDuplicateWithDifferentFingerprint_Throws() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<IdempotencyStore.Result> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.execute(KEY, "100 SEK", () -> {
+                    started.countDown();
+                    awaitQuietly(release);
+                    return countingCharge();
+                });
+            } catch (PaymentProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> store.execute(KEY, "200 SEK", this::countingCharge))
+                .isInstanceOf(IllegalArgumentException.class);
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS).replayed()).isFalse();
+        assertThat(calls.get()).isEqualTo(1);
+    }
+}
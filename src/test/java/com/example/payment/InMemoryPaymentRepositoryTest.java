@@ -0,0 +1,100 @@
+package com.example.payment;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+
+class InMemoryPaymentRepositoryTest {
+
+    private static final Instant START = Instant.parse("2026-01-07T09:00:00Z");
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(START);
+
+    private final Clock clock = new Clock() {
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() { return now.get(); }
+    };
+
+    private final InMemoryPaymentRepository repository = new InMemoryPaymentRepository(clock);
+
+    @Test
+    void pendingThenCompleted_IsFoundByTransactionId() throws Exception {
+        repository.savePending("pay-1", Money.of(100.0));
+        repository.updateStatus("pay-1", PaymentStatus.COMPLETED, "txn-1");
+
+        assertThat(repository.findByTransactionId("txn-1")).contains(
+                new StoredPayment("pay-1", Money.of(100.0), PaymentStatus.COMPLETED, "txn-1", START));
+    }
+
+    @Test
+    void completedThenRefunded_KeepsCreatedAt() throws Exception {
+        repository.savePending("pay-1", Money.of(100.0));
+        repository.updateStatus("pay-1", PaymentStatus.COMPLETED, "txn-1");
+        now.set(START.plusSeconds(3600));
+        repository.updateStatus("pay-1", PaymentStatus.REFUNDED, "txn-1");
+
+        assertThat(repository.findById("pay-1")).contains(
+                new StoredPayment("pay-1", Money.of(100.0), PaymentStatus.REFUNDED, "txn-1", START));
+    }
+
+    @Test
+    void invalidTransition_Throws() throws Exception {
+        repository.savePending("pay-1", Money.of(100.0));
+        repository.updateStatus("pay-1", PaymentStatus.FAILED, null);
+
+        assertThatThrownBy(() -> repository.updateStatus("pay-1", PaymentStatus.COMPLETED, "txn-1"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Cannot change payment from FAILED to COMPLETED");
+        assertThatThrownBy(() -> repository.updateStatus("pay-1", PaymentStatus.REFUNDED, null))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void unknownPayment_Throws() {
+        assertThatThrownBy(() -> repository.updateStatus("missing", PaymentStatus.COMPLETED, "txn-1"))
+                .isInstanceOf(PaymentDataAccessException.class)
+                .hasMessage("Payment not found: missing");
+    }
+
+    @Test
+    void duplicatePending_Throws() throws Exception {
+        repository.savePending("pay-1", Money.of(100.0));
+        assertThatThrownBy(() -> repository.savePending("pay-1", Money.of(100.0)))
+                .isInstanceOf(PaymentDataAccessException.class)
+                .hasMessage("Payment already exists: pay-1");
+    }
+
+    @Test
+    void findPendingOlderThan_ReturnsOnlyStuckPendingOldestFirst() throws Exception {
+        repository.savePending("pay-1", Money.of(100.0));
+        now.set(START.plusSeconds(60));
+        repository.savePendingPayments(List.of(new PendingPayment("pay-2", Money.of(200.0)), new PendingPayment("pay-3", Money.of(300.0))));
+        now.set(START.plusSeconds(600));
+        repository.savePending("pay-4", Money.of(400.0));
+        repository.updateStatuses(List.of(new PaymentStatusUpdate("pay-2", PaymentStatus.COMPLETED, "txn-2")));
+
+        assertThat(repository.findPendingOlderThan(START.plusSeconds(300)))
+                .extracting(StoredPayment::paymentId)
+                .containsExactly("pay-1", "pay-3");
+        assertThat(repository.findPendingOlderThan(START)).isEmpty();
+    }
+
+    @Test
+    void statusTransitions() {
+        assertThat(PaymentStatus.PENDING.canTransitionTo(PaymentStatus.COMPLETED)).isTrue();
+        assertThat(PaymentStatus.PENDING.canTransitionTo(PaymentStatus.FAILED)).isTrue();
+        assertThat(PaymentStatus.COMPLETED.canTransitionTo(PaymentStatus.REFUNDED)).isTrue();
+        assertThat(PaymentStatus.PENDING.canTransitionTo(PaymentStatus.REFUNDED)).isFalse();
+        assertThat(PaymentStatus.FAILED.canTransitionTo(PaymentStatus.COMPLETED)).isFalse();
+        assertThat(PaymentStatus.REFUNDED.canTransitionTo(PaymentStatus.COMPLETED)).isFalse();
+    }
+}
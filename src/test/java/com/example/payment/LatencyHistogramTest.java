@@ -0,0 +1,44 @@
+package com.example.payment;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogram_ReturnsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getCount()).isZero();
+        assertThat(histogram.percentileNanos(99)).isZero();
+    }
+
+    @Test
+    void percentiles_AreWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1_000; i++) {
+            histogram.record(i * 1_000);
+        }
+        assertThat(histogram.getCount()).isEqualTo(1_000);
+        assertThat(histogram.percentileNanos(50)).isBetween(500_000L, 625_000L);
+        assertThat(histogram.percentileNanos(99)).isBetween(990_000L, 1_000_000L);
+        assertThat(histogram.getMaxNanos()).isEqualTo(1_000_000);
+        assertThat(histogram.getMeanNanos()).isEqualTo(500_500);
+    }
+
+    @Test
+    void buckets_AreContiguous() {
+        for (int bucket = 0; bucket < 200; bucket++) {
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertThat(LatencyHistogram.bucketOf(upper)).isEqualTo(bucket);
+            assertThat(LatencyHistogram.bucketOf(upper + 1)).isEqualTo(bucket + 1);
+        }
+    }
+
+    @Test
+    void invalidPercentile_Throws() {
+        assertThatThrownBy(() -> new LatencyHistogram().percentileNanos(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Percentile must be in (0, 100]");
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.payment;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+class OutboxEmailSenderTest {
+
+    private static final String EMAIL = "test@example.com";
+    private static final EmailOutboxPolicy FAST_RETRIES =
+            new EmailOutboxPolicy(1, 10, 3, Duration.ofMillis(1), Duration.ofMillis(5));
+    private static final EmailOutboxPolicy NO_RETRY_BEFORE_CLOSE =
+            new EmailOutboxPolicy(1, 10, 3, Duration.ofHours(1), Duration.ofHours(1));
+
+    @TempDir Path directory;
+
+    private static class RecordingSender implements EmailSender {
+        private final List<List<EmailConfirmation>> batches = new ArrayList<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile int failuresLeft;
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        @Override
+        public void sendPaymentConfirmation(String email, Money amount) {
+            throw new UnsupportedOperationException("The outbox always sends in batches");
+        }
+
+        @Override
+        public void sendPaymentConfirmations(List<EmailConfirmation> confirmations) throws EmailSendingException {
+            calls.incrementAndGet();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new EmailSendingException("SMTP down");
+            }
+            synchronized (batches) {
+                batches.add(List.copyOf(confirmations));
+            }
+        }
+
+        List<List<EmailConfirmation>> batches() {
+            synchronized (batches) {
+                return List.copyOf(batches);
+            }
+        }
+
+        List<EmailConfirmation> delivered() {
+            return batches().stream().flatMap(List::stream).toList();
+        }
+    }
+
+    private final RecordingSender sender = new RecordingSender();
+
+    private static EmailConfirmation confirmation(String paymentId) {
+        return new EmailConfirmation(paymentId, EMAIL, Money.of(100.0));
+    }
+
+    private static void awaitDrained(OutboxEmailSender outbox) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (outbox.getPendingCount() > 0) {
+            assertThat(System.nanoTime()).as("outbox drained in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void confirmation_IsDeliveredInTheBackground() throws Exception {
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, FAST_RETRIES, PaymentMetrics.NOOP)) {
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            awaitDrained(outbox);
+        }
+        assertThat(sender.delivered()).containsExactly(confirmation("pay-1"));
+    }
+
+    @Test
+    void confirmationsQueuedWhileSending_GoInOneBatch() throws Exception {
+        sender.gate = new CountDownLatch(1);
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, FAST_RETRIES, PaymentMetrics.NOOP)) {
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            while (sender.calls.get() == 0) {
+                Thread.onSpinWait();
+            }
+            for (int i = 2; i <= 5; i++) {
+                outbox.sendPaymentConfirmation(confirmation("pay-" + i));
+            }
+            sender.gate.countDown();
+            awaitDrained(outbox);
+        }
+        assertThat(sender.batches()).extracting(List::size).containsExactly(1, 4);
+    }
+
+    @Test
+    void duplicatePaymentId_IsSentOnce() throws Exception {
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, FAST_RETRIES, PaymentMetrics.NOOP)) {
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            awaitDrained(outbox);
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            awaitDrained(outbox);
+        }
+        assertThat(sender.delivered()).containsExactly(confirmation("pay-1"));
+    }
+
+    @Test
+    void failedSend_IsRetried() throws Exception {
+        sender.failuresLeft = 2;
+        InMemoryPaymentMetrics metrics = new InMemoryPaymentMetrics();
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, FAST_RETRIES, metrics)) {
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            awaitDrained(outbox);
+        }
+        assertThat(sender.delivered()).containsExactly(confirmation("pay-1"));
+        assertThat(sender.calls.get()).isEqualTo(3);
+        assertThat(metrics.getEmailFailures()).isZero();
+    }
+
+    @Test
+    void exhaustedRetries_AreAbandonedAndCounted() throws Exception {
+        sender.failuresLeft = Integer.MAX_VALUE;
+        InMemoryPaymentMetrics metrics = new InMemoryPaymentMetrics();
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, FAST_RETRIES, metrics)) {
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            awaitDrained(outbox);
+        }
+        assertThat(sender.calls.get()).isEqualTo(3);
+        assertThat(metrics.getEmailFailures()).isEqualTo(1);
+
+        // Övergivna skickas inte om efter omstart
+        RecordingSender restarted = new RecordingSender();
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, restarted, FAST_RETRIES, PaymentMetrics.NOOP)) {
+            assertThat(outbox.getPendingCount()).isZero();
+        }
+        assertThat(restarted.calls.get()).isZero();
+    }
+
+    @Test
+    void unsentConfirmations_AreDeliveredAfterRestart() throws Exception {
+        sender.failuresLeft = Integer.MAX_VALUE;
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, NO_RETRY_BEFORE_CLOSE, PaymentMetrics.NOOP)) {
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            outbox.sendPaymentConfirmation(new EmailConfirmation("pay-2", "other@example.com", Money.ofMinor(995)));
+            while (sender.calls.get() == 0) {
+                Thread.onSpinWait();
+            }
+        }
+
+        RecordingSender restarted = new RecordingSender();
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, restarted, FAST_RETRIES, PaymentMetrics.NOOP)) {
+            awaitDrained(outbox);
+        }
+        assertThat(restarted.delivered()).containsExactlyInAnyOrder(
+                confirmation("pay-1"), new EmailConfirmation("pay-2", "other@example.com", Money.ofMinor(995)));
+    }
+
+    @Test
+    void restart_KeepsLogUntouchedWhileConfirmationsWait() throws Exception {
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, NO_RETRY_BEFORE_CLOSE, PaymentMetrics.NOOP)) {
+            outbox.sendPaymentConfirmation(confirmation("pay-0"));
+            awaitDrained(outbox);
+            sender.failuresLeft = Integer.MAX_VALUE;
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            while (sender.calls.get() < 2) {
+                Thread.onSpinWait();
+            }
+        }
+        byte[] before = Files.readAllBytes(directory.resolve("emails.outbox"));
+
+        RecordingSender stillDown = new RecordingSender();
+        stillDown.failuresLeft = Integer.MAX_VALUE;
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, stillDown, NO_RETRY_BEFORE_CLOSE, PaymentMetrics.NOOP)) {
+            assertThat(outbox.getPendingCount()).isEqualTo(1);
+        }
+        // Återställningen lägger bara till, det som redan låg i loggen är orört
+        byte[] after = Files.readAllBytes(directory.resolve("emails.outbox"));
+        assertThat(Arrays.copyOf(after, before.length)).isEqualTo(before);
+
+        RecordingSender restarted = new RecordingSender();
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, restarted, FAST_RETRIES, PaymentMetrics.NOOP)) {
+            awaitDrained(outbox);
+        }
+        assertThat(restarted.delivered()).containsExactly(confirmation("pay-1"));
+    }
+
+    @Test
+    void sentConfirmations_AreNotResentAfterRestart() throws Exception {
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, FAST_RETRIES, PaymentMetrics.NOOP)) {
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            awaitDrained(outbox);
+        }
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, FAST_RETRIES, PaymentMetrics.NOOP)) {
+            outbox.sendPaymentConfirmation(confirmation("pay-1"));
+            awaitDrained(outbox);
+        }
+        assertThat(sender.delivered()).containsExactly(confirmation("pay-1"));
+    }
+
+    @Test
+    void closedOutbox_Throws() throws Exception {
+        OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, FAST_RETRIES, PaymentMetrics.NOOP);
+        outbox.close();
+        assertThatThrownBy(() -> outbox.sendPaymentConfirmation(confirmation("pay-1")))
+                .isInstanceOf(EmailSendingException.class)
+                .hasMessage("Email outbox is closed");
+    }
+
+    @Test
+    void processor_ReturnsBeforeSlowEmailIsSent() throws Exception {
+        sender.gate = new CountDownLatch(1);
+        PaymentApiClient api = new PaymentApiClient() {
+            @Override
+            public PaymentApiResponse charge(Money amount) {
+                return PaymentApiResponse.success("txn-1");
+            }
+
+            @Override
+            public PaymentApiResponse refund(String transactionId) {
+                return PaymentApiResponse.success(transactionId);
+            }
+        };
+        try (OutboxEmailSender outbox = new OutboxEmailSender(directory, sender, FAST_RETRIES, PaymentMetrics.NOOP)) {
+            PaymentProcessor processor = new PaymentProcessor(api, new InMemoryPaymentRepository(), outbox);
+
+            assertThat(processor.processPayment(Money.of(100.0), EMAIL)).isTrue();
+            assertThat(sender.delivered()).isEmpty();
+
+            sender.gate.countDown();
+            awaitDrained(outbox);
+        }
+        assertThat(sender.delivered()).singleElement().satisfies(sent -> {
+            assertThat(sent.email()).isEqualTo(EMAIL);
+            assertThat(sent.amount()).isEqualTo(Money.of(100.0));
+        });
+    }
+
+    @Test
+    void invalidPolicy_Throws() {
+        assertThatThrownBy(() -> new EmailOutboxPolicy(0, 10, 3, Duration.ofMillis(1), Duration.ofMillis(5)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("workers must be positive");
+        assertThatThrownBy(() -> new EmailOutboxPolicy(1, 10, 3, Duration.ofMillis(5), Duration.ofMillis(1)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxBackoff must not be less than initialBackoff");
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.payment;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.NullAndEmptySource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.*;
+
+class PaymentGatewayClientTest {
+
+    private static final String API_KEY = "sk_test_123";
+    private static final Money AMOUNT = Money.of(100.50);
+
+    private StubPaymentGateway gateway;
+    private PaymentGatewayClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        gateway = new StubPaymentGateway();
+        client = new PaymentGatewayClient(API_KEY, gateway.getAddress());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        gateway.close();
+    }
+
+    @Test
+    void charge_Success() throws Exception {
+        PaymentApiResponse response = client.charge(AMOUNT);
+        assertThat(response.isSuccess()).isTrue();
+        assertThat(response.transactionId()).isEqualTo("test-txn-123");
+    }
+
+    @Test
+    void charge_NonPositiveAmount_Declined() throws Exception {
+        assertThat(client.charge(Money.of(0.0))).isEqualTo(PaymentApiResponse.failure());
+    }
+
+    @Test
+    void refund_Success() throws Exception {
+        assertThat(client.refund("txn-1")).isEqualTo(PaymentApiResponse.success("txn-1"));
+    }
+
+    @Test
+    void chargeAll_UsesOneBatchRequest() throws Exception {
+        List<PaymentApiResponse> responses = client.chargeAll(List.of(AMOUNT, Money.of(-1.0), Money.of(5.0)));
+
+        assertThat(responses).extracting(PaymentApiResponse::isSuccess).containsExactly(true, false, true);
+        assertThat(gateway.getBatchRequests()).isEqualTo(1);
+        assertThat(gateway.getRequestsHandled()).isEqualTo(1);
+    }
+
+    @Test
+    void chargeAll_Empty_DoesNotCallGateway() throws Exception {
+        assertThat(client.chargeAll(List.of())).isEmpty();
+        assertThat(gateway.getConnectionsAccepted()).isZero();
+    }
+
+    @Test
+    void manyCharges_ReuseThePooledConnections() throws Exception {
+        try (PaymentGatewayClient pooled = new PaymentGatewayClient(API_KEY, gateway.getAddress(), 2, Duration.ofSeconds(5))) {
+            for (int i = 0; i < 100; i++) {
+                assertThat(pooled.charge(AMOUNT).isSuccess()).isTrue();
+            }
+        }
+        assertThat(gateway.getConnectionsAccepted()).isEqualTo(2);
+        assertThat(gateway.getRequestsHandled()).isEqualTo(100);
+    }
+
+    @Test
+    void concurrentCharges_AreMultiplexedOnOneConnection() throws Exception {
+        try (StubPaymentGateway slow = new StubPaymentGateway(Duration.ofMillis(200));
+             PaymentGatewayClient single = new PaymentGatewayClient(API_KEY, slow.getAddress(), 1, Duration.ofSeconds(5));
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<CompletableFuture<PaymentApiResponse>> charges = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 50; i++) {
+                charges.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return single.charge(AMOUNT);
+                    } catch (PaymentProcessingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(charges.toArray(CompletableFuture[]::new)).join();
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+            // I tur och ordning skulle det ta 10 sekunder
+            assertThat(elapsed).isLessThan(Duration.ofSeconds(3));
+            assertThat(charges).allMatch(charge -> charge.join().isSuccess());
+            assertThat(slow.getConnectionsAccepted()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void slowGateway_TimesOut() throws Exception {
+        try (StubPaymentGateway slow = new StubPaymentGateway(Duration.ofMillis(500));
+             PaymentGatewayClient impatient = new PaymentGatewayClient(API_KEY, slow.getAddress(), 1, Duration.ofMillis(50))) {
+            // Handskakningen är inte fördröjd, bara förfrågningarna
+            assertThatThrownBy(() -> impatient.charge(AMOUNT))
+                    .isInstanceOf(PaymentProcessingException.class)
+                    .hasMessage("Payment gateway timed out after 50 ms");
+        }
+    }
+
+    @Test
+    void gatewayDown_Throws() throws Exception {
+        assertThat(client.charge(AMOUNT).isSuccess()).isTrue();
+        gateway.close();
+
+        assertThatThrownBy(() -> client.charge(AMOUNT))
+                .isInstanceOf(PaymentProcessingException.class)
+                .hasMessage("Payment API call failed");
+    }
+
+    @Test
+    void malformedBody_GetsErrorReplyInsteadOfTimeout() throws Exception {
+        try (GatewayConnection connection = GatewayConnection.open(gateway.getAddress(), API_KEY, Duration.ofSeconds(5))) {
+            assertThatThrownBy(() -> connection.call(GatewayProtocol.CHARGE, ByteBuffer.wrap(new byte[]{1, 2}), Duration.ofSeconds(5)))
+                    .isInstanceOf(PaymentProcessingException.class)
+                    .hasMessage("Payment gateway error: Malformed request");
+            assertThatThrownBy(() -> connection.call(GatewayProtocol.BATCH_CHARGE,
+                    ByteBuffer.allocate(Integer.BYTES).putInt(Integer.MAX_VALUE).flip(), Duration.ofSeconds(5)))
+                    .isInstanceOf(PaymentProcessingException.class)
+                    .hasMessage("Payment gateway error: Malformed request");
+            assertThat(connection.isOpen()).isTrue();
+        }
+    }
+
+    @Test
+    void failedWrite_ClosesConnection() throws Exception {
+        try (GatewayConnection connection = GatewayConnection.open(gateway.getAddress(), API_KEY, Duration.ofSeconds(5))) {
+            // Ett avbrott får skrivningen att kasta, som ett nätverksfel mitt i en ram
+            Thread.currentThread().interrupt();
+            try {
+                assertThatThrownBy(() -> connection.call(GatewayProtocol.CHARGE, GatewayProtocol.money(AMOUNT), Duration.ofSeconds(5)))
+                        .isInstanceOf(IOException.class);
+            } finally {
+                Thread.interrupted();
+            }
+            assertThat(connection.isOpen()).isFalse();
+        }
+    }
+
+    @Test
+    void closedClient_Throws() {
+        client.close();
+        assertThatThrownBy(() -> client.charge(AMOUNT))
+                .isInstanceOf(PaymentProcessingException.class)
+                .hasMessage("Payment API call failed");
+    }
+
+    @ParameterizedTest
+    @NullAndEmptySource
+    @ValueSource(strings = {" "})
+    void blankApiKey_Throws(String apiKey) {
+        assertThatThrownBy(() -> new PaymentGatewayClient(apiKey, new InetSocketAddress(0)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("API key cannot be null or empty");
+    }
+
+    @Test
+    void apiKeyWithoutPrefix_Throws() {
+        assertThatThrownBy(() -> new PaymentGatewayClient("pk_123", new InetSocketAddress(0)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("API key must start with 'sk_'");
+    }
+}
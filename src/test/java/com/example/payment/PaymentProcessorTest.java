@@ -1,5 +1,6 @@
 package com.example.payment;
 
+import com.example.money.Money;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -11,9 +12,22 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
 import static org.mockito.Mockito.*;
 
@@ -23,14 +37,17 @@ class PaymentProcessorTest {
     @Mock private PaymentApiClient paymentApiClient;
     @Mock private PaymentRepository paymentRepository;
     @Mock private EmailSender emailSender;
+    @Mock private PaymentMetrics paymentMetrics;
+    @Spy private IdempotencyStore idempotencyStore = new IdempotencyStore(100, Duration.ofHours(1));
     @InjectMocks private PaymentProcessor paymentProcessor;
-    @Captor private ArgumentCaptor<String> emailCaptor;
-    @Captor private ArgumentCaptor<Double> amountCaptor;
+    @Captor private ArgumentCaptor<EmailConfirmation> confirmationCaptor;
+    @Captor private ArgumentCaptor<Money> amountCaptor;
     @Captor private ArgumentCaptor<PaymentStatus> statusCaptor;
     @Captor private ArgumentCaptor<String> transactionIdCaptor;
+    @Captor private ArgumentCaptor<String> paymentIdCaptor;
 
     private static final String VALID_EMAIL = "name@example.com";
-    private static final double VALID_AMOUNT = 100.50;
+    private static final Money VALID_AMOUNT = Money.of(100.50);
     private static final String VALID_TRANSACTION_ID = "id_0000000000";
 
     private void stubSuccessfulPayment() throws PaymentProcessingException {
@@ -43,16 +60,23 @@ class PaymentProcessorTest {
     }
 
     private void verifyPaymentSaved() throws Exception {
-        verify(paymentRepository).savePayment(amountCaptor.capture(), statusCaptor.capture(), transactionIdCaptor.capture());
+        verifyPaymentSaved(PaymentStatus.COMPLETED, VALID_TRANSACTION_ID);
+    }
+
+    private void verifyPaymentSaved(PaymentStatus status, String transactionId) throws Exception {
+        var inOrder = inOrder(paymentRepository);
+        inOrder.verify(paymentRepository).savePending(paymentIdCaptor.capture(), amountCaptor.capture());
         assertThat(amountCaptor.getValue()).isEqualTo(VALID_AMOUNT);
-        assertThat(statusCaptor.getValue()).isEqualTo(PaymentStatus.COMPLETED);
-        assertThat(transactionIdCaptor.getValue()).isEqualTo(VALID_TRANSACTION_ID);
+        inOrder.verify(paymentRepository).updateStatus(eq(paymentIdCaptor.getValue()), statusCaptor.capture(), transactionIdCaptor.capture());
+        assertThat(statusCaptor.getValue()).isEqualTo(status);
+        assertThat(transactionIdCaptor.getValue()).isEqualTo(transactionId);
     }
 
     private void verifyEmailSent() throws Exception {
-        verify(emailSender).sendPaymentConfirmation(emailCaptor.capture(), amountCaptor.capture());
-        assertThat(emailCaptor.getValue()).isEqualTo(VALID_EMAIL);
-        assertThat(amountCaptor.getValue()).isEqualTo(VALID_AMOUNT);
+        verify(emailSender).sendPaymentConfirmation(confirmationCaptor.capture());
+        assertThat(confirmationCaptor.getValue().paymentId()).isNotBlank();
+        assertThat(confirmationCaptor.getValue().email()).isEqualTo(VALID_EMAIL);
+        assertThat(confirmationCaptor.getValue().amount()).isEqualTo(VALID_AMOUNT);
     }
 
     @Nested
@@ -84,6 +108,20 @@ class PaymentProcessorTest {
                     .isInstanceOf(NullPointerException.class)
                     .hasMessageContaining("emailSender cannot be null");
         }
+
+        @Test
+        void nullMetrics_Throws() {
+            assertThatThrownBy(() -> new PaymentProcessor(paymentApiClient, paymentRepository, emailSender, null))
+                    .isInstanceOf(NullPointerException.class)
+                    .hasMessageContaining("metrics cannot be null");
+        }
+
+        @Test
+        void nullIdempotencyStore_Throws() {
+            assertThatThrownBy(() -> new PaymentProcessor(paymentApiClient, paymentRepository, emailSender, paymentMetrics, null))
+                    .isInstanceOf(NullPointerException.class)
+                    .hasMessageContaining("idempotencyStore cannot be null");
+        }
     }
 
 
@@ -93,7 +131,15 @@ class PaymentProcessorTest {
         @ParameterizedTest
         @ValueSource(doubles = {0.0, -1.0, -100.50})
         void nonPositiveAmount_Throws(double invalidAmount) {
-            assertThatThrownBy(() -> paymentProcessor.processPayment(invalidAmount, VALID_EMAIL))
+            assertThatThrownBy(() -> paymentProcessor.processPayment(Money.of(invalidAmount), VALID_EMAIL))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Amount must be positive");
+            verifyNoInteractions(paymentApiClient, paymentRepository, emailSender);
+        }
+
+        @Test
+        void nullAmount_Throws() {
+            assertThatThrownBy(() -> paymentProcessor.processPayment(null, VALID_EMAIL))
                     .isInstanceOf(IllegalArgumentException.class)
                     .hasMessage("Amount must be positive");
             verifyNoInteractions(paymentApiClient, paymentRepository, emailSender);
@@ -159,17 +205,25 @@ class PaymentProcessorTest {
             when(paymentApiClient.charge(VALID_AMOUNT)).thenReturn(new PaymentApiResponse(false, null));
             boolean result = pay();
             assertThat(result).isFalse();
-            verify(paymentRepository, never()).savePayment(anyDouble(), any(), anyString());
-            verify(emailSender, never()).sendPaymentConfirmation(anyString(), anyDouble());
+            verifyPaymentSaved(PaymentStatus.FAILED, null);
+            verify(emailSender, never()).sendPaymentConfirmation(any(EmailConfirmation.class));
         }
 
         @Test
-        void apiFailsWithTransactionId_NoSave() throws Exception {
+        void apiFailsWithTransactionId_MarkedFailed() throws Exception {
             when(paymentApiClient.charge(VALID_AMOUNT)).thenReturn(new PaymentApiResponse(false, "failed-txn"));
             boolean result = pay();
             assertThat(result).isFalse();
-            verify(paymentRepository, never()).savePayment(anyDouble(), any(), anyString());
-            verify(emailSender, never()).sendPaymentConfirmation(anyString(), anyDouble());
+            verifyPaymentSaved(PaymentStatus.FAILED, "failed-txn");
+            verify(emailSender, never()).sendPaymentConfirmation(any(EmailConfirmation.class));
+        }
+
+        @Test
+        void markingDeclineFails_StillReturnsFalse() throws Exception {
+            when(paymentApiClient.charge(VALID_AMOUNT)).thenReturn(PaymentApiResponse.failure());
+            doThrow(new PaymentDataAccessException("DB error"))
+                    .when(paymentRepository).updateStatus(anyString(), eq(PaymentStatus.FAILED), any());
+            assertThat(pay()).isFalse();
         }
 
 
@@ -180,29 +234,559 @@ class PaymentProcessorTest {
             void repositoryThrows_paymentProcessingException() throws Exception {
                 stubSuccessfulPayment();
                 PaymentDataAccessException repoEx = new PaymentDataAccessException("DB error");
-                doThrow(repoEx).when(paymentRepository).savePayment(VALID_AMOUNT, PaymentStatus.COMPLETED, VALID_TRANSACTION_ID);
+                doThrow(repoEx).when(paymentRepository).updateStatus(anyString(), eq(PaymentStatus.COMPLETED), eq(VALID_TRANSACTION_ID));
                 assertThatThrownBy(() -> pay())
                         .isInstanceOf(PaymentProcessingException.class)
                         .hasMessage("Failed to save payment")
                         .hasCause(repoEx);
-                verify(emailSender, never()).sendPaymentConfirmation(anyString(), anyDouble());
+                verify(emailSender, never()).sendPaymentConfirmation(any(EmailConfirmation.class));
             }
 
             @Test
             void emailThrows_paymentStillSuccessful() throws Exception {
                 stubSuccessfulPayment();
-                doThrow(new EmailSendingException("error")).when(emailSender).sendPaymentConfirmation(VALID_EMAIL, VALID_AMOUNT);
+                doThrow(new EmailSendingException("error")).when(emailSender).sendPaymentConfirmation(any(EmailConfirmation.class));
                 assertThat(pay()).isTrue();
                 verifyPaymentSaved();
             }
 
             @Test
-            void apiThrows_bubblesUp() throws PaymentProcessingException {
+            void apiThrows_bubblesUp() throws Exception {
                 PaymentProcessingException apiEx = new PaymentProcessingException("API failed");
                 when(paymentApiClient.charge(VALID_AMOUNT)).thenThrow(apiEx);
                 assertThatThrownBy(() -> pay()).isInstanceOf(PaymentProcessingException.class).hasMessage("API failed");
-                verifyNoInteractions(paymentRepository, emailSender);
+                // Okänt utfall, betalningen ska ligga kvar som PENDING
+                verify(paymentRepository).savePending(anyString(), eq(VALID_AMOUNT));
+                verify(paymentRepository, never()).updateStatus(any(), any(), any());
+                verifyNoInteractions(emailSender);
+            }
+
+            @Test
+            void pendingWriteFails_DoesNotCharge() throws Exception {
+                PaymentDataAccessException repoEx = new PaymentDataAccessException("DB error");
+                doThrow(repoEx).when(paymentRepository).savePending(anyString(), any(Money.class));
+                assertThatThrownBy(() -> pay())
+                        .isInstanceOf(PaymentProcessingException.class)
+                        .hasMessage("Failed to save payment")
+                        .hasCause(repoEx);
+                verifyNoInteractions(paymentApiClient, emailSender);
+            }
+        }
+    }
+
+    @Nested
+    class ProcessPaymentAsync {
+
+        private final Executor sameThread = Runnable::run;
+
+        @Test
+        void success_CompletesTrueAndSendsEmail() throws Exception {
+            stubSuccessfulPayment();
+            assertThat(paymentProcessor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL, sameThread).get()).isTrue();
+            verifyPaymentSaved();
+            verifyEmailSent();
+        }
+
+        @Test
+        void completesBeforeEmailIsSent() throws Exception {
+            stubSuccessfulPayment();
+            List<Runnable> deferred = new ArrayList<>();
+            AtomicBoolean chargeStarted = new AtomicBoolean();
+            // Kör debiteringen direkt, håller kvar allt som schemaläggs efter den
+            Executor deferEmail = task -> {
+                if (chargeStarted.compareAndSet(false, true)) {
+                    task.run();
+                } else {
+                    deferred.add(task);
+                }
+            };
+            CompletableFuture<Boolean> result = paymentProcessor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL, deferEmail);
+            assertThat(result.get()).isTrue();
+            verifyPaymentSaved();
+            verifyNoInteractions(emailSender);
+
+            deferred.forEach(Runnable::run);
+            verifyEmailSent();
+        }
+
+        @Test
+        void declined_CompletesFalse() throws Exception {
+            when(paymentApiClient.charge(VALID_AMOUNT)).thenReturn(PaymentApiResponse.failure());
+            assertThat(paymentProcessor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL, sameThread).get()).isFalse();
+            verifyPaymentSaved(PaymentStatus.FAILED, null);
+            verifyNoInteractions(emailSender);
+        }
+
+        @Test
+        void repositoryThrows_CompletesExceptionally() throws Exception {
+            stubSuccessfulPayment();
+            PaymentDataAccessException repoEx = new PaymentDataAccessException("DB error");
+            doThrow(repoEx).when(paymentRepository).updateStatus(anyString(), eq(PaymentStatus.COMPLETED), eq(VALID_TRANSACTION_ID));
+            assertThatThrownBy(() -> paymentProcessor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL, sameThread).get())
+                    .isInstanceOf(ExecutionException.class)
+                    .cause()
+                    .isInstanceOf(PaymentProcessingException.class)
+                    .hasMessage("Failed to save payment")
+                    .hasCause(repoEx);
+            verifyNoInteractions(emailSender);
+        }
+
+        @Test
+        void preconditionPending_ChargesButWaitsBeforeCompleting() throws Exception {
+            stubSuccessfulPayment();
+            CompletableFuture<Void> precondition = new CompletableFuture<>();
+            CompletableFuture<Boolean> result = paymentProcessor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL, sameThread, precondition);
+
+            verify(paymentApiClient).charge(VALID_AMOUNT);
+            assertThat(result).isNotDone();
+            verify(paymentRepository, never()).updateStatus(anyString(), any(), any());
+
+            precondition.complete(null);
+            assertThat(result.get()).isTrue();
+            verifyPaymentSaved();
+            verifyEmailSent();
+        }
+
+        @Test
+        void preconditionFailed_RefundsAndCompletesWithItsError() throws Exception {
+            stubSuccessfulPayment();
+            when(paymentApiClient.refund(VALID_TRANSACTION_ID)).thenReturn(PaymentApiResponse.success(VALID_TRANSACTION_ID));
+            IllegalStateException reason = new IllegalStateException("Out of stock");
+
+            CompletableFuture<Boolean> result = paymentProcessor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL, sameThread,
+                    CompletableFuture.failedFuture(reason));
+
+            assertThatThrownBy(result::get).isInstanceOf(ExecutionException.class).cause().isSameAs(reason);
+            var inOrder = inOrder(paymentRepository);
+            inOrder.verify(paymentRepository).updateStatus(anyString(), eq(PaymentStatus.COMPLETED), eq(VALID_TRANSACTION_ID));
+            inOrder.verify(paymentRepository).updateStatus(anyString(), eq(PaymentStatus.REFUNDED), eq(VALID_TRANSACTION_ID));
+            verifyNoInteractions(emailSender);
+        }
+
+        @Test
+        void preconditionFailedAndRefundDeclined_CompletesWithProcessingException() throws Exception {
+            stubSuccessfulPayment();
+            when(paymentApiClient.refund(VALID_TRANSACTION_ID)).thenReturn(PaymentApiResponse.failure());
+            IllegalStateException reason = new IllegalStateException("Out of stock");
+
+            CompletableFuture<Boolean> result = paymentProcessor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL, sameThread,
+                    CompletableFuture.failedFuture(reason));
+
+            assertThatThrownBy(result::get)
+                    .isInstanceOf(ExecutionException.class)
+                    .cause()
+                    .isInstanceOf(PaymentProcessingException.class)
+                    .hasMessageStartingWith("Precondition failed and refund was declined for payment ")
+                    .hasCause(reason);
+            verify(paymentRepository, never()).updateStatus(anyString(), eq(PaymentStatus.REFUNDED), any());
+            verifyNoInteractions(emailSender);
+        }
+
+        @Test
+        void preconditionFailedAndDeclined_CompletesFalseWithoutRefund() throws Exception {
+            when(paymentApiClient.charge(VALID_AMOUNT)).thenReturn(PaymentApiResponse.failure());
+
+            CompletableFuture<Boolean> result = paymentProcessor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL, sameThread,
+                    CompletableFuture.failedFuture(new IllegalStateException("Out of stock")));
+
+            assertThat(result.get()).isFalse();
+            verify(paymentApiClient, never()).refund(anyString());
+            verifyPaymentSaved(PaymentStatus.FAILED, null);
+        }
+
+        @Test
+        void invalidAmount_ThrowsImmediately() {
+            assertThatThrownBy(() -> paymentProcessor.processPaymentAsync(Money.of(0.0), VALID_EMAIL))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Amount must be positive");
+            verifyNoInteractions(paymentApiClient, paymentRepository, emailSender);
+        }
+
+        @Test
+        void defaultExecutor_RunsOnVirtualThread() throws Exception {
+            AtomicBoolean virtual = new AtomicBoolean();
+            when(paymentApiClient.charge(VALID_AMOUNT)).thenAnswer(invocation -> {
+                virtual.set(Thread.currentThread().isVirtual());
+                return new PaymentApiResponse(true, VALID_TRANSACTION_ID);
+            });
+            assertThat(paymentProcessor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL).get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(virtual.get()).isTrue();
+        }
+    }
+
+    @Nested
+    class ProcessPayments {
+
+        private static final Money DECLINED_AMOUNT = Money.of(13.0);
+
+        @Captor private ArgumentCaptor<List<PendingPayment>> pendingCaptor;
+        @Captor private ArgumentCaptor<List<PaymentStatusUpdate>> updatesCaptor;
+
+        @BeforeEach
+        void setUp() throws PaymentProcessingException {
+            lenient().when(paymentApiClient.charge(any(Money.class))).thenAnswer(invocation -> {
+                Money amount = invocation.getArgument(0);
+                return amount.equals(DECLINED_AMOUNT)
+                        ? PaymentApiResponse.failure()
+                        : PaymentApiResponse.success("txn-" + amount);
+            });
+        }
+
+        @Test
+        void returnsOutcomePerRequestInOrder() throws Exception {
+            List<PaymentRequest> requests = List.of(
+                    new PaymentRequest(VALID_AMOUNT, VALID_EMAIL),
+                    new PaymentRequest(DECLINED_AMOUNT, VALID_EMAIL),
+                    new PaymentRequest(Money.of(-1.0), VALID_EMAIL));
+
+            List<PaymentOutcome> outcomes = paymentProcessor.processPayments(requests, 2);
+
+            assertThat(outcomes.get(0).result()).isEqualTo(PaymentOutcome.Result.COMPLETED);
+            assertThat(outcomes.get(0).transactionId()).isEqualTo("txn-" + VALID_AMOUNT);
+            assertThat(outcomes.get(1).result()).isEqualTo(PaymentOutcome.Result.DECLINED);
+            assertThat(outcomes.get(2).result()).isEqualTo(PaymentOutcome.Result.FAILED);
+            assertThat(outcomes.get(2).error()).isInstanceOf(IllegalArgumentException.class);
+            verify(paymentApiClient, times(2)).charge(any(Money.class));
+        }
+
+        @Test
+        void writesPendingAndFinalStatusInOneBulkWriteEach() throws Exception {
+            List<PaymentRequest> requests = List.of(
+                    new PaymentRequest(Money.of(10.0), VALID_EMAIL),
+                    new PaymentRequest(DECLINED_AMOUNT, VALID_EMAIL),
+                    new PaymentRequest(Money.of(20.0), VALID_EMAIL));
+
+            paymentProcessor.processPayments(requests, 4);
+
+            var inOrder = inOrder(paymentRepository);
+            inOrder.verify(paymentRepository).savePendingPayments(pendingCaptor.capture());
+            inOrder.verify(paymentRepository).updateStatuses(updatesCaptor.capture());
+            List<PendingPayment> pending = pendingCaptor.getValue();
+            assertThat(pending).extracting(PendingPayment::amount).containsExactly(Money.of(10.0), DECLINED_AMOUNT, Money.of(20.0));
+            assertThat(updatesCaptor.getValue()).containsExactly(
+                    new PaymentStatusUpdate(pending.get(0).paymentId(), PaymentStatus.COMPLETED, "txn-10.00 SEK"),
+                    new PaymentStatusUpdate(pending.get(1).paymentId(), PaymentStatus.FAILED, null),
+                    new PaymentStatusUpdate(pending.get(2).paymentId(), PaymentStatus.COMPLETED, "txn-20.00 SEK"));
+            verify(paymentRepository, never()).savePending(anyString(), any(Money.class));
+            verify(paymentRepository, never()).updateStatus(anyString(), any(), any());
+            verify(emailSender).sendPaymentConfirmation(new EmailConfirmation(pending.get(0).paymentId(), VALID_EMAIL, Money.of(10.0)));
+            verify(emailSender).sendPaymentConfirmation(new EmailConfirmation(pending.get(2).paymentId(), VALID_EMAIL, Money.of(20.0)));
+            verify(emailSender, times(2)).sendPaymentConfirmation(any(EmailConfirmation.class));
+        }
+
+        @Test
+        void largeBatch_IsWrittenInChunks() throws Exception {
+            List<PaymentRequest> requests = new ArrayList<>();
+            for (int i = 1; i <= 501; i++) {
+                requests.add(new PaymentRequest(Money.of(100 + i), VALID_EMAIL));
+            }
+            List<PaymentOutcome> outcomes = paymentProcessor.processPayments(requests, 16);
+            assertThat(outcomes).allMatch(PaymentOutcome::isSuccess);
+            verify(paymentRepository, times(2)).savePendingPayments(anyList());
+            verify(paymentRepository, times(2)).updateStatuses(anyList());
+        }
+
+        @Test
+        void bulkWriteFails_MarksChargedPaymentsFailed() throws Exception {
+            PaymentDataAccessException repoEx = new PaymentDataAccessException("DB error");
+            doThrow(repoEx).when(paymentRepository).updateStatuses(anyList());
+
+            List<PaymentOutcome> outcomes = paymentProcessor.processPayments(
+                    List.of(new PaymentRequest(VALID_AMOUNT, VALID_EMAIL)), 1);
+
+            PaymentOutcome outcome = outcomes.get(0);
+            assertThat(outcome.result()).isEqualTo(PaymentOutcome.Result.FAILED);
+            assertThat(outcome.transactionId()).isEqualTo("txn-" + VALID_AMOUNT);
+            assertThat(outcome.error()).isInstanceOf(PaymentProcessingException.class).hasCause(repoEx);
+            verifyNoInteractions(emailSender);
+        }
+
+        @Test
+        void pendingBulkWriteFails_ChargesNothing() throws Exception {
+            PaymentDataAccessException repoEx = new PaymentDataAccessException("DB error");
+            doThrow(repoEx).when(paymentRepository).savePendingPayments(anyList());
+
+            List<PaymentOutcome> outcomes = paymentProcessor.processPayments(List.of(
+                    new PaymentRequest(VALID_AMOUNT, VALID_EMAIL),
+                    new PaymentRequest(Money.of(-1.0), VALID_EMAIL)), 1);
+
+            assertThat(outcomes.get(0).result()).isEqualTo(PaymentOutcome.Result.FAILED);
+            assertThat(outcomes.get(0).error()).isInstanceOf(PaymentProcessingException.class).hasCause(repoEx);
+            assertThat(outcomes.get(1).error()).isInstanceOf(IllegalArgumentException.class);
+            verifyNoInteractions(paymentApiClient, emailSender);
+            verify(paymentRepository, never()).updateStatuses(anyList());
+        }
+
+        @Test
+        void chargesWithBoundedParallelism() throws Exception {
+            AtomicInteger inFlight = new AtomicInteger();
+            AtomicInteger maxInFlight = new AtomicInteger();
+            when(paymentApiClient.charge(any(Money.class))).thenAnswer(invocation -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                Thread.sleep(2);
+                inFlight.decrementAndGet();
+                return PaymentApiResponse.success(VALID_TRANSACTION_ID);
+            });
+            List<PaymentRequest> requests = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                requests.add(new PaymentRequest(VALID_AMOUNT, VALID_EMAIL));
             }
+
+            paymentProcessor.processPayments(requests, 3);
+
+            assertThat(maxInFlight.get()).isBetween(1, 3);
+        }
+
+        @Test
+        void nonPositiveParallelism_Throws() {
+            assertThatThrownBy(() -> paymentProcessor.processPayments(List.of(), 0))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Parallelism must be positive");
+        }
+    }
+
+    @Nested
+    class ProcessPaymentWithIdempotencyKey {
+
+        private static final String IDEMPOTENCY_KEY = "order-42";
+
+        @Test
+        void retry_ChargesSavesAndEmailsOnce() throws Exception {
+            stubSuccessfulPayment();
+            assertThat(paymentProcessor.processPayment(IDEMPOTENCY_KEY, VALID_AMOUNT, VALID_EMAIL)).isTrue();
+            assertThat(paymentProcessor.processPayment(IDEMPOTENCY_KEY, VALID_AMOUNT, VALID_EMAIL)).isTrue();
+            verify(paymentApiClient, times(1)).charge(VALID_AMOUNT);
+            verifyPaymentSaved();
+            verifyEmailSent();
+        }
+
+        @Test
+        void differentKeys_ChargeSeparately() throws Exception {
+            stubSuccessfulPayment();
+            paymentProcessor.processPayment("order-1", VALID_AMOUNT, VALID_EMAIL);
+            paymentProcessor.processPayment("order-2", VALID_AMOUNT, VALID_EMAIL);
+            verify(paymentApiClient, times(2)).charge(VALID_AMOUNT);
+        }
+
+        @Test
+        void declinedRetry_ReturnsFalseWithoutCharging() throws Exception {
+            when(paymentApiClient.charge(VALID_AMOUNT)).thenReturn(PaymentApiResponse.failure());
+            assertThat(paymentProcessor.processPayment(IDEMPOTENCY_KEY, VALID_AMOUNT, VALID_EMAIL)).isFalse();
+            assertThat(paymentProcessor.processPayment(IDEMPOTENCY_KEY, VALID_AMOUNT, VALID_EMAIL)).isFalse();
+            verify(paymentApiClient, times(1)).charge(VALID_AMOUNT);
+            verifyPaymentSaved(PaymentStatus.FAILED, null);
+            verifyNoInteractions(emailSender);
+        }
+
+        @Test
+        void reusedKeyWithDifferentAmount_ThrowsWithoutCharging() throws Exception {
+            stubSuccessfulPayment();
+            paymentProcessor.processPayment(IDEMPOTENCY_KEY, VALID_AMOUNT, VALID_EMAIL);
+            assertThatThrownBy(() -> paymentProcessor.processPayment(IDEMPOTENCY_KEY, Money.of(999.0), VALID_EMAIL))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Idempotency key order-42 was already used for a different request");
+            verify(paymentApiClient, times(1)).charge(any());
+        }
+
+        @Test
+        void reusedKeyWithDifferentEmail_ThrowsWithoutCharging() throws Exception {
+            stubSuccessfulPayment();
+            paymentProcessor.processPayment(IDEMPOTENCY_KEY, VALID_AMOUNT, VALID_EMAIL);
+            assertThatThrownBy(() -> paymentProcessor.processPayment(IDEMPOTENCY_KEY, VALID_AMOUNT, "other@example.com"))
+                    .isInstanceOf(IllegalArgumentException.class);
+            verify(paymentApiClient, times(1)).charge(any());
+            verify(emailSender, times(1)).sendPaymentConfirmation(any());
+        }
+
+        @Test
+        void apiThrows_RetryCallsGatewayAgain() throws Exception {
+            when(paymentApiClient.charge(VALID_AMOUNT))
+                    .thenThrow(new PaymentProcessingException("timeout"))
+                    .thenReturn(new PaymentApiResponse(true, VALID_TRANSACTION_ID));
+            assertThatThrownBy(() -> paymentProcessor.processPayment(IDEMPOTENCY_KEY, VALID_AMOUNT, VALID_EMAIL))
+                    .isInstanceOf(PaymentProcessingException.class);
+            assertThat(paymentProcessor.processPayment(IDEMPOTENCY_KEY, VALID_AMOUNT, VALID_EMAIL)).isTrue();
+            verify(paymentApiClient, times(2)).charge(VALID_AMOUNT);
+        }
+
+        @ParameterizedTest
+        @NullAndEmptySource
+        @ValueSource(strings = {" "})
+        void blankKey_Throws(String invalidKey) {
+            assertThatThrownBy(() -> paymentProcessor.processPayment(invalidKey, VALID_AMOUNT, VALID_EMAIL))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Idempotency key cannot be null or empty");
+            verifyNoInteractions(paymentApiClient, paymentRepository, emailSender);
+        }
+    }
+
+    @Nested
+    class RefundPayment {
+
+        private StoredPayment stored(PaymentStatus status) {
+            return new StoredPayment("pay-1", VALID_AMOUNT, status, VALID_TRANSACTION_ID, Instant.EPOCH);
+        }
+
+        @Test
+        void completedPayment_RefundsAndMarksRefunded() throws Exception {
+            when(paymentRepository.findByTransactionId(VALID_TRANSACTION_ID))
+                    .thenReturn(Optional.of(stored(PaymentStatus.COMPLETED)));
+            when(paymentApiClient.refund(VALID_TRANSACTION_ID)).thenReturn(PaymentApiResponse.success(VALID_TRANSACTION_ID));
+
+            assertThat(paymentProcessor.refundPayment(VALID_TRANSACTION_ID)).isTrue();
+            verify(paymentRepository).updateStatus("pay-1", PaymentStatus.REFUNDED, VALID_TRANSACTION_ID);
+        }
+
+        @Test
+        void gatewayDeclines_ReturnsFalseAndKeepsStatus() throws Exception {
+            when(paymentRepository.findByTransactionId(VALID_TRANSACTION_ID))
+                    .thenReturn(Optional.of(stored(PaymentStatus.COMPLETED)));
+            when(paymentApiClient.refund(VALID_TRANSACTION_ID)).thenReturn(PaymentApiResponse.failure());
+
+            assertThat(paymentProcessor.refundPayment(VALID_TRANSACTION_ID)).isFalse();
+            verify(paymentRepository, never()).updateStatus(anyString(), any(), any());
+        }
+
+        @Test
+        void notCompleted_Throws() throws Exception {
+            when(paymentRepository.findByTransactionId(VALID_TRANSACTION_ID))
+                    .thenReturn(Optional.of(stored(PaymentStatus.REFUNDED)));
+
+            assertThatThrownBy(() -> paymentProcessor.refundPayment(VALID_TRANSACTION_ID))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("Only completed payments can be refunded, was REFUNDED");
+            verifyNoInteractions(paymentApiClient);
+        }
+
+        @Test
+        void unknownTransaction_Throws() throws Exception {
+            when(paymentRepository.findByTransactionId("missing")).thenReturn(Optional.empty());
+
+            assertThatThrownBy(() -> paymentProcessor.refundPayment("missing"))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Payment not found: missing");
+            verifyNoInteractions(paymentApiClient);
+        }
+
+        @Test
+        void repositoryThrows_paymentProcessingException() throws Exception {
+            when(paymentRepository.findByTransactionId(VALID_TRANSACTION_ID))
+                    .thenReturn(Optional.of(stored(PaymentStatus.COMPLETED)));
+            when(paymentApiClient.refund(VALID_TRANSACTION_ID)).thenReturn(PaymentApiResponse.success(VALID_TRANSACTION_ID));
+            PaymentDataAccessException repoEx = new PaymentDataAccessException("DB error");
+            doThrow(repoEx).when(paymentRepository).updateStatus("pay-1", PaymentStatus.REFUNDED, VALID_TRANSACTION_ID);
+
+            assertThatThrownBy(() -> paymentProcessor.refundPayment(VALID_TRANSACTION_ID))
+                    .isInstanceOf(PaymentProcessingException.class)
+                    .hasMessage("Failed to save refund")
+                    .hasCause(repoEx);
+        }
+
+        @ParameterizedTest
+        @NullAndEmptySource
+        @ValueSource(strings = {" "})
+        void blankTransactionId_Throws(String invalidId) {
+            assertThatThrownBy(() -> paymentProcessor.refundPayment(invalidId))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Transaction ID cannot be null or empty");
+            verifyNoInteractions(paymentApiClient, paymentRepository);
+        }
+    }
+
+    @Nested
+    class Metrics {
+
+        private final InMemoryPaymentMetrics metrics = new InMemoryPaymentMetrics();
+        private PaymentProcessor processor;
+
+        @BeforeEach
+        void setUp() {
+            processor = new PaymentProcessor(paymentApiClient, paymentRepository, emailSender, metrics);
+        }
+
+        private long latencyCount(PaymentMetrics.Stage stage) {
+            return metrics.getLatency(stage).getCount();
+        }
+
+        @Test
+        void success_RecordsEveryStageAndCompleted() throws Exception {
+            stubSuccessfulPayment();
+            processor.processPayment(VALID_AMOUNT, VALID_EMAIL);
+
+            assertThat(metrics.getCount(PaymentOutcome.Result.COMPLETED)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.SAVE_PENDING)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.CHARGE)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.UPDATE_STATUS)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.EMAIL)).isEqualTo(1);
+            assertThat(metrics.getEmailFailures()).isZero();
+        }
+
+        @Test
+        void declined_RecordsDeclined() throws Exception {
+            when(paymentApiClient.charge(VALID_AMOUNT)).thenReturn(PaymentApiResponse.failure());
+            processor.processPayment(VALID_AMOUNT, VALID_EMAIL);
+
+            assertThat(metrics.getCount(PaymentOutcome.Result.DECLINED)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.EMAIL)).isZero();
+        }
+
+        @Test
+        void apiThrows_RecordsFailedAndChargeLatency() throws Exception {
+            when(paymentApiClient.charge(VALID_AMOUNT)).thenThrow(new PaymentProcessingException("timeout"));
+            assertThatThrownBy(() -> processor.processPayment(VALID_AMOUNT, VALID_EMAIL))
+                    .isInstanceOf(PaymentProcessingException.class);
+
+            assertThat(metrics.getCount(PaymentOutcome.Result.FAILED)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.CHARGE)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.UPDATE_STATUS)).isZero();
+        }
+
+        @Test
+        void emailThrows_CountsEmailFailure() throws Exception {
+            stubSuccessfulPayment();
+            doThrow(new EmailSendingException("error")).when(emailSender).sendPaymentConfirmation(any(EmailConfirmation.class));
+            processor.processPayment(VALID_AMOUNT, VALID_EMAIL);
+
+            assertThat(metrics.getEmailFailures()).isEqualTo(1);
+            assertThat(metrics.getCount(PaymentOutcome.Result.COMPLETED)).isEqualTo(1);
+        }
+
+        @Test
+        void idempotentReplay_IsNotCountedTwice() throws Exception {
+            stubSuccessfulPayment();
+            processor.processPayment("order-42", VALID_AMOUNT, VALID_EMAIL);
+            processor.processPayment("order-42", VALID_AMOUNT, VALID_EMAIL);
+
+            assertThat(metrics.getCount(PaymentOutcome.Result.COMPLETED)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.CHARGE)).isEqualTo(1);
+        }
+
+        @Test
+        void async_RecordsOutcome() throws Exception {
+            stubSuccessfulPayment();
+            processor.processPaymentAsync(VALID_AMOUNT, VALID_EMAIL, Runnable::run).get();
+
+            assertThat(metrics.getCount(PaymentOutcome.Result.COMPLETED)).isEqualTo(1);
+        }
+
+        @Test
+        void batch_RecordsOutcomePerRequestAndOneSamplePerBulkWrite() throws Exception {
+            when(paymentApiClient.charge(any(Money.class))).thenAnswer(invocation ->
+                    invocation.getArgument(0, Money.class).equals(Money.of(13.0))
+                            ? PaymentApiResponse.failure()
+                            : PaymentApiResponse.success(VALID_TRANSACTION_ID));
+
+            processor.processPayments(List.of(
+                    new PaymentRequest(Money.of(10.0), VALID_EMAIL),
+                    new PaymentRequest(Money.of(13.0), VALID_EMAIL),
+                    new PaymentRequest(Money.of(-1.0), VALID_EMAIL)), 2);
+
+            assertThat(metrics.getCount(PaymentOutcome.Result.COMPLETED)).isEqualTo(1);
+            assertThat(metrics.getCount(PaymentOutcome.Result.DECLINED)).isEqualTo(1);
+            assertThat(metrics.getCount(PaymentOutcome.Result.FAILED)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.CHARGE)).isEqualTo(2);
+            assertThat(latencyCount(PaymentMetrics.Stage.SAVE_PENDING)).isEqualTo(1);
+            assertThat(latencyCount(PaymentMetrics.Stage.UPDATE_STATUS)).isEqualTo(1);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package com.example.payment;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+class RecordLogTest {
+
+    @TempDir Path directory;
+
+    private static ByteBuffer payload(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(ByteBuffer payload) {
+        return StandardCharsets.UTF_8.decode(payload).toString();
+    }
+
+    @Test
+    void appendedRecords_AreReadBackInOrder() throws Exception {
+        Path file = directory.resolve("records.log");
+        try (RecordLog log = RecordLog.open(file)) {
+            log.append(List.of(payload("a"), payload("b")));
+            log.append(List.of(payload("c")));
+        }
+        try (RecordLog log = RecordLog.open(file)) {
+            assertThat(log.read(RecordLogTest::text)).containsExactly("a", "b", "c");
+        }
+    }
+
+    @Test
+    void recordsSpanningReadChunks_AreReadBack() throws Exception {
+        Path file = directory.resolve("records.log");
+        List<String> values = new ArrayList<>();
+        List<ByteBuffer> payloads = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            values.add("record-" + i + "-".repeat(i % 97));
+            payloads.add(payload(values.get(i)));
+        }
+        String large = "x".repeat(200 * 1024);
+        values.add(large);
+        payloads.add(payload(large));
+        try (RecordLog log = RecordLog.open(file)) {
+            log.append(payloads);
+            assertThat(log.read(RecordLogTest::text)).containsExactlyElementsOf(values);
+        }
+    }
+
+    @Test
+    void tornTail_StopsReading() throws Exception {
+        Path file = directory.resolve("records.log");
+        try (RecordLog log = RecordLog.open(file)) {
+            log.append(List.of(payload("a")));
+        }
+        Files.write(file, new byte[]{0, 0, 0, 5, 1, 2, 3, 4, 'b'}, StandardOpenOption.APPEND);
+        try (RecordLog log = RecordLog.open(file)) {
+            assertThat(log.read(RecordLogTest::text)).containsExactly("a");
+        }
+    }
+
+    @Test
+    void clearIfLargerThan_OnlyClearsLargeLogs() throws Exception {
+        Path file = directory.resolve("records.log");
+        try (RecordLog log = RecordLog.open(file)) {
+            log.append(List.of(payload("abc")));
+            log.clearIfLargerThan(1024);
+            assertThat(log.read(RecordLogTest::text)).containsExactly("abc");
+            log.clearIfLargerThan(4);
+            assertThat(log.read(RecordLogTest::text)).isEmpty();
+        }
+    }
+}
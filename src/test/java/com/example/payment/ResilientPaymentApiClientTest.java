@@ -0,0 +1,161 @@
+package com.example.payment;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ResilientPaymentApiClientTest {
+
+    private static final Money AMOUNT = Money.of(100.50);
+    private static final PaymentApiResponse SUCCESS = PaymentApiResponse.success("txn-1");
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+    @Mock private PaymentApiClient delegate;
+
+    private final AtomicLong now = new AtomicLong();
+    private ResilientPaymentApiClient client;
+
+    private static ResiliencePolicy policy(int maxConcurrentCalls) {
+        return new ResiliencePolicy(4, 4, 0.5, OPEN_DURATION, maxConcurrentCalls,
+                Duration.ofMillis(50), Duration.ofMillis(200), 2.0, 3);
+    }
+
+    @BeforeEach
+    void setUp() {
+        client = new ResilientPaymentApiClient(delegate, policy(8), now::get);
+    }
+
+    private void failTimes(int times) throws PaymentProcessingException {
+        for (int i = 0; i < times; i++) {
+            assertThatThrownBy(() -> client.charge(AMOUNT)).isInstanceOf(PaymentProcessingException.class);
+        }
+    }
+
+    @Test
+    void success_PassesThroughAndRecordsLatency() throws Exception {
+        when(delegate.charge(AMOUNT)).thenReturn(SUCCESS);
+        assertThat(client.charge(AMOUNT)).isEqualTo(SUCCESS);
+        assertThat(client.getLatencyHistogram().getCount()).isEqualTo(1);
+        assertThat(client.getCircuitState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void declinedResponse_DoesNotCountAsFailure() throws Exception {
+        when(delegate.charge(AMOUNT)).thenReturn(PaymentApiResponse.failure());
+        for (int i = 0; i < 4; i++) {
+            assertThat(client.charge(AMOUNT).isSuccess()).isFalse();
+        }
+        assertThat(client.getCircuitState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(client.getFailureRate()).isZero();
+    }
+
+    @Test
+    void delegateException_IsRethrown() throws Exception {
+        PaymentProcessingException apiEx = new PaymentProcessingException("API failed");
+        when(delegate.charge(AMOUNT)).thenThrow(apiEx);
+        assertThatThrownBy(() -> client.charge(AMOUNT)).isSameAs(apiEx);
+    }
+
+    @Test
+    void failureRateAboveThreshold_OpensCircuitAndFailsFast() throws Exception {
+        when(delegate.charge(AMOUNT))
+                .thenReturn(SUCCESS)
+                .thenReturn(SUCCESS)
+                .thenThrow(new PaymentProcessingException("API failed"));
+        client.charge(AMOUNT);
+        client.charge(AMOUNT);
+        failTimes(2);
+        assertThat(client.getCircuitState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        assertThatThrownBy(() -> client.charge(AMOUNT))
+                .isInstanceOf(PaymentProcessingException.class)
+                .hasMessage("Payment gateway circuit is open");
+        verify(delegate, times(4)).charge(AMOUNT);
+        assertThat(client.getRejectedByCircuit()).isEqualTo(1);
+    }
+
+    @Test
+    void halfOpenTrialSuccess_ClosesCircuit() throws Exception {
+        when(delegate.charge(AMOUNT)).thenThrow(new PaymentProcessingException("API failed"));
+        failTimes(4);
+        now.addAndGet(OPEN_DURATION.toNanos());
+
+        doReturn(SUCCESS).when(delegate).charge(AMOUNT);
+        assertThat(client.charge(AMOUNT)).isEqualTo(SUCCESS);
+        assertThat(client.getCircuitState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void halfOpenTrialFailure_ReopensCircuit() throws Exception {
+        when(delegate.charge(AMOUNT)).thenThrow(new PaymentProcessingException("API failed"));
+        failTimes(4);
+        now.addAndGet(OPEN_DURATION.toNanos());
+
+        failTimes(1);
+        assertThat(client.getCircuitState()).isEqualTo(CircuitBreaker.State.OPEN);
+        verify(delegate, times(5)).charge(AMOUNT);
+    }
+
+    @Test
+    void slowGateway_TimesOut() throws Exception {
+        when(delegate.charge(AMOUNT)).thenAnswer(invocation -> {
+            Thread.sleep(1_000);
+            return SUCCESS;
+        });
+        assertThatThrownBy(() -> client.charge(AMOUNT))
+                .isInstanceOf(PaymentProcessingException.class)
+                .hasMessage("Payment gateway timed out after 200 ms");
+        assertThat(client.getTimeouts()).isEqualTo(1);
+    }
+
+    @Test
+    void fastGateway_AdaptsTimeoutDown() throws Exception {
+        when(delegate.charge(AMOUNT)).thenReturn(SUCCESS);
+        assertThat(client.getCurrentTimeout()).isEqualTo(Duration.ofMillis(200));
+        for (int i = 0; i < 3; i++) {
+            client.charge(AMOUNT);
+        }
+        assertThat(client.getCurrentTimeout()).isEqualTo(Duration.ofMillis(50));
+    }
+
+    @Test
+    void bulkheadFull_RejectsImmediately() throws Exception {
+        client = new ResilientPaymentApiClient(delegate, policy(1), now::get);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(delegate.charge(AMOUNT)).thenAnswer(invocation -> {
+            entered.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return SUCCESS;
+        });
+        CompletableFuture<PaymentApiResponse> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.charge(AMOUNT);
+            } catch (PaymentProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> client.charge(AMOUNT))
+                .isInstanceOf(PaymentProcessingException.class)
+                .hasMessage("Payment gateway bulkhead is full");
+        assertThat(client.getRejectedByBulkhead()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(SUCCESS);
+    }
+}
@@ -0,0 +1,367 @@
+package com.example.payment;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+class WriteAheadLogPaymentRepositoryTest {
+
+    @TempDir Path directory;
+
+    private static class RecordingRepository implements PaymentRepository {
+        private final List<PaymentRecord> saved = Collections.synchronizedList(new ArrayList<>());
+        private final InMemoryPaymentRepository payments = new InMemoryPaymentRepository();
+        private volatile boolean failing;
+        private final AtomicInteger statusFailures = new AtomicInteger();
+        private volatile CountDownLatch pendingGate;
+
+        @Override
+        public void savePayment(Money amount, PaymentStatus status, String transactionId) throws PaymentDataAccessException {
+            checkAvailable();
+            saved.add(new PaymentRecord(amount, status, transactionId));
+            payments.savePayment(amount, status, transactionId);
+        }
+
+        @Override
+        public void savePending(String paymentId, Money amount) throws PaymentDataAccessException {
+            checkAvailable();
+            CountDownLatch gate = pendingGate;
+            if (gate != null) {
+                pendingGate = null;
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            payments.savePending(paymentId, amount);
+        }
+
+        @Override
+        public void updateStatus(String paymentId, PaymentStatus status, String transactionId) throws PaymentDataAccessException {
+            checkAvailable();
+            if (statusFailures.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+                throw new PaymentDataAccessException("DB down");
+            }
+            payments.updateStatus(paymentId, status, transactionId);
+        }
+
+        @Override
+        public Optional<StoredPayment> findById(String paymentId) {
+            return payments.findById(paymentId);
+        }
+
+        @Override
+        public Optional<StoredPayment> findByTransactionId(String transactionId) {
+            return payments.findByTransactionId(transactionId);
+        }
+
+        @Override
+        public List<StoredPayment> findPendingOlderThan(Instant cutoff) {
+            return payments.findPendingOlderThan(cutoff);
+        }
+
+        private void checkAvailable() throws PaymentDataAccessException {
+            if (failing) {
+                throw new PaymentDataAccessException("DB down");
+            }
+        }
+    }
+
+    // Skriver halva posten och kastar sedan, som en full disk mitt i en skrivning
+    private static class FailingChannel extends FileChannel {
+        private final FileChannel channel;
+        private volatile boolean failNextWrite;
+
+        FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            if (failNextWrite) {
+                failNextWrite = false;
+                ByteBuffer half = src.slice(src.position(), src.remaining() / 2);
+                channel.write(half, position);
+                throw new IOException("No space left on device");
+            }
+            return channel.write(src, position);
+        }
+
+        @Override public int read(ByteBuffer dst) throws IOException { return channel.read(dst); }
+        @Override public long read(ByteBuffer[] dsts, int offset, int length) throws IOException { return channel.read(dsts, offset, length); }
+        @Override public int write(ByteBuffer src) throws IOException { return channel.write(src); }
+        @Override public long write(ByteBuffer[] srcs, int offset, int length) throws IOException { return channel.write(srcs, offset, length); }
+        @Override public long position() throws IOException { return channel.position(); }
+        @Override public FileChannel position(long newPosition) throws IOException { channel.position(newPosition); return this; }
+        @Override public long size() throws IOException { return channel.size(); }
+        @Override public FileChannel truncate(long size) throws IOException { channel.truncate(size); return this; }
+        @Override public void force(boolean metaData) throws IOException { channel.force(metaData); }
+        @Override public long transferTo(long position, long count, WritableByteChannel target) throws IOException { return channel.transferTo(position, count, target); }
+        @Override public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException { return channel.transferFrom(src, position, count); }
+        @Override public int read(ByteBuffer dst, long position) throws IOException { return channel.read(dst, position); }
+        @Override public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException { return channel.map(mode, position, size); }
+        @Override public FileLock lock(long position, long size, boolean shared) throws IOException { return channel.lock(position, size, shared); }
+        @Override public FileLock tryLock(long position, long size, boolean shared) throws IOException { return channel.tryLock(position, size, shared); }
+        @Override protected void implCloseChannel() throws IOException { channel.close(); }
+    }
+
+    private static PaymentRecord payment(int i) {
+        return new PaymentRecord(Money.of(100.0 + i), PaymentStatus.COMPLETED, "txn-" + i);
+    }
+
+    @Test
+    void acknowledgedWrites_AreFlushedToDelegate() throws Exception {
+        RecordingRepository delegate = new RecordingRepository();
+        try (WriteAheadLogPaymentRepository repository = new WriteAheadLogPaymentRepository(directory, delegate)) {
+            repository.savePayment(Money.of(100.0), PaymentStatus.COMPLETED, "txn-0");
+            repository.savePayments(List.of(payment(1), payment(2)));
+        }
+        assertThat(delegate.saved).containsExactly(
+                new PaymentRecord(Money.of(100.0), PaymentStatus.COMPLETED, "txn-0"), payment(1), payment(2));
+    }
+
+    @Test
+    void concurrentWriters_AreAllDurableAndFlushed() throws Exception {
+        RecordingRepository delegate = new RecordingRepository();
+        try (WriteAheadLogPaymentRepository repository = new WriteAheadLogPaymentRepository(directory, delegate)) {
+            List<CompletableFuture<Void>> writers = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                PaymentRecord payment = payment(i);
+                writers.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        repository.savePayment(payment.amount(), payment.status(), payment.transactionId());
+                    } catch (PaymentDataAccessException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }));
+            }
+            CompletableFuture.allOf(writers.toArray(CompletableFuture[]::new)).join();
+        }
+        assertThat(delegate.saved).hasSize(64);
+    }
+
+    @Test
+    void crashBeforeFlush_ReplaysUnflushedRecordsOnRestart() throws Exception {
+        RecordingRepository down = new RecordingRepository();
+        down.failing = true;
+        WriteAheadLogPaymentRepository crashed = new WriteAheadLogPaymentRepository(directory, down);
+        crashed.savePayment(Money.of(100.0), PaymentStatus.COMPLETED, "txn-0");
+        crashed.savePayments(List.of(payment(1), payment(2)));
+        crashed.close();
+        assertThat(down.saved).isEmpty();
+
+        RecordingRepository recovered = new RecordingRepository();
+        new WriteAheadLogPaymentRepository(directory, recovered).close();
+        assertThat(recovered.saved).containsExactly(
+                new PaymentRecord(Money.of(100.0), PaymentStatus.COMPLETED, "txn-0"), payment(1), payment(2));
+
+        RecordingRepository restartedAgain = new RecordingRepository();
+        new WriteAheadLogPaymentRepository(directory, restartedAgain).close();
+        assertThat(restartedAgain.saved).isEmpty();
+    }
+
+    @Test
+    void reads_SeeEveryAcknowledgedWrite() throws Exception {
+        RecordingRepository delegate = new RecordingRepository();
+        try (WriteAheadLogPaymentRepository repository = new WriteAheadLogPaymentRepository(directory, delegate)) {
+            repository.savePending("pay-1", Money.of(100.0));
+            repository.updateStatus("pay-1", PaymentStatus.COMPLETED, "txn-1");
+            repository.savePending("pay-2", Money.of(200.0));
+
+            assertThat(repository.findByTransactionId("txn-1"))
+                    .hasValueSatisfying(payment -> assertThat(payment.status()).isEqualTo(PaymentStatus.COMPLETED));
+            assertThat(repository.findPendingOlderThan(Instant.now().plusSeconds(60)))
+                    .extracting(StoredPayment::paymentId)
+                    .containsExactly("pay-2");
+        }
+    }
+
+    @Test
+    void crashBeforeFlush_ReplaysLifecycleInOrder() throws Exception {
+        RecordingRepository down = new RecordingRepository();
+        down.failing = true;
+        WriteAheadLogPaymentRepository crashed = new WriteAheadLogPaymentRepository(directory, down);
+        crashed.savePendingPayments(List.of(new PendingPayment("pay-1", Money.of(100.0)), new PendingPayment("pay-2", Money.of(200.0))));
+        crashed.updateStatuses(List.of(
+                new PaymentStatusUpdate("pay-1", PaymentStatus.COMPLETED, "txn-1"),
+                new PaymentStatusUpdate("pay-2", PaymentStatus.FAILED, null)));
+        crashed.updateStatus("pay-1", PaymentStatus.REFUNDED, "txn-1");
+        crashed.close();
+
+        RecordingRepository recovered = new RecordingRepository();
+        new WriteAheadLogPaymentRepository(directory, recovered).close();
+        assertThat(recovered.payments.findById("pay-1"))
+                .hasValueSatisfying(payment -> assertThat(payment.status()).isEqualTo(PaymentStatus.REFUNDED));
+        assertThat(recovered.payments.findById("pay-2"))
+                .hasValueSatisfying(payment -> assertThat(payment.status()).isEqualTo(PaymentStatus.FAILED));
+        assertThat(recovered.findPendingOlderThan(Instant.now().plusSeconds(60))).isEmpty();
+    }
+
+    @Test
+    void tornTail_IsIgnoredOnReplay() throws Exception {
+        RecordingRepository down = new RecordingRepository();
+        down.failing = true;
+        WriteAheadLogPaymentRepository crashed = new WriteAheadLogPaymentRepository(directory, down);
+        crashed.savePayments(List.of(payment(1), payment(2)));
+        crashed.close();
+        Files.write(directory.resolve("payments.wal"), new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        RecordingRepository recovered = new RecordingRepository();
+        new WriteAheadLogPaymentRepository(directory, recovered).close();
+        assertThat(recovered.saved).containsExactly(payment(1), payment(2));
+    }
+
+    @Test
+    void failedWrite_IsCutOffSoLaterWritesStillReplay() throws Exception {
+        RecordingRepository down = new RecordingRepository();
+        down.failing = true;
+        FailingChannel[] channel = new FailingChannel[1];
+        WriteAheadLogPaymentRepository crashed = new WriteAheadLogPaymentRepository(directory, down,
+                log -> channel[0] = new FailingChannel(log));
+        crashed.savePayments(List.of(payment(1)));
+        channel[0].failNextWrite = true;
+        assertThatThrownBy(() -> crashed.savePayments(List.of(payment(2))))
+                .isInstanceOf(PaymentDataAccessException.class)
+                .hasMessage("Failed to write payment log");
+        crashed.savePayments(List.of(payment(3)));
+        crashed.close();
+
+        RecordingRepository recovered = new RecordingRepository();
+        new WriteAheadLogPaymentRepository(directory, recovered).close();
+        assertThat(recovered.saved).containsExactly(payment(1), payment(3));
+    }
+
+    @Test
+    void logLargerThanReadChunk_ReplaysEveryRecord() throws Exception {
+        RecordingRepository down = new RecordingRepository();
+        down.failing = true;
+        List<PaymentRecord> payments = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            payments.add(payment(i));
+        }
+        WriteAheadLogPaymentRepository crashed = new WriteAheadLogPaymentRepository(directory, down);
+        crashed.savePayments(payments);
+        crashed.close();
+        assertThat(Files.size(directory.resolve("payments.wal"))).isGreaterThan(64 * 1024);
+
+        RecordingRepository recovered = new RecordingRepository();
+        new WriteAheadLogPaymentRepository(directory, recovered).close();
+        assertThat(recovered.saved).containsExactlyElementsOf(payments);
+    }
+
+    @Test
+    void saveRacingClose_NeverHangs() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            WriteAheadLogPaymentRepository repository = new WriteAheadLogPaymentRepository(
+                    directory.resolve("round-" + round), new RecordingRepository());
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        repository.savePayment(Money.of(100.0), PaymentStatus.COMPLETED, "txn-" + i);
+                    } catch (PaymentDataAccessException e) {
+                        return;
+                    }
+                }
+            });
+            repository.close();
+            writer.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void failureOnSecondRunOfBatch_RetriesOnlyWhatWasNotApplied() throws Exception {
+        RecordingRepository delegate = new RecordingRepository();
+        CountDownLatch gate = new CountDownLatch(1);
+        delegate.pendingGate = gate;
+        try (WriteAheadLogPaymentRepository repository = new WriteAheadLogPaymentRepository(directory, delegate)) {
+            // Flush-tråden står i delegaten, så de två följande skrivningarna hamnar i samma svep
+            repository.savePending("pay-1", Money.of(100.0));
+            repository.savePending("pay-2", Money.of(200.0));
+            repository.updateStatus("pay-2", PaymentStatus.COMPLETED, "txn-2");
+            delegate.statusFailures.set(1);
+            gate.countDown();
+
+            assertThat(repository.findByTransactionId("txn-2"))
+                    .hasValueSatisfying(payment -> assertThat(payment.status()).isEqualTo(PaymentStatus.COMPLETED));
+            assertThat(repository.findPendingOlderThan(Instant.now().plusSeconds(60)))
+                    .extracting(StoredPayment::paymentId)
+                    .containsExactly("pay-1");
+            repository.savePayment(Money.of(300.0), PaymentStatus.COMPLETED, "txn-3");
+            assertThat(repository.findByTransactionId("txn-3")).isPresent();
+        }
+        assertThat(delegate.saved).containsExactly(new PaymentRecord(Money.of(300.0), PaymentStatus.COMPLETED, "txn-3"));
+    }
+
+    @Test
+    void crashBetweenApplyAndCheckpoint_ReopensWithoutDuplicates() throws Exception {
+        RecordingRepository delegate = new RecordingRepository();
+        WriteAheadLogPaymentRepository crashed = new WriteAheadLogPaymentRepository(directory, delegate);
+        crashed.savePendingPayments(List.of(new PendingPayment("pay-1", Money.of(100.0)), new PendingPayment("pay-2", Money.of(200.0))));
+        crashed.updateStatuses(List.of(
+                new PaymentStatusUpdate("pay-1", PaymentStatus.COMPLETED, "txn-1"),
+                new PaymentStatusUpdate("pay-2", PaymentStatus.FAILED, null)));
+        crashed.updateStatus("pay-1", PaymentStatus.REFUNDED, "txn-1");
+        crashed.savePayments(List.of(payment(1), payment(2)));
+        assertThat(crashed.findByTransactionId("txn-2")).isPresent();
+        crashed.close();
+        // Delegaten har allt men checkpointen skrevs aldrig
+        Files.write(directory.resolve("payments.checkpoint"), new byte[Long.BYTES]);
+
+        new WriteAheadLogPaymentRepository(directory, delegate).close();
+
+        assertThat(delegate.saved).containsExactly(payment(1), payment(2));
+        assertThat(delegate.payments.findById("pay-1"))
+                .hasValueSatisfying(payment -> assertThat(payment.status()).isEqualTo(PaymentStatus.REFUNDED));
+        assertThat(delegate.payments.findById("pay-2"))
+                .hasValueSatisfying(payment -> assertThat(payment.status()).isEqualTo(PaymentStatus.FAILED));
+    }
+
+    @Test
+    void replayFailure_FailsToOpen() throws Exception {
+        RecordingRepository down = new RecordingRepository();
+        down.failing = true;
+        WriteAheadLogPaymentRepository crashed = new WriteAheadLogPaymentRepository(directory, down);
+        crashed.savePayments(List.of(payment(1)));
+        crashed.close();
+
+        assertThatThrownBy(() -> new WriteAheadLogPaymentRepository(directory, down))
+                .isInstanceOf(PaymentDataAccessException.class)
+                .hasMessage("DB down");
+
+        RecordingRepository recovered = new RecordingRepository();
+        new WriteAheadLogPaymentRepository(directory, recovered).close();
+        assertThat(recovered.saved).containsExactly(payment(1));
+    }
+
+    @Test
+    void saveAfterClose_Throws() throws Exception {
+        WriteAheadLogPaymentRepository repository = new WriteAheadLogPaymentRepository(directory, new RecordingRepository());
+        repository.close();
+        assertThatThrownBy(() -> repository.savePayment(Money.of(100.0), PaymentStatus.COMPLETED, "txn-0"))
+                .isInstanceOf(PaymentDataAccessException.class)
+                .hasMessage("Payment log is closed");
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.shop;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CartCodecTest {
+    private final ProductCatalog catalog = new ProductCatalog();
+    private final Product cpu = new Product(UUID.randomUUID(), "CPU", 3700.0);
+    private final Product ram = new Product(UUID.randomUUID(), "RAM", 4300.0);
+    private ShoppingCart cart;
+
+    @BeforeEach
+    void setUp() {
+        catalog.put(cpu);
+        catalog.put(ram);
+        cart = new ShoppingCart();
+    }
+
+    @Test
+    void snapshot_roundTrips() {
+        cart.addProduct(cpu, 2);
+        cart.addProduct(ram, 5);
+        ByteBuffer buffer = ByteBuffer.allocate(CartCodec.snapshotSize(cart));
+
+        CartCodec.writeSnapshot(cart, buffer);
+        assertFalse(buffer.hasRemaining());
+        ShoppingCart restored = CartCodec.readSnapshot(buffer.flip(), catalog);
+
+        assertEquals(2, restored.getQuantity(cpu.getId()));
+        assertEquals(5, restored.getQuantity(ram.getId()));
+        assertEquals(cart.getTotalPrice(), restored.getTotalPrice());
+    }
+
+    @Test
+    void deltas_replayOnTopOfSnapshot() {
+        cart.addProduct(cpu, 2);
+        ByteBuffer buffer = ByteBuffer.allocate(CartCodec.snapshotSize(cart) + 4 * CartCodec.DELTA_BYTES);
+        CartCodec.writeSnapshot(cart, buffer);
+        CartCodec.writeAdded(buffer, ram.getId(), 3);
+        CartCodec.writeRemoved(buffer, cpu.getId(), 5);
+        CartCodec.writeCleared(buffer);
+        CartCodec.writeAdded(buffer, ram.getId(), 1);
+        buffer.flip();
+
+        ShoppingCart restored = CartCodec.readSnapshot(buffer, catalog);
+        CartCodec.applyDeltas(buffer, restored, catalog);
+
+        assertFalse(restored.containsProduct(cpu.getId()));
+        assertEquals(1, restored.getItemCount());
+        assertEquals(Money.of(4300.0), restored.getTotalPrice());
+    }
+
+    @Test
+    void productsMissingFromCatalog_areSkipped() {
+        cart.addProduct(cpu, 1);
+        cart.addProduct(ram, 1);
+        ByteBuffer buffer = ByteBuffer.allocate(CartCodec.snapshotSize(cart));
+        CartCodec.writeSnapshot(cart, buffer);
+        catalog.remove(ram.getId());
+
+        ShoppingCart restored = CartCodec.readSnapshot(buffer.flip(), catalog);
+
+        assertEquals(1, restored.getItemCount());
+        assertTrue(restored.containsProduct(cpu.getId()));
+    }
+
+    @Test
+    void corruptLineCount_throwsCartException() {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).putInt(1_000).flip();
+        CartException ex = assertThrows(CartException.class, () -> CartCodec.readSnapshot(buffer, catalog));
+        assertEquals("Corrupt cart snapshot: 1000 lines", ex.getMessage());
+    }
+}
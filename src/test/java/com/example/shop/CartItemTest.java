@@ -1,5 +1,6 @@
 package com.example.shop;
 
+import com.example.money.Money;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -128,7 +129,7 @@ class CartItemTest {
         @Test
         void getTotalPrice_calculatesCorrectly() {
             CartItem item = new CartItem(cpu, 4);
-            assertEquals(3700.0 * 4, item.getTotalPrice(), 0.001);
+            assertEquals(Money.of(3700.0 * 4), item.getTotalPrice());
         }
     }
 
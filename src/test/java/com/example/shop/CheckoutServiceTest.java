@@ -0,0 +1,290 @@
+package com.example.shop;
+
+import com.example.money.Money;
+import com.example.payment.EmailConfirmation;
+import com.example.payment.EmailSender;
+import com.example.payment.PaymentApiClient;
+import com.example.payment.PaymentApiResponse;
+import com.example.payment.PaymentProcessingException;
+import com.example.payment.PaymentProcessor;
+import com.example.payment.PaymentRepository;
+import com.example.payment.PaymentStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CheckoutServiceTest {
+    private static final String EMAIL = "name@example.com";
+    private static final String TRANSACTION_ID = "id_0000000000";
+    private static final Executor SAME_THREAD = Runnable::run;
+
+    @Mock private PaymentApiClient paymentApiClient;
+    @Mock private PaymentRepository paymentRepository;
+    @Mock private EmailSender emailSender;
+
+    private final ProductCatalog catalog = new ProductCatalog();
+    private final Product cpu = new Product(UUID.randomUUID(), "CPU", 3700.0);
+    private final Product ram = new Product(UUID.randomUUID(), "RAM", 4300.0);
+    private ShoppingCart cart;
+    private PaymentProcessor paymentProcessor;
+
+    @BeforeEach
+    void setUp() {
+        catalog.putAll(List.of(cpu, ram));
+        cart = new ShoppingCart();
+        cart.addProduct(cpu, 2);
+        cart.addProduct(ram, 1);
+        paymentProcessor = new PaymentProcessor(paymentApiClient, paymentRepository, emailSender);
+    }
+
+    @Test
+    void success_chargesPricedTotalAndClearsCart() throws Exception {
+        cart.setDiscountPlan(DiscountPlan.compile(List.of(new DiscountRule.ForProduct(cpu.getId(), new PercentageDiscount(10)))));
+        cart.setDiscount(new FixedDiscount(100));
+        Money expected = cart.getTotalPrice();
+        when(paymentApiClient.charge(expected)).thenReturn(PaymentApiResponse.success(TRANSACTION_ID));
+
+        CheckoutResult result = new CheckoutService(paymentProcessor, catalog, SAME_THREAD).checkout(cart, EMAIL);
+
+        assertTrue(result.isCompleted());
+        assertEquals(expected, result.total());
+        assertEquals(Money.of(11700.0), result.pricing().subtotal());
+        assertTrue(cart.isEmpty());
+        verify(emailSender).sendPaymentConfirmation(any(EmailConfirmation.class));
+    }
+
+    @Test
+    void checkout_pricesLinesOnce() throws Exception {
+        AtomicInteger applied = new AtomicInteger();
+        Discount counting = price -> {
+            applied.incrementAndGet();
+            return price;
+        };
+        cart.setDiscountPlan(DiscountPlan.compile(List.of(new DiscountRule.ForProduct(cpu.getId(), counting))));
+        when(paymentApiClient.charge(Money.of(11700.0))).thenReturn(PaymentApiResponse.success(TRANSACTION_ID));
+
+        CheckoutResult result = new CheckoutService(paymentProcessor, catalog, SAME_THREAD).checkout(cart, EMAIL);
+
+        assertTrue(result.isCompleted());
+        assertEquals(Money.of(11700.0), result.total());
+        assertEquals(1, applied.get());
+    }
+
+    @Test
+    void success_sellsReservedStock() throws Exception {
+        Inventory inventory = new Inventory(Duration.ofMinutes(15));
+        inventory.addStock(cpu.getId(), 10);
+        ShoppingCart stocked = new ShoppingCart();
+        stocked.setInventory(inventory);
+        stocked.addProduct(cpu, 3);
+        when(paymentApiClient.charge(any(Money.class))).thenReturn(PaymentApiResponse.success(TRANSACTION_ID));
+
+        assertTrue(new CheckoutService(paymentProcessor, catalog, SAME_THREAD).checkout(stocked, EMAIL).isCompleted());
+
+        assertTrue(stocked.isEmpty());
+        assertEquals(7, inventory.getAvailable(cpu.getId()));
+    }
+
+    @Test
+    void outOfStockAtCheckout_throwsWithoutCharging() {
+        AtomicLong clock = new AtomicLong();
+        Inventory inventory = new Inventory(Duration.ofMinutes(15), 1, clock::get);
+        inventory.addStock(cpu.getId(), 3);
+        ShoppingCart stocked = new ShoppingCart();
+        stocked.setInventory(inventory);
+        stocked.addProduct(cpu, 3);
+        // Reservationen går ut och någon annan hinner köpa varorna
+        clock.addAndGet(Duration.ofMinutes(30).toNanos());
+        inventory.reserve(cpu.getId(), 1);
+
+        CheckoutService checkout = new CheckoutService(paymentProcessor, catalog, SAME_THREAD);
+        assertThrows(InsufficientStockException.class, () -> checkout.checkout(stocked, EMAIL));
+        verifyNoInteractions(paymentApiClient, paymentRepository);
+        assertEquals(3, stocked.getItemCount());
+    }
+
+    @Test
+    void fullyDiscounted_completesWithoutCharging() throws Exception {
+        Inventory inventory = new Inventory(Duration.ofMinutes(15));
+        inventory.addStock(cpu.getId(), 5);
+        ShoppingCart free = new ShoppingCart();
+        free.setInventory(inventory);
+        free.addProduct(cpu, 2);
+        free.setDiscount(new PercentageDiscount(100));
+
+        CheckoutResult result = new CheckoutService(paymentProcessor, catalog, SAME_THREAD).checkout(free, EMAIL);
+
+        assertTrue(result.isCompleted());
+        assertEquals(Money.of(0.0), result.total());
+        assertTrue(free.isEmpty());
+        assertEquals(3, inventory.getAvailable(cpu.getId()));
+        verifyNoInteractions(paymentApiClient, paymentRepository, emailSender);
+    }
+
+    @Test
+    void fullyDiscounted_stillValidatesAgainstCatalog() {
+        cart.setDiscount(new PercentageDiscount(100));
+        catalog.remove(ram.getId());
+
+        CheckoutService checkout = new CheckoutService(paymentProcessor, catalog, SAME_THREAD);
+        assertThrows(CartException.class, () -> checkout.checkout(cart, EMAIL));
+        assertThrows(IllegalArgumentException.class, () -> checkout.checkout(cart, " "));
+        assertEquals(3, cart.getItemCount());
+        verifyNoInteractions(paymentApiClient, paymentRepository);
+    }
+
+    @Test
+    void stockSoldWhileCharging_refundsAndThrows() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        Inventory inventory = new Inventory(Duration.ofMinutes(15), 1, clock::get);
+        inventory.addStock(cpu.getId(), 3);
+        ShoppingCart stocked = new ShoppingCart();
+        stocked.setInventory(inventory);
+        stocked.addProduct(cpu, 3);
+        // Reservationen går ut under debiteringen och någon annan hinner köpa en av varorna
+        when(paymentApiClient.charge(any(Money.class))).thenAnswer(invocation -> {
+            clock.addAndGet(Duration.ofMinutes(30).toNanos());
+            inventory.reserve(cpu.getId(), 1);
+            return PaymentApiResponse.success(TRANSACTION_ID);
+        });
+        when(paymentApiClient.refund(TRANSACTION_ID)).thenReturn(PaymentApiResponse.success(TRANSACTION_ID));
+
+        CheckoutService checkout = new CheckoutService(paymentProcessor, catalog, SAME_THREAD);
+        assertThrows(InsufficientStockException.class, () -> checkout.checkout(stocked, EMAIL));
+
+        verify(paymentRepository).updateStatus(anyString(), eq(PaymentStatus.REFUNDED), eq(TRANSACTION_ID));
+        assertEquals(2, inventory.getAvailable(cpu.getId()));
+        assertEquals(3, stocked.getItemCount());
+    }
+
+    @Test
+    void declined_keepsStockReservedForCart() throws Exception {
+        Inventory inventory = new Inventory(Duration.ofMinutes(15));
+        inventory.addStock(cpu.getId(), 10);
+        ShoppingCart stocked = new ShoppingCart();
+        stocked.setInventory(inventory);
+        stocked.addProduct(cpu, 3);
+        when(paymentApiClient.charge(any(Money.class))).thenReturn(PaymentApiResponse.failure());
+
+        CheckoutResult result = new CheckoutService(paymentProcessor, catalog, SAME_THREAD).checkout(stocked, EMAIL);
+
+        assertEquals(CheckoutResult.Status.DECLINED, result.status());
+        assertEquals(7, inventory.getAvailable(cpu.getId()));
+        stocked.clear();
+        assertEquals(10, inventory.getAvailable(cpu.getId()));
+    }
+
+    @Test
+    void declined_keepsCart() throws Exception {
+        when(paymentApiClient.charge(any(Money.class))).thenReturn(PaymentApiResponse.failure());
+
+        CheckoutResult result = new CheckoutService(paymentProcessor, catalog, SAME_THREAD).checkout(cart, EMAIL);
+
+        assertEquals(CheckoutResult.Status.DECLINED, result.status());
+        assertEquals(3, cart.getItemCount());
+    }
+
+    @Test
+    void priceChangedInCatalog_refundsAndKeepsCart() throws Exception {
+        when(paymentApiClient.charge(any(Money.class))).thenReturn(PaymentApiResponse.success(TRANSACTION_ID));
+        when(paymentApiClient.refund(TRANSACTION_ID)).thenReturn(PaymentApiResponse.success(TRANSACTION_ID));
+        catalog.put(new Product(ram.getId(), "RAM", 3900.0));
+
+        CheckoutService checkout = new CheckoutService(paymentProcessor, catalog, SAME_THREAD);
+        CartException ex = assertThrows(CartException.class, () -> checkout.checkout(cart, EMAIL));
+
+        assertTrue(ex.getMessage().startsWith("Price changed for product " + ram.getId()));
+        assertEquals(3, cart.getItemCount());
+        verify(paymentRepository).updateStatus(anyString(), eq(PaymentStatus.REFUNDED), eq(TRANSACTION_ID));
+        verifyNoInteractions(emailSender);
+    }
+
+    @Test
+    void productRemovedFromCatalog_throws() throws Exception {
+        when(paymentApiClient.charge(any(Money.class))).thenReturn(PaymentApiResponse.failure());
+        catalog.remove(cpu.getId());
+
+        CheckoutService checkout = new CheckoutService(paymentProcessor, catalog, SAME_THREAD);
+        CartException ex = assertThrows(CartException.class, () -> checkout.checkout(cart, EMAIL));
+
+        assertEquals("Product no longer available: " + cpu.getId(), ex.getMessage());
+        assertFalse(cart.isEmpty());
+    }
+
+    @Test
+    void refundDeclined_throwsProcessingException() throws Exception {
+        when(paymentApiClient.charge(any(Money.class))).thenReturn(PaymentApiResponse.success(TRANSACTION_ID));
+        when(paymentApiClient.refund(TRANSACTION_ID)).thenReturn(PaymentApiResponse.failure());
+        catalog.remove(cpu.getId());
+
+        CheckoutService checkout = new CheckoutService(paymentProcessor, catalog, SAME_THREAD);
+        PaymentProcessingException ex = assertThrows(PaymentProcessingException.class, () -> checkout.checkout(cart, EMAIL));
+
+        assertInstanceOf(CartException.class, ex.getCause());
+        assertFalse(cart.isEmpty());
+    }
+
+    @Test
+    void emptyCart_throwsWithoutCharging() {
+        cart.clear();
+        CheckoutService checkout = new CheckoutService(paymentProcessor, catalog, SAME_THREAD);
+
+        CartException ex = assertThrows(CartException.class, () -> checkout.checkout(cart, EMAIL));
+        assertEquals("Cannot check out an empty cart", ex.getMessage());
+        verifyNoInteractions(paymentApiClient, paymentRepository);
+    }
+
+    @Test
+    void invalidEmail_throwsWithoutCharging() {
+        CheckoutService checkout = new CheckoutService(paymentProcessor, catalog, SAME_THREAD);
+
+        assertThrows(IllegalArgumentException.class, () -> checkout.checkout(cart, " "));
+        verifyNoInteractions(paymentApiClient, paymentRepository);
+        assertFalse(cart.isEmpty());
+    }
+
+    @Test
+    void validation_runsWhileGatewayCallIsInFlight() throws Exception {
+        CountDownLatch validating = new CountDownLatch(1);
+        AtomicBoolean overlapped = new AtomicBoolean();
+        // Gatewayen svarar först när kontrollen mot katalogen har börjat, utan överlapp blir det timeout
+        ProductCatalog observed = new ProductCatalog() {
+            @Override
+            public Optional<Money> findPrice(UUID id) {
+                validating.countDown();
+                return super.findPrice(id);
+            }
+        };
+        observed.putAll(List.of(cpu, ram));
+        when(paymentApiClient.charge(any(Money.class))).thenAnswer(invocation -> {
+            overlapped.set(validating.await(5, TimeUnit.SECONDS));
+            return PaymentApiResponse.success(TRANSACTION_ID);
+        });
+
+        CheckoutResult result = new CheckoutService(paymentProcessor, observed).checkout(cart, EMAIL);
+
+        assertTrue(overlapped.get());
+        assertTrue(result.isCompleted());
+        assertTrue(cart.isEmpty());
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.shop;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentShoppingCartTest {
+    private static final int THREADS = 8;
+
+    private ConcurrentShoppingCart cart;
+    private Product cpu;
+    private Product ram;
+
+    @BeforeEach
+    void setUp() {
+        cart = new ConcurrentShoppingCart();
+        cpu = new Product(UUID.randomUUID(), "CPU", 3700.0);
+        ram = new Product(UUID.randomUUID(), "RAM", 4300.0);
+    }
+
+    private static List<Product> products(int count) {
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            products.add(new Product(UUID.randomUUID(), "P" + i, (i + 1) * 1.25));
+        }
+        return products;
+    }
+
+    // Alla trådar startar samtidigt så att de faktiskt krockar
+    private static void runConcurrently(int threads, Runnable task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+    }
+
+    @Nested
+    class SingleThreaded {
+
+        @Test
+        void addAndRemove_updateQuantitiesAndTotals() {
+            cart.addProduct(cpu, 2);
+            cart.addProduct(ram, 1);
+            cart.addProduct(cpu, 3);
+            cart.removeProduct(ram.getId(), 5);
+
+            assertEquals(5, cart.getQuantity(cpu.getId()));
+            assertFalse(cart.containsProduct(ram.getId()));
+            assertEquals(5, cart.getItemCount());
+            assertEquals(Money.of(18500.0), cart.getTotalPrice());
+        }
+
+        @Test
+        void discount_isAppliedToTotal() {
+            cart.addProduct(cpu, 1);
+            cart.setDiscount(new PercentageDiscount(10));
+            assertEquals(Money.of(3330.0), cart.getTotalPrice());
+        }
+
+        @Test
+        void clear_emptiesCartAndDiscount() {
+            cart.addProduct(cpu, 1);
+            cart.setDiscount(new PercentageDiscount(10));
+            cart.clear();
+
+            assertTrue(cart.isEmpty());
+            assertEquals(0, cart.getItemCount());
+            assertEquals(Money.ofMinor(0), cart.getTotalPrice());
+            assertNull(cart.getDiscount());
+        }
+
+        @Test
+        void getItems_isAnUnmodifiableCopy() {
+            cart.addProduct(cpu, 1);
+            var items = cart.getItems();
+            cart.addProduct(cpu, 1);
+
+            assertEquals(1, items.iterator().next().getQuantity());
+            assertThrows(UnsupportedOperationException.class, items::clear);
+        }
+
+        @Test
+        void reAddAtDifferentPrice_keepsLinePrice() {
+            cart.addProduct(cpu, 1);
+            cart.addProduct(new Product(cpu.getId(), "CPU", 1.0), 2);
+
+            assertEquals(Money.of(11100.0), cart.getTotalPrice());
+            cart.removeProduct(cpu.getId(), 3);
+            assertEquals(Money.ofMinor(0), cart.getTotalPrice());
+        }
+
+        @Test
+        void mixedCurrencies_throwCartException() {
+            cart.addProduct(cpu, 1);
+            Product euroRam = new Product("RAM", Money.of(43.0, Currency.getInstance("EUR")));
+            CartException ex = assertThrows(CartException.class, () -> cart.addProduct(euroRam, 1));
+            assertEquals("Cannot mix currencies in cart: SEK and EUR", ex.getMessage());
+        }
+
+        @Test
+        void removingLastLine_releasesCurrency() {
+            cart.addProduct(cpu, 2);
+            cart.removeProduct(cpu.getId(), 2);
+            Product euroRam = new Product("RAM", Money.of(43.0, Currency.getInstance("EUR")));
+            cart.addProduct(euroRam, 1);
+            assertEquals(Money.of(43.0, Currency.getInstance("EUR")), cart.getTotalPrice());
+        }
+
+        @Test
+        void failedFirstAdd_leavesNoCurrency() {
+            Product hugeEuro = new Product("Server", Money.ofMinor(Long.MAX_VALUE / 2, Currency.getInstance("EUR")));
+            assertThrows(ArithmeticException.class, () -> cart.addProduct(hugeEuro, 3));
+            assertTrue(cart.isEmpty());
+
+            cart.addProduct(ram, 1);
+            assertEquals(Money.of(4300.0), cart.getTotalPrice());
+        }
+
+        @Test
+        void removeMissingProduct_throwsCartException() {
+            CartException ex = assertThrows(CartException.class, () -> cart.removeProduct(ram.getId(), 1));
+            assertEquals("Product not found in cart: " + ram.getId(), ex.getMessage());
+            assertEquals(0, cart.getItemCount());
+        }
+
+        @Test
+        void invalidArguments_throw() {
+            assertEquals("Product cannot be null",
+                    assertThrows(NullPointerException.class, () -> cart.addProduct(null, 1)).getMessage());
+            assertEquals("Quantity must be positive",
+                    assertThrows(IllegalArgumentException.class, () -> cart.addProduct(cpu, 0)).getMessage());
+            assertEquals("Quantity must be positive",
+                    assertThrows(IllegalArgumentException.class, () -> cart.removeProduct(cpu.getId(), 0)).getMessage());
+        }
+    }
+
+    @Nested
+    class Stress {
+
+        @Test
+        void concurrentAdds_loseNoUpdates() throws Exception {
+            List<Product> products = products(4);
+            int perThread = 20_000;
+
+            runConcurrently(THREADS, () -> {
+                for (int i = 0; i < perThread; i++) {
+                    cart.addProduct(products.get(i % products.size()), 1);
+                }
+            });
+
+            int expectedPerProduct = THREADS * perThread / products.size();
+            long expectedTotal = 0;
+            for (Product product : products) {
+                assertEquals(expectedPerProduct, cart.getQuantity(product.getId()));
+                expectedTotal += product.getPrice().minorUnits() * expectedPerProduct;
+            }
+            assertEquals(THREADS * perThread, cart.getItemCount());
+            assertEquals(Money.ofMinor(expectedTotal), cart.getTotalPrice());
+        }
+
+        @Test
+        void balancedAddsAndRemoves_leaveCartEmpty() throws Exception {
+            List<Product> products = products(3);
+
+            runConcurrently(THREADS, () -> {
+                for (int i = 0; i < 10_000; i++) {
+                    Product product = products.get(i % products.size());
+                    cart.addProduct(product, 2);
+                    cart.removeProduct(product.getId(), 2);
+                }
+            });
+
+            assertTrue(cart.isEmpty());
+            assertEquals(0, cart.getItemCount());
+            assertEquals(Money.ofMinor(0), cart.getTotalPrice());
+        }
+
+        @Test
+        void repricedAddsAndRemoves_leaveCartEmpty() throws Exception {
+            List<Product> products = products(3);
+
+            runConcurrently(THREADS, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 10_000; i++) {
+                    Product product = products.get(i % products.size());
+                    // Samma id med ett annat pris, raden behåller sitt första
+                    cart.addProduct(new Product(product.getId(), product.getName(), random.nextInt(1, 1_000) / 4.0), 2);
+                    cart.removeProduct(product.getId(), 2);
+                }
+            });
+
+            assertTrue(cart.isEmpty());
+            assertEquals(Money.ofMinor(0), cart.getTotalPrice());
+        }
+
+        @Test
+        void clearRacingAdds_neverMixesCurrencies() throws Exception {
+            Currency euro = Currency.getInstance("EUR");
+            List<Product> crowns = products(4);
+            List<Product> euros = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                euros.add(new Product("E" + i, Money.of(i + 1.0, euro)));
+            }
+            List<String> mixed = new ArrayList<>();
+
+            runConcurrently(THREADS, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 5_000; i++) {
+                    int choice = random.nextInt(10);
+                    if (choice == 0) {
+                        cart.clear();
+                        continue;
+                    }
+                    List<Product> pool = choice % 2 == 0 ? crowns : euros;
+                    try {
+                        cart.addProduct(pool.get(random.nextInt(pool.size())), 1);
+                    } catch (CartException e) {
+                        // Korgen har redan den andra valutan
+                    }
+                    CartSnapshot snapshot = cart.snapshot();
+                    for (CartItem item : snapshot.items()) {
+                        if (!item.getProduct().getPrice().hasCurrency(snapshot.subtotal().currency())) {
+                            synchronized (mixed) {
+                                mixed.add(snapshot.toString());
+                            }
+                        }
+                    }
+                }
+            });
+
+            assertEquals(List.of(), mixed);
+        }
+
+        @Test
+        void removesRacingAdds_neverMixCurrencies() throws Exception {
+            Currency euro = Currency.getInstance("EUR");
+            List<Product> crowns = products(2);
+            List<Product> euros = List.of(new Product("E0", Money.of(1.0, euro)), new Product("E1", Money.of(2.0, euro)));
+            List<String> mixed = new ArrayList<>();
+
+            runConcurrently(THREADS, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 5_000; i++) {
+                    List<Product> pool = random.nextBoolean() ? crowns : euros;
+                    Product product = pool.get(random.nextInt(pool.size()));
+                    try {
+                        cart.addProduct(product, 1);
+                        cart.removeProduct(product.getId(), 1);
+                    } catch (CartException e) {
+                        // Korgen har den andra valutan, eller någon annan hann ta bort raden
+                    }
+                    CartSnapshot snapshot = cart.snapshot();
+                    for (CartItem item : snapshot.items()) {
+                        if (!item.getProduct().getPrice().hasCurrency(snapshot.subtotal().currency())) {
+                            synchronized (mixed) {
+                                mixed.add(snapshot.toString());
+                            }
+                        }
+                    }
+                }
+            });
+
+            assertEquals(List.of(), mixed);
+            assertTrue(cart.isEmpty());
+        }
+
+        @Test
+        void snapshots_completeUnderConstantWrites() throws Exception {
+            AtomicBoolean writing = new AtomicBoolean(true);
+            List<Thread> writers = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                writers.add(Thread.ofPlatform().start(() -> {
+                    while (writing.get()) {
+                        cart.addProduct(cpu, 1);
+                        try {
+                            cart.removeProduct(cpu.getId(), 1);
+                        } catch (CartException e) {
+                            // Någon annan hann ta bort raden
+                        }
+                    }
+                }));
+            }
+            try {
+                assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                    for (int i = 0; i < 1_000; i++) {
+                        CartSnapshot snapshot = cart.snapshot();
+                        assertEquals(snapshot.items().stream().mapToInt(CartItem::getQuantity).sum(), snapshot.itemCount());
+                    }
+                });
+            } finally {
+                writing.set(false);
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+            }
+        }
+
+        @Test
+        void snapshots_areConsistentWhileWritersRun() throws Exception {
+            List<Product> products = products(50);
+            AtomicBoolean writing = new AtomicBoolean(true);
+            List<String> inconsistencies = new ArrayList<>();
+
+            Thread reader = Thread.ofPlatform().start(() -> {
+                int taken = 0;
+                while (writing.get() || taken < 100) {
+                    CartSnapshot snapshot = cart.snapshot();
+                    long subtotal = snapshot.items().stream().mapToLong(item -> item.getTotalPrice().minorUnits()).sum();
+                    int count = snapshot.items().stream().mapToInt(CartItem::getQuantity).sum();
+                    if (subtotal != snapshot.subtotal().minorUnits() || count != snapshot.itemCount()) {
+                        inconsistencies.add(snapshot.toString());
+                    }
+                    taken++;
+                }
+            });
+
+            runConcurrently(THREADS, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    Product product = products.get(random.nextInt(products.size()));
+                    if (random.nextBoolean()) {
+                        cart.addProduct(product, random.nextInt(1, 5));
+                    } else {
+                        try {
+                            cart.removeProduct(product.getId(), random.nextInt(1, 5));
+                        } catch (CartException e) {
+                            // Någon annan hann ta bort raden
+                        }
+                    }
+                }
+            });
+            writing.set(false);
+            reader.join();
+
+            assertEquals(List.of(), inconsistencies);
+            CartSnapshot last = cart.snapshot();
+            assertEquals(last.items().stream().mapToInt(CartItem::getQuantity).sum(), cart.getItemCount());
+        }
+    }
+}
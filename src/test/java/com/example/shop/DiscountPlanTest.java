@@ -0,0 +1,138 @@
+package com.example.shop;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiscountPlanTest {
+    private final Product coffee = new Product(UUID.randomUUID(), "Coffee", Money.of(50.0), "drinks");
+    private final Product tea = new Product(UUID.randomUUID(), "Tea", Money.of(30.0), "drinks");
+    private final Product mug = new Product(UUID.randomUUID(), "Mug", Money.of(100.0));
+
+    @Test
+    void noRules_netEqualsGross() {
+        CartPricing.Line line = DiscountPlan.NONE.price(mug, 3);
+        assertEquals(Money.of(300.0), line.gross());
+        assertEquals(Money.of(300.0), line.net());
+    }
+
+    @Test
+    void productDiscount_appliesOnlyToThatProduct() {
+        DiscountPlan plan = DiscountPlan.compile(List.of(new DiscountRule.ForProduct(mug.getId(), new PercentageDiscount(10))));
+        assertEquals(Money.of(180.0), plan.price(mug, 2).net());
+        assertEquals(Money.of(100.0), plan.price(coffee, 2).net());
+    }
+
+    @Test
+    void categoryDiscount_appliesToEveryProductInCategory() {
+        DiscountPlan plan = DiscountPlan.compile(List.of(new DiscountRule.ForCategory("drinks", new FixedDiscount(5))));
+        assertEquals(Money.of(95.0), plan.price(coffee, 2).net());
+        assertEquals(Money.of(25.0), plan.price(tea, 1).net());
+        assertEquals(Money.of(100.0), plan.price(mug, 1).net());
+    }
+
+    @Test
+    void categoryDiscount_followsCategoryOfPricedProduct() {
+        DiscountPlan plan = DiscountPlan.compile(List.of(
+                new DiscountRule.ForProduct(coffee.getId(), new FixedDiscount(10)),
+                new DiscountRule.ForCategory("drinks", new FixedDiscount(5))));
+        Product recategorized = new Product(coffee.getId(), "Coffee", Money.of(50.0), "food");
+        assertEquals(Money.of(85.0), plan.price(coffee, 2).net());
+        assertEquals(Money.of(90.0), plan.price(recategorized, 2).net());
+        Product uncategorizedTea = new Product(tea.getId(), "Tea", Money.of(30.0));
+        assertEquals(Money.of(30.0), plan.price(uncategorizedTea, 1).net());
+        assertEquals(Money.of(25.0), plan.price(tea, 1).net());
+    }
+
+    @Test
+    void buyTwoGetOne_chargesOnlyFullGroups() {
+        DiscountPlan plan = DiscountPlan.compile(List.of(new DiscountRule.BuyXGetY(coffee.getId(), 2, 1)));
+        assertEquals(Money.of(100.0), plan.price(coffee, 2).net());
+        assertEquals(Money.of(100.0), plan.price(coffee, 3).net());
+        assertEquals(Money.of(250.0), plan.price(coffee, 7).net());
+    }
+
+    @Test
+    void quantityTiers_highestReachedTierWins() {
+        DiscountPlan plan = DiscountPlan.compile(List.of(
+                new DiscountRule.QuantityTier(tea.getId(), 10, new PercentageDiscount(10)),
+                new DiscountRule.QuantityTier(tea.getId(), 50, new PercentageDiscount(20))));
+        assertEquals(Money.of(270.0), plan.price(tea, 9).net());
+        assertEquals(Money.of(270.0), plan.price(tea, 10).net());
+        assertEquals(Money.of(1200.0), plan.price(tea, 50).net());
+    }
+
+    @Test
+    void rules_stackInFixedOrder() {
+        DiscountPlan plan = DiscountPlan.compile(List.of(
+                new DiscountRule.ForCategory("drinks", new FixedDiscount(10)),
+                new DiscountRule.ForProduct(coffee.getId(), new PercentageDiscount(50)),
+                new DiscountRule.QuantityTier(coffee.getId(), 3, new PercentageDiscount(10)),
+                new DiscountRule.BuyXGetY(coffee.getId(), 3, 1)));
+
+        // 4 st, 1 gratis: 150, trappa 10 %: 135, produkt 50 %: 67.50, kategori -10: 57.50
+        CartPricing.Line line = plan.price(coffee, 4);
+        assertEquals(Money.of(200.0), line.gross());
+        assertEquals(Money.of(57.5), line.net());
+        assertEquals(Money.of(142.5), line.discount());
+    }
+
+    @Test
+    void price_sumsLines() {
+        DiscountPlan plan = DiscountPlan.compile(List.of(new DiscountRule.ForCategory("drinks", new PercentageDiscount(10))));
+        CartPricing pricing = plan.price(List.of(new CartItem(coffee, 2), new CartItem(mug, 1)));
+
+        assertEquals(2, pricing.lines().size());
+        assertEquals(Money.of(200.0), pricing.subtotal());
+        assertEquals(Money.of(190.0), pricing.total());
+        assertEquals(Money.of(10.0), pricing.discount());
+    }
+
+    @Test
+    void secondBuyXGetYForSameProduct_throws() {
+        List<DiscountRule> rules = List.of(
+                new DiscountRule.BuyXGetY(coffee.getId(), 2, 1),
+                new DiscountRule.BuyXGetY(coffee.getId(), 3, 1));
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> DiscountPlan.compile(rules));
+        assertEquals("Only one buy-X-get-Y rule per product: " + coffee.getId(), ex.getMessage());
+    }
+
+    @Test
+    void invalidRules_throw() {
+        assertEquals("buy must be positive", assertThrows(IllegalArgumentException.class,
+                () -> new DiscountRule.BuyXGetY(coffee.getId(), 0, 1)).getMessage());
+        assertEquals("minQuantity must be positive", assertThrows(IllegalArgumentException.class,
+                () -> new DiscountRule.QuantityTier(coffee.getId(), 0, new PercentageDiscount(5))).getMessage());
+        assertThrows(NullPointerException.class, () -> new DiscountRule.ForCategory(null, new PercentageDiscount(5)));
+    }
+
+    @Test
+    void shoppingCart_usesPlanThenCartDiscount() {
+        ShoppingCart cart = new ShoppingCart();
+        cart.addProduct(coffee, 3);
+        cart.addProduct(mug, 1);
+        cart.setDiscountPlan(DiscountPlan.compile(List.of(new DiscountRule.BuyXGetY(coffee.getId(), 2, 1))));
+        cart.setDiscount(new FixedDiscount(20));
+
+        assertEquals(Money.of(200.0), cart.getPricing().total());
+        assertEquals(Money.of(180.0), cart.getTotalPrice());
+
+        cart.clear();
+        assertNotNull(cart.getDiscountPlan());
+    }
+
+    @Test
+    void isPure_onlyWhenEveryDiscountIsPure() {
+        assertTrue(DiscountPlan.NONE.isPure());
+        assertTrue(DiscountPlan.compile(List.of(
+                new DiscountRule.ForCategory("drinks", new PercentageDiscount(10)),
+                new DiscountRule.BuyXGetY(coffee.getId(), 2, 1))).isPure());
+
+        Discount happyHour = price -> price;
+        assertFalse(DiscountPlan.compile(List.of(new DiscountRule.ForProduct(mug.getId(), happyHour))).isPure());
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.shop;
 
+import com.example.money.Money;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -18,20 +19,25 @@ class FixedDiscountTest {
     @Test
     void constructor_zeroAmount_allows() {
         FixedDiscount discount = new FixedDiscount(0);
-        double original = 100.0;
-        assertEquals(100.0, discount.apply(original), 0.001);
+        Money original = Money.of(100.0);
+        assertEquals(Money.of(100.0), discount.apply(original));
     }
     @Test
     void apply_reducesPriceCorrectly() {
         FixedDiscount discount = new FixedDiscount(300);
-        double original = 2000.0;
-        assertEquals(1700.0, discount.apply(original), 0.001);
+        Money original = Money.of(2000.0);
+        assertEquals(Money.of(1700.0), discount.apply(original));
     }
 
     @Test
     void apply_doesNotGoBelowZero() {
         FixedDiscount discount = new FixedDiscount(2500);
-        double original = 2000.0;
-        assertEquals(0.0, discount.apply(original), 0.001);
+        Money original = Money.of(2000.0);
+        assertEquals(Money.of(0.0), discount.apply(original));
+    }
+
+    @Test
+    void isPure_returnsTrue() {
+        assertTrue(new FixedDiscount(100).isPure());
     }
 }
@@ -0,0 +1,220 @@
+package com.example.shop;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventoryTest {
+    private static final Duration HOLD = Duration.ofMinutes(15);
+
+    private final AtomicLong clock = new AtomicLong();
+    private final Inventory inventory = new Inventory(HOLD, 8, clock::get);
+    private final UUID cpu = UUID.randomUUID();
+
+    private void advance(Duration duration) {
+        clock.addAndGet(duration.toNanos());
+    }
+
+    @Test
+    void reserve_takesFromAvailable() {
+        inventory.addStock(cpu, 10);
+        Reservation reservation = inventory.reserve(cpu, 3);
+
+        assertEquals(7, inventory.getAvailable(cpu));
+        assertEquals(3, reservation.getQuantity());
+        assertTrue(reservation.isActive());
+    }
+
+    @Test
+    void reserve_moreThanAvailable_throwsAndTakesNothing() {
+        inventory.addStock(cpu, 2);
+
+        InsufficientStockException ex = assertThrows(InsufficientStockException.class, () -> inventory.reserve(cpu, 3));
+        assertEquals("Insufficient stock for product " + cpu + ": requested 3", ex.getMessage());
+        assertEquals(cpu, ex.getProductId());
+        assertEquals(2, inventory.getAvailable(cpu));
+    }
+
+    @Test
+    void unknownProduct_hasNoStock() {
+        assertEquals(0, inventory.getAvailable(cpu));
+        assertThrows(InsufficientStockException.class, () -> inventory.reserve(cpu, 1));
+    }
+
+    @Test
+    void release_returnsStockAndEndsReservationAtZero() {
+        inventory.addStock(cpu, 10);
+        Reservation reservation = inventory.reserve(cpu, 4);
+
+        inventory.release(reservation, 1);
+        assertEquals(7, inventory.getAvailable(cpu));
+        assertEquals(3, reservation.getQuantity());
+
+        inventory.release(reservation, 5);
+        assertEquals(10, inventory.getAvailable(cpu));
+        assertEquals(Reservation.State.RELEASED, reservation.getState());
+    }
+
+    @Test
+    void extend_addsToReservation() {
+        inventory.addStock(cpu, 10);
+        Reservation reservation = inventory.reserve(cpu, 2);
+
+        assertTrue(inventory.extend(reservation, 3));
+        assertEquals(5, reservation.getQuantity());
+        assertEquals(5, inventory.getAvailable(cpu));
+        assertThrows(InsufficientStockException.class, () -> inventory.extend(reservation, 6));
+        assertEquals(5, reservation.getQuantity());
+    }
+
+    @Test
+    void reservation_expiresAfterHoldTime() {
+        inventory.addStock(cpu, 10);
+        Reservation reservation = inventory.reserve(cpu, 4);
+
+        advance(HOLD.minusSeconds(1));
+        assertEquals(6, inventory.getAvailable(cpu));
+
+        // Utgången kan dröja upp till ett fack, en åttondel av hålltiden
+        advance(HOLD.dividedBy(4));
+        assertEquals(10, inventory.getAvailable(cpu));
+        assertEquals(Reservation.State.EXPIRED, reservation.getState());
+        assertFalse(inventory.extend(reservation, 1));
+        assertFalse(inventory.renew(reservation));
+    }
+
+    @Test
+    void renew_keepsReservationAlive() {
+        inventory.addStock(cpu, 10);
+        Reservation reservation = inventory.reserve(cpu, 4);
+
+        advance(HOLD.minusMinutes(1));
+        assertTrue(inventory.renew(reservation));
+        advance(HOLD.minusMinutes(1));
+
+        assertEquals(0, inventory.expireReservations());
+        assertTrue(reservation.isActive());
+        assertEquals(6, inventory.getAvailable(cpu));
+    }
+
+    @Test
+    void commit_keepsStockTakenAfterRelease() {
+        inventory.addStock(cpu, 10);
+        Reservation reservation = inventory.reserve(cpu, 4);
+
+        inventory.commit(reservation);
+        inventory.release(reservation, 4);
+        advance(HOLD.multipliedBy(2));
+
+        assertEquals(6, inventory.getAvailable(cpu));
+        assertEquals(Reservation.State.COMMITTED, reservation.getState());
+    }
+
+    @Test
+    void commit_expiredReservation_takesStockAgain() {
+        inventory.addStock(cpu, 10);
+        Reservation reservation = inventory.reserve(cpu, 4);
+        advance(HOLD.multipliedBy(2));
+
+        inventory.commit(reservation);
+
+        assertEquals(6, inventory.getAvailable(cpu));
+        assertEquals(Reservation.State.COMMITTED, reservation.getState());
+    }
+
+    @Test
+    void commit_expiredReservationWithoutStock_throwsAndLeavesStock() {
+        inventory.addStock(cpu, 4);
+        Reservation reservation = inventory.reserve(cpu, 4);
+        advance(HOLD.multipliedBy(2));
+        inventory.reserve(cpu, 3);
+
+        assertThrows(InsufficientStockException.class, () -> inventory.commit(reservation));
+
+        assertEquals(1, inventory.getAvailable(cpu));
+        assertEquals(Reservation.State.EXPIRED, reservation.getState());
+    }
+
+    @Test
+    void reopen_holdsCommittedUnitsAgain() {
+        inventory.addStock(cpu, 10);
+        Reservation reservation = inventory.reserve(cpu, 4);
+        inventory.commit(reservation);
+
+        inventory.reopen(reservation);
+        assertTrue(reservation.isActive());
+        assertEquals(6, inventory.getAvailable(cpu));
+
+        advance(HOLD.multipliedBy(2));
+        assertEquals(10, inventory.getAvailable(cpu));
+        assertThrows(IllegalStateException.class, () -> inventory.reopen(reservation));
+    }
+
+    @Test
+    void commit_releasedReservation_throws() {
+        inventory.addStock(cpu, 4);
+        Reservation reservation = inventory.reserve(cpu, 4);
+        inventory.release(reservation, 4);
+
+        IllegalStateException ex = assertThrows(IllegalStateException.class, () -> inventory.commit(reservation));
+        assertEquals("Cannot commit a RELEASED reservation", ex.getMessage());
+    }
+
+    @Test
+    void concurrentReservations_neverOversell() throws Exception {
+        Inventory shared = new Inventory(HOLD);
+        int stock = 100_000;
+        shared.addStock(cpu, stock);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    int reserved = 0;
+                    while (true) {
+                        try {
+                            Reservation reservation = shared.reserve(cpu, 3);
+                            // Varannan lämnas tillbaka delvis, så att varor flyttar mellan cellerna
+                            if (reserved % 2 == 0) {
+                                shared.release(reservation, 1);
+                                reserved += 2;
+                            } else {
+                                reserved += 3;
+                            }
+                        } catch (InsufficientStockException e) {
+                            return reserved;
+                        }
+                    }
+                }));
+            }
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            long left = shared.getAvailable(cpu);
+
+            assertTrue(left >= 0 && left < 3, "left " + left);
+            assertEquals(stock, total + left);
+        }
+    }
+
+    @Test
+    void invalidArguments_throw() {
+        assertThrows(IllegalArgumentException.class, () -> new Inventory(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> inventory.addStock(cpu, 0));
+        assertThrows(IllegalArgumentException.class, () -> inventory.reserve(cpu, 0));
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.shop;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileCartRepositoryTest {
+    @TempDir Path directory;
+
+    private final ProductCatalog catalog = new ProductCatalog();
+    private final Product cpu = new Product(UUID.randomUUID(), "CPU", 3700.0);
+    private final Product ram = new Product(UUID.randomUUID(), "RAM", 4300.0);
+
+    @BeforeEach
+    void setUp() {
+        catalog.put(cpu);
+        catalog.put(ram);
+    }
+
+    // En ny instans motsvarar en omstart eller en annan nod som läser samma katalog
+    private ShoppingCart reload(String cartId) {
+        try (MappedFileCartRepository restarted = new MappedFileCartRepository(directory, catalog)) {
+            return restarted.load(cartId).orElseThrow();
+        }
+    }
+
+    @Test
+    void savedCart_survivesRestart() {
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            ShoppingCart cart = new ShoppingCart();
+            cart.addProduct(cpu, 2);
+            repository.save("session-1", cart);
+        }
+
+        ShoppingCart restored = reload("session-1");
+        assertEquals(2, restored.getQuantity(cpu.getId()));
+        assertEquals(Money.of(7400.0), restored.getTotalPrice());
+    }
+
+    @Test
+    void changesAfterSave_arePersistedAsDeltas() {
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            ShoppingCart cart = new ShoppingCart();
+            repository.save("session-1", cart);
+            cart.addProduct(cpu, 2);
+            cart.addProduct(ram, 3);
+            cart.removeProduct(cpu.getId(), 1);
+        }
+
+        ShoppingCart restored = reload("session-1");
+        assertEquals(1, restored.getQuantity(cpu.getId()));
+        assertEquals(3, restored.getQuantity(ram.getId()));
+    }
+
+    @Test
+    void clear_isPersisted() {
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            ShoppingCart cart = new ShoppingCart();
+            cart.addProduct(cpu, 2);
+            repository.save("session-1", cart);
+            cart.clear();
+            cart.addProduct(ram, 1);
+        }
+
+        ShoppingCart restored = reload("session-1");
+        assertFalse(restored.containsProduct(cpu.getId()));
+        assertEquals(1, restored.getItemCount());
+    }
+
+    @Test
+    void manyChanges_rewriteSnapshotInsteadOfGrowingForever() throws Exception {
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            ShoppingCart cart = new ShoppingCart();
+            repository.save("session-1", cart);
+            for (int i = 0; i < 10_000; i++) {
+                cart.addProduct(cpu, 1);
+                cart.removeProduct(cpu.getId(), 1);
+            }
+            cart.addProduct(ram, 7);
+        }
+
+        assertTrue(Files.size(directory.resolve("session-1.cart")) <= 4096);
+        ShoppingCart restored = reload("session-1");
+        assertEquals(7, restored.getItemCount());
+        assertFalse(restored.containsProduct(cpu.getId()));
+    }
+
+    @Test
+    void bulkChangesCrossingFileCapacity_areNotAppliedTwice() {
+        Map<Product, Integer> batch = new LinkedHashMap<>();
+        for (int i = 0; i < 12; i++) {
+            Product product = new Product(UUID.randomUUID(), "P" + i, 10.0);
+            catalog.put(product);
+            batch.put(product, i + 1);
+        }
+        Map<UUID, Integer> removals = new LinkedHashMap<>();
+        batch.forEach((product, quantity) -> removals.put(product.getId(), 1));
+
+        // Filen rymmer knappt 200 deltan, någon av fyllnadsnivåerna gör att batchen slår i slutet
+        for (int fill = 170; fill < 200; fill++) {
+            String cartId = "session-" + fill;
+            ShoppingCart cart = new ShoppingCart();
+            try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+                repository.save(cartId, cart);
+                for (int i = 0; i < fill; i++) {
+                    cart.addProduct(cpu, 1);
+                }
+                cart.addProducts(batch);
+                cart.removeProducts(removals);
+                cart.addProducts(batch);
+            }
+
+            ShoppingCart restored = reload(cartId);
+            assertEquals(cart.getItemCount(), restored.getItemCount(), "fill " + fill);
+            for (Product product : batch.keySet()) {
+                assertEquals(cart.getQuantity(product.getId()), restored.getQuantity(product.getId()), "fill " + fill);
+            }
+        }
+    }
+
+    @Test
+    void loadedCart_keepsPersistingChanges() {
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            ShoppingCart cart = new ShoppingCart();
+            cart.addProduct(cpu, 1);
+            repository.save("session-1", cart);
+        }
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            ShoppingCart cart = repository.load("session-1").orElseThrow();
+            cart.addProduct(cpu, 4);
+            assertSame(cart, repository.load("session-1").orElseThrow());
+        }
+
+        assertEquals(5, reload("session-1").getQuantity(cpu.getId()));
+    }
+
+    @Test
+    void delete_removesFileAndStopsTracking() {
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            ShoppingCart cart = new ShoppingCart();
+            repository.save("session-1", cart);
+            repository.delete("session-1");
+            cart.addProduct(cpu, 1);
+
+            assertEquals(Optional.empty(), repository.load("session-1"));
+        }
+        assertFalse(Files.exists(directory.resolve("session-1.cart")));
+    }
+
+    @Test
+    void unknownCart_isEmpty() {
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            assertEquals(Optional.empty(), repository.load("missing"));
+        }
+    }
+
+    @Test
+    void invalidCartId_throws() {
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                    () -> repository.save("../escape", new ShoppingCart()));
+            assertEquals("Invalid cart id: ../escape", ex.getMessage());
+        }
+    }
+
+    @Test
+    void notACartFile_throwsCartException() throws Exception {
+        Files.write(directory.resolve("broken.cart"), new byte[64]);
+        try (MappedFileCartRepository repository = new MappedFileCartRepository(directory, catalog)) {
+            CartException ex = assertThrows(CartException.class, () -> repository.load("broken"));
+            assertEquals("Not a cart file: " + directory.resolve("broken.cart"), ex.getMessage());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.shop;
 
+import com.example.money.Money;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -27,21 +28,26 @@ class PercentageDiscountTest {
     @Test
     void apply_reducesPriceCorrectly() {
         PercentageDiscount discount = new PercentageDiscount(10);
-        double original = 2000.0;
-        assertEquals(1800.0, discount.apply(original), 0.001);
+        Money original = Money.of(2000.0);
+        assertEquals(Money.of(1800.0), discount.apply(original));
     }
 
     @Test
     void apply_zeroPercentage_doesNothing() {
         PercentageDiscount discount = new PercentageDiscount(0);
-        double original = 1500.0;
-        assertEquals(1500.0, discount.apply(original), 0.001);
+        Money original = Money.of(1500.0);
+        assertEquals(Money.of(1500.0), discount.apply(original));
     }
 
     @Test
     void apply_100Percentage_returnsZero() {
         PercentageDiscount discount = new PercentageDiscount(100);
-        double original = 1500.0;
-        assertEquals(0.0, discount.apply(original), 0.001);
+        Money original = Money.of(1500.0);
+        assertEquals(Money.of(0.0), discount.apply(original));
+    }
+
+    @Test
+    void isPure_returnsTrue() {
+        assertTrue(new PercentageDiscount(10).isPure());
     }
 }
@@ -0,0 +1,140 @@
+package com.example.shop;
+
+import com.example.money.Money;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductCatalogTest {
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private final ProductCatalog catalog = new ProductCatalog();
+    private final Product cpu = new Product(UUID.randomUUID(), "CPU", Money.of(3700.0), "components");
+    private final Product ram = new Product(UUID.randomUUID(), "RAM", Money.of(43.0, EUR));
+
+    private static void assertSameProduct(Product expected, Product actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getPrice(), actual.getPrice());
+        assertEquals(expected.getCategory(), actual.getCategory());
+    }
+
+    @Test
+    void put_thenFind_returnsEqualProduct() {
+        catalog.put(cpu);
+        catalog.put(ram);
+
+        assertEquals(2, catalog.size());
+        assertSameProduct(cpu, catalog.find(cpu.getId()).orElseThrow());
+        assertSameProduct(ram, catalog.find(ram.getId()).orElseThrow());
+        assertEquals(Optional.of(Money.of(43.0, EUR)), catalog.findPrice(ram.getId()));
+    }
+
+    @Test
+    void unknownId_isEmpty() {
+        catalog.put(cpu);
+        assertEquals(Optional.empty(), catalog.find(UUID.randomUUID()));
+        assertFalse(catalog.contains(ram.getId()));
+    }
+
+    @Test
+    void put_existingId_replacesProduct() {
+        catalog.put(cpu);
+        Product renamed = new Product(cpu.getId(), "Processor ÅÄÖ", Money.of(3500.0));
+        catalog.put(renamed);
+
+        assertEquals(1, catalog.size());
+        assertSameProduct(renamed, catalog.find(cpu.getId()).orElseThrow());
+    }
+
+    @Test
+    void updatePrices_changesColumnButNotEarlierViews() {
+        catalog.putAll(List.of(cpu, ram));
+        Product before = catalog.find(cpu.getId()).orElseThrow();
+
+        catalog.updatePrices(Map.of(cpu.getId(), Money.of(3000.0), ram.getId(), Money.of(40.0, EUR)));
+
+        assertEquals(Money.of(3000.0), catalog.find(cpu.getId()).orElseThrow().getPrice());
+        assertEquals(Money.of(40.0, EUR), catalog.findPrice(ram.getId()).orElseThrow());
+        assertEquals(Money.of(3700.0), before.getPrice());
+    }
+
+    @Test
+    void updatePrices_invalidEntry_leavesCatalogUntouched() {
+        catalog.putAll(List.of(cpu, ram));
+        Map<UUID, Money> prices = new HashMap<>();
+        prices.put(cpu.getId(), Money.of(1.0));
+        prices.put(ram.getId(), Money.of(40.0));
+
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> catalog.updatePrices(prices));
+        assertEquals("Price currency SEK does not match EUR for product " + ram.getId(), ex.getMessage());
+        assertEquals(Money.of(3700.0), catalog.findPrice(cpu.getId()).orElseThrow());
+
+        UUID unknown = UUID.randomUUID();
+        ex = assertThrows(IllegalArgumentException.class, () -> catalog.updatePrices(Map.of(unknown, Money.of(1.0))));
+        assertEquals("Product not in catalog: " + unknown, ex.getMessage());
+    }
+
+    @Test
+    void repriceAll_appliesToEveryRow() {
+        catalog.putAll(List.of(cpu, ram));
+        catalog.repriceAll(minor -> minor * 110 / 100);
+
+        assertEquals(Money.of(4070.0), catalog.findPrice(cpu.getId()).orElseThrow());
+        assertEquals(Money.of(47.3, EUR), catalog.findPrice(ram.getId()).orElseThrow());
+        assertThrows(IllegalArgumentException.class, () -> catalog.repriceAll(minor -> -1));
+        assertEquals(Money.of(4070.0), catalog.findPrice(cpu.getId()).orElseThrow());
+    }
+
+    @Test
+    void remove_keepsOtherProductsReachable() {
+        catalog.putAll(List.of(cpu, ram));
+        assertTrue(catalog.remove(cpu.getId()));
+        assertFalse(catalog.remove(cpu.getId()));
+
+        assertEquals(1, catalog.size());
+        assertFalse(catalog.contains(cpu.getId()));
+        assertSameProduct(ram, catalog.find(ram.getId()).orElseThrow());
+    }
+
+    @Test
+    void randomOperations_matchHashMap() {
+        Random random = new Random(44);
+        Map<UUID, Product> expected = new HashMap<>();
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            ids.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+
+        for (int step = 0; step < 50_000; step++) {
+            UUID id = ids.get(random.nextInt(ids.size()));
+            if (random.nextInt(3) > 0) {
+                Product product = new Product(id, "P" + random.nextInt(1_000), Money.ofMinor(random.nextInt(1_000_000)),
+                        random.nextBoolean() ? "c" + random.nextInt(5) : null);
+                catalog.put(product);
+                expected.put(id, product);
+            } else {
+                assertEquals(expected.remove(id) != null, catalog.remove(id));
+            }
+        }
+
+        assertEquals(expected.size(), catalog.size());
+        for (UUID id : ids) {
+            Product product = expected.get(id);
+            if (product == null) {
+                assertFalse(catalog.contains(id));
+            } else {
+                assertSameProduct(product, catalog.find(id).orElseThrow());
+            }
+        }
+    }
+}
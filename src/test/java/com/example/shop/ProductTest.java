@@ -1,5 +1,6 @@
 package com.example.shop;
 
+import com.example.money.Money;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
@@ -55,7 +56,7 @@ class ProductTest {
                     IllegalArgumentException.class,
                     () -> new Product("CPU", -100.0)
             );
-            assertEquals("price cannot be negative: -100.0", exception.getMessage());
+            assertEquals("price cannot be negative: -100.00 SEK", exception.getMessage());
         }
 
         @Test
@@ -64,7 +65,7 @@ class ProductTest {
             Product product = new Product(id, "CPU", 3700.0);
             assertEquals(id, product.getId());
             assertEquals("CPU", product.getName());
-            assertEquals(3700.0, product.getPrice(), 0.001);
+            assertEquals(Money.of(3700.0), product.getPrice());
         }
 
         @Test
@@ -72,13 +73,13 @@ class ProductTest {
             Product product = new Product("CPU", 3700.0);
             assertNotNull(product.getId());
             assertEquals("CPU", product.getName());
-            assertEquals(3700.0, product.getPrice(), 0.001);
+            assertEquals(Money.of(3700.0), product.getPrice());
         }
 
         @Test
         void constructor_zeroPrice_allows() {
             Product product = new Product("CPU", 0.0);
-            assertEquals(0.0, product.getPrice(), 0.001);
+            assertEquals(Money.of(0.0), product.getPrice());
         }
     }
 
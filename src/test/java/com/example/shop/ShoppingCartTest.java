@@ -1,13 +1,29 @@
 package com.example.shop;
 
+import com.example.money.Money;
+import com.sun.management.ThreadMXBean;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class ShoppingCartTest {
     private ShoppingCart cart;
@@ -55,6 +71,22 @@ class ShoppingCartTest {
             assertEquals(5, cart.getQuantity(cpu.getId()));
             assertEquals(5, cart.getItemCount());
         }
+
+        @Test
+        void addProduct_differentCurrency_throws() {
+            cart.addProduct(cpu, 1);
+            Product euroRam = new Product("RAM", Money.of(43.0, Currency.getInstance("EUR")));
+            CartException exception = assertThrows(CartException.class, () -> cart.addProduct(euroRam, 1));
+            assertEquals("Cannot mix currencies in cart: SEK and EUR", exception.getMessage());
+        }
+
+        @Test
+        void getTotalPrice_isExactInMinorUnits() {
+            // 0.1 + 0.2 blir 0.30000000000000004 med double
+            cart.addProduct(new Product("Sticker", 0.1), 1);
+            cart.addProduct(new Product("Pin", 0.2), 1);
+            assertEquals(Money.ofMinor(30), cart.getTotalPrice());
+        }
     }
 
 
@@ -87,7 +119,7 @@ class ShoppingCartTest {
             cart.addProduct(ram, 3);
             FixedDiscount discount = new FixedDiscount(3000);
             cart.setDiscount(discount);
-            assertEquals(17300.0, cart.getTotalPrice(), 0.001);
+            assertEquals(Money.of(17300.0), cart.getTotalPrice());
         }
 
         @Test
@@ -96,7 +128,7 @@ class ShoppingCartTest {
             cart.addProduct(ram, 3);
             PercentageDiscount discount = new PercentageDiscount(10);
             cart.setDiscount(discount);
-            assertEquals(18270.0, cart.getTotalPrice(), 0.001);
+            assertEquals(Money.of(18270.0), cart.getTotalPrice());
         }
 
         @Test
@@ -147,6 +179,434 @@ class ShoppingCartTest {
     }
 
 
+    @Nested
+    class RunningTotals {
+
+        // Samma beräkning som getTotalPrice och getItemCount gjorde innan summorna hölls löpande
+        private long streamedSubtotal() {
+            return cart.getItems().stream()
+                    .mapToLong(item -> item.getTotalPrice().minorUnits())
+                    .sum();
+        }
+
+        private int streamedItemCount() {
+            return cart.getItems().stream()
+                    .mapToInt(CartItem::getQuantity)
+                    .sum();
+        }
+
+        private void assertMatchesStreamed() {
+            assertEquals(streamedSubtotal(), cart.getTotalPrice().minorUnits());
+            assertEquals(streamedItemCount(), cart.getItemCount());
+        }
+
+        @ParameterizedTest
+        @ValueSource(longs = {1, 2, 3, 42, 2026})
+        void randomOperations_matchStreamedTotals(long seed) {
+            Random random = new Random(seed);
+            List<Product> products = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                products.add(new Product(UUID.randomUUID(), "P" + i, random.nextInt(1, 100_000) / 100.0));
+            }
+
+            for (int step = 0; step < 2_000; step++) {
+                Product product = products.get(random.nextInt(products.size()));
+                int operation = random.nextInt(10);
+                if (operation < 4) {
+                    cart.addProduct(product, random.nextInt(1, 50));
+                } else if (operation < 6) {
+                    // Samma id med ett annat pris, raden behåller priset den fick först
+                    Product repriced = new Product(product.getId(), product.getName(), random.nextInt(1, 100_000) / 100.0);
+                    cart.addProduct(repriced, random.nextInt(1, 50));
+                } else if (operation < 9) {
+                    if (cart.containsProduct(product.getId())) {
+                        cart.removeProduct(product.getId(), random.nextInt(1, 60));
+                    } else {
+                        assertThrows(CartException.class, () -> cart.removeProduct(product.getId(), 1));
+                    }
+                } else if (random.nextInt(20) == 0) {
+                    cart.clear();
+                }
+                assertMatchesStreamed();
+            }
+        }
+
+        @Test
+        void rejectedAdd_leavesTotalsUntouched() {
+            cart.addProduct(cpu, 2);
+            Product euro = new Product(UUID.randomUUID(), "GPU", Money.of(500.0, Currency.getInstance("EUR")));
+
+            assertThrows(CartException.class, () -> cart.addProduct(euro, 1));
+            assertThrows(ArithmeticException.class, () -> cart.addProduct(ram, Integer.MAX_VALUE));
+
+            assertEquals(2, cart.getItemCount());
+            assertEquals(Money.of(7400.0), cart.getTotalPrice());
+            assertMatchesStreamed();
+        }
+
+        @Test
+        void emptiedCart_acceptsAnotherCurrency() {
+            cart.addProduct(cpu, 1);
+            cart.removeProduct(cpu.getId(), 1);
+            Product euro = new Product(UUID.randomUUID(), "GPU", Money.of(500.0, Currency.getInstance("EUR")));
+
+            cart.addProduct(euro, 2);
+
+            assertEquals(Money.of(1000.0, Currency.getInstance("EUR")), cart.getTotalPrice());
+        }
+    }
+
+    @Nested
+    class PriceCache {
+
+        private final AtomicInteger applied = new AtomicInteger();
+
+        private Discount counting(boolean pure) {
+            return new Discount() {
+                @Override
+                public Money apply(Money originalPrice) {
+                    applied.incrementAndGet();
+                    return originalPrice.minus(Money.of(100.0));
+                }
+
+                @Override
+                public boolean isPure() {
+                    return pure;
+                }
+            };
+        }
+
+        @Test
+        void everyMutation_bumpsVersion() {
+            long start = cart.getVersion();
+            cart.addProduct(cpu, 2);
+            cart.removeProduct(cpu.getId(), 1);
+            cart.setDiscount(new FixedDiscount(10));
+            cart.setDiscountPlan(DiscountPlan.NONE);
+            cart.clear();
+            assertEquals(start + 5, cart.getVersion());
+        }
+
+        @Test
+        void pureDiscount_isAppliedOncePerVersion() {
+            cart.addProduct(cpu, 1);
+            cart.setDiscount(counting(true));
+
+            assertEquals(Money.of(3600.0), cart.getTotalPrice());
+            assertEquals(Money.of(3600.0), cart.getTotalPrice());
+            assertEquals(1, applied.get());
+
+            cart.addProduct(ram, 1);
+            assertEquals(Money.of(7900.0), cart.getTotalPrice());
+            assertEquals(2, applied.get());
+        }
+
+        @Test
+        void impureDiscount_isAppliedEveryTime() {
+            cart.addProduct(cpu, 1);
+            cart.setDiscount(counting(false));
+
+            cart.getTotalPrice();
+            cart.getTotalPrice();
+            assertEquals(2, applied.get());
+        }
+
+        @Test
+        void changingDiscount_invalidatesCachedTotal() {
+            cart.addProduct(cpu, 1);
+            assertEquals(Money.of(3700.0), cart.getTotalPrice());
+
+            cart.setDiscount(new PercentageDiscount(10));
+            assertEquals(Money.of(3330.0), cart.getTotalPrice());
+
+            cart.setDiscountPlan(DiscountPlan.compile(List.of(new DiscountRule.ForProduct(cpu.getId(), new FixedDiscount(700)))));
+            assertEquals(Money.of(2700.0), cart.getTotalPrice());
+        }
+
+        @Test
+        void clear_invalidatesCachedTotal() {
+            cart.addProduct(cpu, 1);
+            cart.getTotalPrice();
+            cart.clear();
+            assertEquals(Money.of(0.0), cart.getTotalPrice());
+        }
+    }
+
+    @Nested
+    class Stock {
+
+        private final AtomicLong clock = new AtomicLong();
+        private final Inventory inventory = new Inventory(Duration.ofMinutes(15), 4, clock::get);
+
+        @BeforeEach
+        void setUp() {
+            inventory.addStock(cpu.getId(), 5);
+            inventory.addStock(ram.getId(), 5);
+            cart.setInventory(inventory);
+        }
+
+        @Test
+        void addProduct_reservesStock() {
+            cart.addProduct(cpu, 2);
+            cart.addProduct(cpu, 1);
+            assertEquals(2, inventory.getAvailable(cpu.getId()));
+        }
+
+        @Test
+        void addProduct_beyondStock_throwsAndLeavesCartUnchanged() {
+            cart.addProduct(cpu, 4);
+
+            InsufficientStockException ex = assertThrows(InsufficientStockException.class, () -> cart.addProduct(cpu, 2));
+            assertEquals(cpu.getId(), ex.getProductId());
+            assertEquals(4, cart.getQuantity(cpu.getId()));
+            assertEquals(Money.of(14800.0), cart.getTotalPrice());
+            assertEquals(1, inventory.getAvailable(cpu.getId()));
+        }
+
+        @Test
+        void removeAndClear_releaseStock() {
+            cart.addProduct(cpu, 3);
+            cart.addProduct(ram, 2);
+
+            cart.removeProduct(cpu.getId(), 1);
+            assertEquals(3, inventory.getAvailable(cpu.getId()));
+
+            cart.clear();
+            assertEquals(5, inventory.getAvailable(cpu.getId()));
+            assertEquals(5, inventory.getAvailable(ram.getId()));
+        }
+
+        @Test
+        void expiredReservation_isTakenAgainOnNextAdd() {
+            cart.addProduct(cpu, 2);
+            clock.addAndGet(Duration.ofMinutes(30).toNanos());
+            assertEquals(5, inventory.getAvailable(cpu.getId()));
+
+            cart.addProduct(cpu, 1);
+            assertEquals(2, inventory.getAvailable(cpu.getId()));
+
+            cart.removeProduct(cpu.getId(), 3);
+            assertEquals(5, inventory.getAvailable(cpu.getId()));
+        }
+
+        @Test
+        void setInventory_onNonEmptyCart_throws() {
+            cart.addProduct(cpu, 1);
+            CartException ex = assertThrows(CartException.class, () -> cart.setInventory(null));
+            assertEquals("Inventory can only be set on an empty cart", ex.getMessage());
+        }
+    }
+
+    @Nested
+    class BulkOperations {
+
+        @Test
+        void addProducts_mergesWithExistingLines() {
+            cart.addProduct(cpu, 1);
+            long version = cart.getVersion();
+
+            cart.addProducts(Map.of(cpu, 2, ram, 3));
+
+            assertEquals(3, cart.getQuantity(cpu.getId()));
+            assertEquals(3, cart.getQuantity(ram.getId()));
+            assertEquals(6, cart.getItemCount());
+            assertEquals(Money.of(24000.0), cart.getTotalPrice());
+            assertEquals(version + 1, cart.getVersion());
+        }
+
+        @Test
+        void addProducts_repricedExistingLine_keepsLinePrice() {
+            cart.addProduct(cpu, 1);
+            Product repriced = new Product(cpu.getId(), cpu.getName(), Money.of(1.0));
+
+            cart.addProducts(Map.of(repriced, 2));
+            cart.removeProducts(Map.of(cpu.getId(), 3));
+
+            assertTrue(cart.isEmpty());
+            assertEquals(Money.ofMinor(0), cart.getTotalPrice());
+        }
+
+        @Test
+        void addProducts_largeBatch_matchesLineByLine() {
+            ShoppingCart lineByLine = new ShoppingCart();
+            Map<Product, Integer> batch = new LinkedHashMap<>();
+            for (int i = 1; i <= 500; i++) {
+                Product product = new Product(UUID.randomUUID(), "P" + i, Money.ofMinor(i * 100L));
+                batch.put(product, i % 7 + 1);
+                lineByLine.addProduct(product, i % 7 + 1);
+            }
+
+            cart.addProducts(batch);
+
+            assertEquals(500, cart.getItems().size());
+            assertEquals(lineByLine.getItemCount(), cart.getItemCount());
+            assertEquals(lineByLine.getTotalPrice(), cart.getTotalPrice());
+        }
+
+        @Test
+        void addProducts_invalidLine_leavesCartUntouched() {
+            cart.addProduct(cpu, 1);
+            Product euro = new Product(UUID.randomUUID(), "GPU", Money.of(500.0, Currency.getInstance("EUR")));
+            Map<Product, Integer> batch = new LinkedHashMap<>();
+            batch.put(ram, 2);
+            batch.put(euro, 1);
+
+            assertThrows(CartException.class, () -> cart.addProducts(batch));
+            batch.put(euro, 0);
+            assertThrows(IllegalArgumentException.class, () -> cart.addProducts(batch));
+
+            assertFalse(cart.containsProduct(ram.getId()));
+            assertEquals(1, cart.getItemCount());
+            assertEquals(Money.of(3700.0), cart.getTotalPrice());
+        }
+
+        @Test
+        void addProducts_outOfStock_releasesWholeBatch() {
+            Inventory inventory = new Inventory(Duration.ofMinutes(15));
+            inventory.addStock(cpu.getId(), 5);
+            inventory.addStock(ram.getId(), 1);
+            cart.setInventory(inventory);
+            cart.addProduct(cpu, 1);
+            Map<Product, Integer> batch = new LinkedHashMap<>();
+            batch.put(cpu, 2);
+            batch.put(ram, 2);
+
+            assertThrows(InsufficientStockException.class, () -> cart.addProducts(batch));
+
+            assertEquals(4, inventory.getAvailable(cpu.getId()));
+            assertEquals(1, inventory.getAvailable(ram.getId()));
+            assertEquals(1, cart.getItemCount());
+        }
+
+        @Test
+        void removeProducts_removesAllLines() {
+            cart.addProducts(Map.of(cpu, 3, ram, 1));
+            long version = cart.getVersion();
+
+            cart.removeProducts(Map.of(cpu.getId(), 1, ram.getId(), 5));
+
+            assertEquals(2, cart.getItemCount());
+            assertFalse(cart.containsProduct(ram.getId()));
+            assertEquals(Money.of(7400.0), cart.getTotalPrice());
+            assertEquals(version + 1, cart.getVersion());
+        }
+
+        @Test
+        void removeProducts_unknownProduct_removesNothing() {
+            cart.addProduct(cpu, 3);
+            UUID unknown = UUID.randomUUID();
+            Map<UUID, Integer> batch = new LinkedHashMap<>();
+            batch.put(cpu.getId(), 1);
+            batch.put(unknown, 1);
+
+            CartException ex = assertThrows(CartException.class, () -> cart.removeProducts(batch));
+            assertEquals("Product not found in cart: " + unknown, ex.getMessage());
+            assertEquals(3, cart.getItemCount());
+        }
+
+        @Test
+        void bulkOperations_notifyListenerPerLine() {
+            List<String> events = new ArrayList<>();
+            cart.setChangeListener(new CartChangeListener() {
+                @Override
+                public void productAdded(Product product, int quantity) {
+                    events.add("+" + product.getName() + quantity);
+                }
+
+                @Override
+                public void productRemoved(UUID productId, int quantity) {
+                    events.add("-" + quantity);
+                }
+
+                @Override
+                public void cleared() {
+                    events.add("clear");
+                }
+            });
+            Map<Product, Integer> batch = new LinkedHashMap<>();
+            batch.put(cpu, 1);
+            batch.put(ram, 2);
+
+            cart.addProducts(batch);
+            cart.removeProducts(Map.of(ram.getId(), 1));
+
+            assertEquals(List.of("+CPU1", "+RAM2", "-1"), events);
+        }
+    }
+
+    @Nested
+    class LineStorage {
+
+        @Test
+        void randomOperations_matchHashMap() {
+            Random random = new Random(50);
+            List<Product> products = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                products.add(new Product(new UUID(random.nextLong(), random.nextLong()), "P" + i, 10.0));
+            }
+            Map<UUID, Integer> expected = new HashMap<>();
+
+            for (int step = 0; step < 20_000; step++) {
+                Product product = products.get(random.nextInt(products.size()));
+                int quantity = random.nextInt(1, 5);
+                if (random.nextBoolean()) {
+                    cart.addProduct(product, quantity);
+                    expected.merge(product.getId(), quantity, Integer::sum);
+                } else if (expected.containsKey(product.getId())) {
+                    cart.removeProduct(product.getId(), quantity);
+                    expected.computeIfPresent(product.getId(), (id, left) -> left > quantity ? left - quantity : null);
+                }
+            }
+
+            assertEquals(expected.size(), cart.getItems().size());
+            for (Product product : products) {
+                assertEquals(expected.getOrDefault(product.getId(), 0), cart.getQuantity(product.getId()));
+                assertEquals(expected.containsKey(product.getId()), cart.containsProduct(product.getId()));
+            }
+        }
+
+        @Test
+        void getItems_isSameLiveView() {
+            Collection<CartItem> items = cart.getItems();
+            cart.addProduct(cpu, 1);
+            assertSame(items, cart.getItems());
+            assertEquals(1, items.size());
+        }
+
+        // Ersätter en JMH-mätning med GC-profilering: räknar tilldelade bytes i den egna tråden
+        @Test
+        void steadyStateOperations_allocateNothing() {
+            ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+            assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+            cart.addProduct(cpu, 1);
+            cart.addProduct(ram, 1);
+            cart.setDiscount(new PercentageDiscount(10));
+            UUID cpuId = cpu.getId();
+            for (int i = 0; i < 20_000; i++) {
+                churn(cpuId);
+            }
+            cart.getTotalPrice();
+
+            long before = threads.getCurrentThreadAllocatedBytes();
+            long baseline = threads.getCurrentThreadAllocatedBytes() - before;
+            before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 10_000; i++) {
+                churn(cpuId);
+            }
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before - baseline;
+
+            assertEquals(0, allocated);
+        }
+
+        private void churn(UUID cpuId) {
+            cart.addProduct(cpu, 3);
+            cart.removeProduct(cpuId, 2);
+            cart.removeProduct(cpuId, 1);
+            cart.getQuantity(cpuId);
+            cart.containsProduct(cpuId);
+        }
+    }
+
     @Nested
     class Validation {
 